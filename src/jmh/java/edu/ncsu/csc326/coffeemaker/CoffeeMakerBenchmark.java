@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc326.coffeemaker.exceptions.InventoryException;
+import edu.ncsu.csc326.coffeemaker.exceptions.RecipeException;
+
+/**
+ * Throughput of the order path and of inventory reads on one
+ * shared coffee maker.
+ *
+ * The grouped benchmarks mix orders, restocks and inventory checks
+ * on the same machine: "readHeavy" runs three checks per order and
+ * "writeHeavy" three orders per check.  The "dispatched" group places
+ * orders from four threads through the single-threaded order
+ * dispatcher and waits for each result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoffeeMakerBenchmark {
+
+	/** Units of each ingredient on hand at the start of an iteration */
+	static final String STOCK = "1000000000";
+
+	/** Orders in one batch */
+	static final int BATCH = 100;
+
+	private CoffeeMaker coffeeMaker;
+	private final int[] batchIds = new int[BATCH];
+	private final int[] batchPaid = new int[BATCH];
+	private final int[] batchChange = new int[BATCH];
+
+	/**
+	 * Creates a machine with one single-unit recipe and enough stock
+	 * that no order fails during an iteration.
+	 */
+	@Setup(Level.Iteration)
+	public void setUp() throws RecipeException, InventoryException {
+		coffeeMaker = new CoffeeMaker();
+		coffeeMaker.addRecipe(recipe("Coffee", "1", "50"));
+		coffeeMaker.addInventory(STOCK, STOCK, STOCK, STOCK);
+		Arrays.fill(batchPaid, 60);
+	}
+
+	/**
+	 * Stops the dispatcher thread started by the dispatched group.
+	 */
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		OrderDispatcher dispatcher = coffeeMaker.getDispatcher();
+		if (dispatcher != null) {
+			dispatcher.close();
+		}
+	}
+
+	@Benchmark
+	public int makeCoffee() {
+		return coffeeMaker.makeCoffee(0, 60);
+	}
+
+	/** A burst of 100 orders placed through the batch API */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int makeCoffeeBatch() {
+		return coffeeMaker.makeCoffeeBatch(batchIds, batchPaid, batchChange, BatchMode.PER_ORDER);
+	}
+
+	@Benchmark
+	public String checkInventory() {
+		return coffeeMaker.checkInventory();
+	}
+
+	@Benchmark
+	@Group("readHeavy")
+	@GroupThreads(1)
+	public int readHeavyOrder() {
+		return coffeeMaker.makeCoffee(0, 60);
+	}
+
+	@Benchmark
+	@Group("readHeavy")
+	@GroupThreads(3)
+	public String readHeavyCheck() {
+		return coffeeMaker.checkInventory();
+	}
+
+	@Benchmark
+	@Group("writeHeavy")
+	@GroupThreads(3)
+	public int writeHeavyOrder() {
+		return coffeeMaker.makeCoffee(0, 60);
+	}
+
+	@Benchmark
+	@Group("writeHeavy")
+	@GroupThreads(1)
+	public String writeHeavyCheck() {
+		return coffeeMaker.checkInventory();
+	}
+
+	@Benchmark
+	@Group("dispatched")
+	@GroupThreads(4)
+	public int dispatchedOrder() {
+		return coffeeMaker.submitOrder(0, 60).join().getChange();
+	}
+
+	@Benchmark
+	@Group("restock")
+	@GroupThreads(3)
+	public int restockOrder() {
+		return coffeeMaker.makeCoffee(0, 60);
+	}
+
+	@Benchmark
+	@Group("restock")
+	@GroupThreads(1)
+	public void restockAdd() throws InventoryException {
+		coffeeMaker.addInventory("1", "1", "1", "1");
+	}
+
+	/**
+	 * Returns a recipe that takes the given units of every ingredient.
+	 */
+	static Recipe recipe(String name, String units, String price) throws RecipeException {
+		Recipe r = new Recipe();
+		r.setName(name);
+		r.setPrice(price);
+		r.setAmtCoffee(units);
+		r.setAmtMilk(units);
+		r.setAmtSugar(units);
+		r.setAmtChocolate(units);
+		return r;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc326.coffeemaker.exceptions.InventoryException;
+import edu.ncsu.csc326.coffeemaker.exceptions.RecipeException;
+
+/**
+ * Throughput of the inventory on its own, without the recipe lookup
+ * done by {@link CoffeeMaker}, for the four standard ingredients and
+ * for a machine that stocks 32.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryBenchmark {
+
+	/** Number of ingredients the machine stocks */
+	@Param({"4", "32"})
+	public int ingredients;
+
+	private Inventory inventory;
+	private Recipe recipe;
+	/** Restock whose last amount is malformed, as sent by a broken kiosk */
+	private String[] malformed;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws RecipeException, InventoryException {
+		String[] extra = new String[ingredients - 4];
+		for (int i = 0; i < extra.length; i++) {
+			extra[i] = "Syrup " + i;
+		}
+		IngredientCatalog catalog = new IngredientCatalog(extra);
+		inventory = new Inventory(catalog);
+		String[] stock = new String[ingredients];
+		Arrays.fill(stock, CoffeeMakerBenchmark.STOCK);
+		inventory.addInventory(stock);
+		recipe = new Recipe(catalog);
+		recipe.setName("Coffee");
+		for (int i = 0; i < ingredients; i++) {
+			recipe.setAmount(i, "1");
+		}
+		malformed = new String[ingredients];
+		Arrays.fill(malformed, "5");
+		malformed[ingredients - 1] = "5x";
+	}
+
+	@Benchmark
+	public boolean useIngredients() {
+		return inventory.useIngredients(recipe);
+	}
+
+	@Benchmark
+	public int rejectMalformedRestock() {
+		return inventory.tryAddInventory(malformed);
+	}
+
+	@Benchmark
+	public String rejectMalformedRestockThrowing() {
+		try {
+			inventory.addInventory(malformed);
+			return null;
+		} catch (InventoryException e) {
+			return e.getMessage();
+		}
+	}
+
+	@Benchmark
+	public String inventoryToString() {
+		return inventory.toString();
+	}
+}
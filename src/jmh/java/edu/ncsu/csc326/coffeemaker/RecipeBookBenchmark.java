@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc326.coffeemaker.exceptions.RecipeException;
+
+/**
+ * Throughput of recipe book mutations, alone and while other
+ * threads keep reading the recipe list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecipeBookBenchmark {
+
+	private RecipeBook recipeBook;
+	private Recipe added;
+	private Recipe edited;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws RecipeException {
+		recipeBook = new RecipeBook();
+		recipeBook.addRecipe(CoffeeMakerBenchmark.recipe("Coffee", "1", "50"));
+		added = CoffeeMakerBenchmark.recipe("Mocha", "2", "75");
+		edited = CoffeeMakerBenchmark.recipe("Coffee", "3", "60");
+	}
+
+	/**
+	 * Adds a recipe and deletes it again by name.  Ids are never
+	 * reused, so the recipe array grows by one slot per call.
+	 */
+	@Benchmark
+	public String addAndDeleteRecipe() {
+		recipeBook.addRecipe(added);
+		return recipeBook.deleteRecipe(recipeBook.getRecipeId("Mocha"));
+	}
+
+	@Benchmark
+	public String editRecipe() {
+		return recipeBook.editRecipe(0, edited);
+	}
+
+	@Benchmark
+	@Group("editWhileReading")
+	@GroupThreads(1)
+	public String editWhileReadingEdit() {
+		return recipeBook.editRecipe(0, edited);
+	}
+
+	@Benchmark
+	@Group("editWhileReading")
+	@GroupThreads(3)
+	public Recipe editWhileReadingRead() {
+		return recipeBook.getRecipes()[0];
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc326.coffeemaker.exceptions.RecipeException;
+
+/**
+ * Time to plan a restock for a large menu with random recipes and
+ * demand.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestockPlannerBenchmark {
+
+	@Param({"100", "5000"})
+	public int recipes;
+
+	private Recipe[] menu;
+	private double[] demand;
+	private final int[] counts = {500, 500, 500, 500};
+	private final RestockPlanner planner = new RestockPlanner(new int[] {2, 1, 1, 3}, 100000, null);
+
+	@Setup
+	public void setUp() throws RecipeException {
+		Random random = new Random(1);
+		menu = new Recipe[recipes];
+		demand = new double[recipes];
+		for (int id = 0; id < recipes; id++) {
+			Recipe r = new Recipe();
+			r.setName("Recipe " + id);
+			r.setPrice(1 + random.nextInt(200));
+			for (int i = 0; i < counts.length; i++) {
+				r.setAmount(i, random.nextInt(5));
+			}
+			menu[id] = r;
+			demand[id] = random.nextInt(50);
+		}
+	}
+
+	@Benchmark
+	public RestockPlanner.Plan plan() {
+		return planner.plan(counts, menu, demand);
+	}
+
+	@Benchmark
+	public int[] maxServings() {
+		return RestockPlanner.maxServings(counts, menu);
+	}
+}
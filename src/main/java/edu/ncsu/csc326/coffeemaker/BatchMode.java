@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * How {@link CoffeeMaker#makeCoffeeBatch(int[], int[], int[], BatchMode)}
+ * treats orders in a batch that cannot be made.
+ */
+public enum BatchMode {
+	/** Every order succeeds or fails on its own, in batch order */
+	PER_ORDER,
+	/** If any order cannot be made, no order in the batch is made */
+	ALL_OR_NOTHING
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Wall clock time that is cheap to read on the order path.
+ *
+ * Reading the system clock costs tens of nanoseconds on many virtual
+ * machines.  One daemon thread instead reads it every few milliseconds
+ * into a volatile field, so a reader pays for one volatile load and
+ * the time is at most RESOLUTION old.
+ */
+final class CoarseClock {
+
+	/** Milliseconds between updates */
+	static final long RESOLUTION = 5;
+
+	/** The coarse clock as a supplier of milliseconds */
+	static final LongSupplier MILLIS = new LongSupplier() {
+		public long getAsLong() {
+			return now;
+		}
+	};
+
+	private static volatile long now = System.currentTimeMillis();
+
+	static {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				for (;;) {
+					now = System.currentTimeMillis();
+					try {
+						Thread.sleep(RESOLUTION);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}, "coarse-clock");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private CoarseClock() {
+	}
+}
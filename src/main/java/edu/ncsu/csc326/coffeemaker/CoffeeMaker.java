@@ -13,6 +13,8 @@
  */
 package edu.ncsu.csc326.coffeemaker;
 
+import java.util.concurrent.CompletableFuture;
+
 import edu.ncsu.csc326.coffeemaker.exceptions.InventoryException;
 
 /**
@@ -20,17 +22,135 @@ import edu.ncsu.csc326.coffeemaker.exceptions.InventoryException;
  */
 public class CoffeeMaker {
 	/** Array of recipes in coffee maker */
-	private static RecipeBook recipeBook;
+	private final RecipeBook recipeBook;
 	/** Inventory of the coffee maker */
-    private static Inventory inventory;
+    private final Inventory inventory;
+    /** Outcome counters and latency of the coffee maker */
+    private final CoffeeMakerMetrics metrics;
+    /** Units sold and revenue of every recipe */
+    private final SalesLedger sales = new SalesLedger();
+    /** Recipes the inventory can make */
+    private final RecipeAvailability availability;
+    /** Changes made through the coffee maker, for subscribers */
+    private final EventBus events = new EventBus(4096);
+    /** Where orders are recorded, if anywhere */
+    private volatile OrderHistory.Tap history;
+    /** Thread that makes submitted orders, started on first use */
+    private volatile OrderDispatcher dispatcher;
 	
     /**
      * Constructor for the coffee maker
      *
      */
 	public CoffeeMaker() {
+		this(IngredientCatalog.DEFAULT);
+	}
+	
+    /**
+     * Constructor for a coffee maker that stocks the
+     * ingredients in the given catalog
+     * @param catalog
+     */
+	public CoffeeMaker(IngredientCatalog catalog) {
 	    recipeBook = new RecipeBook();
-		inventory = new Inventory();
+		inventory = new Inventory(catalog);
+		metrics = new CoffeeMakerMetrics(inventory, recipeBook);
+		availability = new RecipeAvailability(inventory, recipeBook);
+		recipeBook.addListener(new RecipeBookListener() {
+			public void recipeChanged(Change change, int recipeId, RecipeSnapshot snapshot) {
+				recipeBookChanged(change, recipeId, snapshot);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the inventory of the coffee maker.
+	 * @return Inventory
+	 */
+	public Inventory getInventory() {
+		return inventory;
+	}
+	
+	/**
+	 * Returns the recipe book of the coffee maker.
+	 * @return RecipeBook
+	 */
+	public RecipeBook getRecipeBook() {
+		return recipeBook;
+	}
+	
+	/**
+	 * Returns the counters and latency histograms of the coffee maker.
+	 * @return CoffeeMakerMetrics
+	 */
+	public CoffeeMakerMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Returns the record of what the coffee maker has sold.
+	 * @return SalesLedger
+	 */
+	public SalesLedger getSalesLedger() {
+		return sales;
+	}
+	
+	/**
+	 * Returns the bus the coffee maker publishes every successful
+	 * makeCoffee, addInventory, addRecipe, editRecipe and deleteRecipe to.
+	 * Recipe changes are published while the recipe book holds its
+	 * lock, replicated ones included, so a BLOCK subscriber that falls
+	 * behind holds up recipe changes too.
+	 * @return EventBus
+	 */
+	public EventBus getEventBus() {
+		return events;
+	}
+	
+	/**
+	 * Records every later order, successful or not, in the history
+	 * under the given machine id.  A null history stops recording.
+	 * @param history
+	 * @param machineId
+	 */
+	public void setOrderHistory(OrderHistory history, String machineId) {
+		this.history = history == null ? null : new OrderHistory.Tap(history, machineId);
+	}
+	
+	/**
+	 * Returns the index of the recipes the inventory can make.
+	 * @return RecipeAvailability
+	 */
+	public RecipeAvailability getAvailability() {
+		return availability;
+	}
+	
+	/**
+	 * Returns true if the recipe exists and there are enough
+	 * ingredients to make it, so that an order can be turned down
+	 * before it is paid for.
+	 * @param recipeId
+	 * @return boolean
+	 */
+	public boolean isAvailable(int recipeId) {
+		return availability.isAvailable(recipeId);
+	}
+	
+	/**
+	 * Returns the number of servings of every recipe the current
+	 * inventory can make, by recipe id.
+	 * @return int []
+	 */
+	public int[] getMaxServings() {
+		return RestockPlanner.maxServings(inventory.getAmounts(), recipeBook.getRecipes());
+	}
+	
+	/**
+	 * Returns the catalog of ingredients the coffee maker stocks.
+	 * @return IngredientCatalog
+	 */
+	public IngredientCatalog getCatalog() {
+		return inventory.getCatalog();
 	}
 	
 	/**
@@ -41,7 +161,10 @@ public class CoffeeMaker {
 	 * @return boolean
 	 */
 	public boolean addRecipe(Recipe r) {
-		return recipeBook.addRecipe(r);
+		long start = System.nanoTime();
+		boolean added = recipeBook.addRecipe(r);
+		metrics.record(CoffeeMakerMetrics.Operation.ADD_RECIPE, start);
+		return added;
 	}
 	
 	/**
@@ -52,7 +175,10 @@ public class CoffeeMaker {
 	 * @return String
 	 */
 	public String deleteRecipe(int recipeToDelete) {
-		return recipeBook.deleteRecipe(recipeToDelete);
+		long start = System.nanoTime();
+		String deleted = recipeBook.deleteRecipe(recipeToDelete);
+		metrics.record(CoffeeMakerMetrics.Operation.DELETE_RECIPE, start);
+		return deleted;
 	}
 	
 	/**
@@ -63,7 +189,10 @@ public class CoffeeMaker {
 	 * @return String
 	 */
 	public String editRecipe(int recipeToEdit, Recipe r) {
-		return recipeBook.editRecipe(recipeToEdit, r);
+		long start = System.nanoTime();
+		String edited = recipeBook.editRecipe(recipeToEdit, r);
+		metrics.record(CoffeeMakerMetrics.Operation.EDIT_RECIPE, start);
+		return edited;
 	}
     
     /**
@@ -74,21 +203,107 @@ public class CoffeeMaker {
      * @param amtChocolate
      * @return boolean
      */
-    public synchronized void addInventory(String amtCoffee, String amtMilk, String amtSugar, String amtChocolate) throws InventoryException {
-	    inventory.addCoffee(amtCoffee);
-	    inventory.addMilk(amtMilk);
-	    inventory.addSugar(amtSugar);
-	    inventory.addChocolate(amtChocolate);
+    public void addInventory(String amtCoffee, String amtMilk, String amtSugar, String amtChocolate) throws InventoryException {
+    	long start = System.nanoTime();
+    	try {
+    		inventory.addInventory(amtCoffee, amtMilk, amtSugar, amtChocolate);
+    		inventoryAdded();
+    	} finally {
+    		metrics.record(CoffeeMakerMetrics.Operation.ADD_INVENTORY, start);
+    	}
+    }
+    
+    /**
+     * Adds an amount of every ingredient in the catalog, given
+     * in catalog order
+     * @param amounts
+     * @throws InventoryException
+     */
+    public void addInventory(String[] amounts) throws InventoryException {
+    	long start = System.nanoTime();
+    	try {
+    		inventory.addInventory(amounts);
+    		inventoryAdded();
+    	} finally {
+    		metrics.record(CoffeeMakerMetrics.Operation.ADD_INVENTORY, start);
+    	}
+    }
+    
+    /**
+     * Adds an amount of every ingredient in the catalog, given
+     * in catalog order
+     * @param amounts
+     * @throws InventoryException
+     */
+    public void addInventory(int[] amounts) throws InventoryException {
+    	long start = System.nanoTime();
+    	try {
+    		inventory.addInventory(amounts);
+    		inventoryAdded();
+    	} finally {
+    		metrics.record(CoffeeMakerMetrics.Operation.ADD_INVENTORY, start);
+    	}
+    }
+    
+    /**
+     * Adds an amount of every ingredient in the catalog if all of
+     * them are valid, without throwing
+     * @param amounts
+     * @return int   a result code from {@link InputCheck}
+     */
+    public int tryAddInventory(CharSequence[] amounts) {
+    	long start = System.nanoTime();
+    	int bad = inventory.tryAddInventory(amounts);
+    	metrics.record(CoffeeMakerMetrics.Operation.ADD_INVENTORY, start);
+    	if (bad == InputCheck.NONE) {
+    		inventoryAdded();
+    	}
+    	return bad;
+    }
+    
+    /**
+     * Adds an amount of every ingredient in the catalog if all of
+     * them are valid, without throwing
+     * @param amounts
+     * @return int   a result code from {@link InputCheck}
+     */
+    public int tryAddInventory(int[] amounts) {
+    	long start = System.nanoTime();
+    	int bad = inventory.tryAddInventory(amounts);
+    	metrics.record(CoffeeMakerMetrics.Operation.ADD_INVENTORY, start);
+    	if (bad == InputCheck.NONE) {
+    		inventoryAdded();
+    	}
+    	return bad;
     }
     
     /**
      * Returns the inventory of the coffee maker
      * @return Inventory
      */
-    public synchronized String checkInventory() {
+    public String checkInventory() {
         return inventory.toString();
     }
     
+    /**
+     * Returns the current inventory counts and their version,
+     * without locking or copying.
+     * @return InventorySnapshot
+     */
+    public InventorySnapshot getInventorySnapshot() {
+        return inventory.getSnapshot();
+    }
+    
+    /**
+     * Returns true if the inventory changed after the given version,
+     * so pollers can skip a machine that did not change.
+     * @param version a version from an earlier snapshot
+     * @return boolean
+     */
+    public boolean inventoryChangedSince(long version) {
+        return inventory.changedSince(version);
+    }
+    
     /**
      * Returns the change of a user's beverage purchase, or
      * the user's money if the beverage cannot be made
@@ -96,29 +311,273 @@ public class CoffeeMaker {
      * @param amtPaid
      * @return int
      */
-    public synchronized int makeCoffee(int recipeToPurchase, int amtPaid) {
-        int change = 0;
-        
-        if (getRecipes()[recipeToPurchase] == null) {
-        	change = amtPaid;
-        } else if (getRecipes()[recipeToPurchase].getPrice() <= amtPaid) {
-        	if (inventory.useIngredients(getRecipes()[recipeToPurchase])) {
-        		change = amtPaid - getRecipes()[recipeToPurchase].getPrice();
-        	} else {
-        		change = amtPaid;
-        	}
+    public int makeCoffee(int recipeToPurchase, int amtPaid) {
+    	long start = metrics.startOrder();
+    	Recipe recipe = recipeBook.getRecipe(recipeToPurchase);
+    	return change(recipe, amtPaid, serve(recipeToPurchase, recipe, amtPaid, start));
+    }
+    
+    /**
+     * Returns the change of a user's beverage purchase, or
+     * the user's money if the beverage cannot be made
+     * @param recipeName
+     * @param amtPaid
+     * @return int
+     */
+    public int makeCoffee(String recipeName, int amtPaid) {
+    	long start = metrics.startOrder();
+    	Recipe recipe = recipeBook.getRecipe(recipeName);
+    	return change(recipe, amtPaid, serve(-1, recipe, amtPaid, start));
+    }
+    
+    /**
+     * Makes a beverage like {@link #makeCoffee(int, int)} and returns
+     * why the order failed as well as the change.
+     * @param recipeToPurchase
+     * @param amtPaid
+     * @return OrderResult
+     */
+    public OrderResult order(int recipeToPurchase, int amtPaid) {
+    	long start = metrics.startOrder();
+    	Recipe recipe = recipeBook.getRecipe(recipeToPurchase);
+    	OrderStatus status = serve(recipeToPurchase, recipe, amtPaid, start);
+    	return new OrderResult(status, change(recipe, amtPaid, status));
+    }
+    
+    /**
+     * Makes a beverage like {@link #makeCoffee(String, int)} and
+     * returns why the order failed as well as the change.
+     * @param recipeName
+     * @param amtPaid
+     * @return OrderResult
+     */
+    public OrderResult order(String recipeName, int amtPaid) {
+    	long start = metrics.startOrder();
+    	Recipe recipe = recipeBook.getRecipe(recipeName);
+    	OrderStatus status = serve(-1, recipe, amtPaid, start);
+    	return new OrderResult(status, change(recipe, amtPaid, status));
+    }
+    
+    /**
+     * Makes the beverage if it can be made, counts the outcome and
+     * records the order.  The recipe id is -1 if the order was by name.
+     */
+    private OrderStatus serve(int recipeId, Recipe recipe, int amtPaid, long start) {
+    	OrderStatus status;
+        if (recipe == null) {
+        	status = OrderStatus.UNKNOWN_RECIPE;
+        } else if (recipe.getPrice() > amtPaid) {
+        	status = OrderStatus.INSUFFICIENT_FUNDS;
+        } else if (inventory.useIngredients(recipe)) {
+        	status = OrderStatus.SUCCESS;
+        	sales.record(recipe);
+        	coffeeMade(recipeId, recipe);
         } else {
-        	change = amtPaid;
+        	status = OrderStatus.OUT_OF_STOCK;
+        }
+        metrics.finishOrder(status, start);
+        OrderHistory.Tap tap = history;
+        if (tap != null) {
+        	if (recipeId < 0 && recipe != null) {
+        		recipeId = recipeBook.getRecipeId(recipe.getName());
+        	}
+        	tap.record(recipeId, amtPaid, change(recipe, amtPaid, status), status);
         }
-        
-        return change;
+        return status;
+    }
+    
+    /**
+     * Returns the outcome of one order of a batch.
+     */
+    private static OrderStatus batchStatus(Recipe recipe, int amtPaid, boolean madeIt, boolean batchFailed) {
+    	if (recipe == null) {
+    		return OrderStatus.UNKNOWN_RECIPE;
+    	} else if (recipe.getPrice() > amtPaid) {
+    		return OrderStatus.INSUFFICIENT_FUNDS;
+    	} else if (madeIt) {
+    		return OrderStatus.SUCCESS;
+    	} else {
+    		return batchFailed ? OrderStatus.BATCH_FAILED : OrderStatus.OUT_OF_STOCK;
+    	}
+    }
+    
+    /**
+     * Publishes a change to the recipe book, local or replicated.
+     * Called by the book with its lock held, so the id and snapshot are
+     * those of the change and the book's current snapshot is this one.
+     */
+    private void recipeBookChanged(RecipeBookListener.Change change, int recipeId, RecipeSnapshot recipes) {
+    	if (events.hasSubscribers()) {
+    		if (change == RecipeBookListener.Change.DELETE) {
+    			publish(CoffeeMakerEvent.Type.RECIPE_DELETED, recipeId, recipeBook.getReplaced().getRecipe(recipeId));
+    		} else {
+    			publish(change == RecipeBookListener.Change.ADD ? CoffeeMakerEvent.Type.RECIPE_ADDED
+    					: CoffeeMakerEvent.Type.RECIPE_EDITED, recipeId, recipes.getRecipe(recipeId));
+    		}
+    	}
+    }
+    
+    /**
+     * Publishes a beverage made from the recipe with the given id, or
+     * -1 if it was ordered by name.
+     */
+    private void coffeeMade(int recipeId, Recipe recipe) {
+    	if (events.hasSubscribers()) {
+    		publish(CoffeeMakerEvent.Type.COFFEE_MADE,
+    				recipeId >= 0 ? recipeId : recipeBook.getSnapshot().getRecipeId(recipe.getName()), recipe);
+    	}
+    }
+    
+    private void inventoryAdded() {
+    	if (events.hasSubscribers()) {
+    		publish(CoffeeMakerEvent.Type.INVENTORY_ADDED, -1, null);
+    	}
+    }
+    
+    private void publish(CoffeeMakerEvent.Type type, int recipeId, Recipe recipe) {
+    	events.publishCurrent(type, recipeId, recipe, inventory, recipeBook);
+    }
+    
+    /**
+     * Queues an order to be made by the coffee maker's dispatcher
+     * thread.  If none was started, one with 1024 slots that parks
+     * while idle is started.
+     * @param recipeToPurchase
+     * @param amtPaid
+     * @return the result of the order once it has been made; fails if
+     * 		the dispatcher was closed
+     */
+    public CompletableFuture<OrderResult> submitOrder(int recipeToPurchase, int amtPaid) {
+    	OrderDispatcher d = dispatcher;
+    	if (d == null) {
+    		synchronized (this) {
+    			d = dispatcher;
+    			if (d == null) {
+    				d = startDispatcher(1024, WaitStrategy.PARK);
+    			}
+    		}
+    	}
+    	return d.submit(recipeToPurchase, amtPaid);
+    }
+    
+    /**
+     * Starts the thread that makes orders given to
+     * {@link #submitOrder(int, int)}.
+     * @param capacity number of orders that can be queued
+     * @param waitStrategy how the thread waits for orders
+     * @return OrderDispatcher
+     * @throws IllegalStateException if a dispatcher is already running
+     */
+    public synchronized OrderDispatcher startDispatcher(int capacity, WaitStrategy waitStrategy) {
+    	if (dispatcher != null && !dispatcher.isClosed()) {
+    		throw new IllegalStateException("Order dispatcher is already running");
+    	}
+    	dispatcher = new OrderDispatcher(this, capacity, waitStrategy);
+    	return dispatcher;
+    }
+    
+    /**
+     * Returns the dispatcher making submitted orders, or null if
+     * none has been started.
+     * @return OrderDispatcher
+     */
+    public OrderDispatcher getDispatcher() {
+    	return dispatcher;
+    }
+    
+    private static int change(Recipe recipe, int amtPaid, OrderStatus status) {
+    	return status == OrderStatus.SUCCESS ? amtPaid - recipe.getPrice() : amtPaid;
+    }
+
+    /**
+     * Makes a batch of orders and returns the change for each
+     * order.  Orders succeed or fail on their own.
+     * @param recipeIds recipe to purchase for each order
+     * @param amtPaid amount paid for each order
+     * @return int [] change for each order
+     */
+    public int[] makeCoffeeBatch(int[] recipeIds, int[] amtPaid) {
+    	int[] change = new int[recipeIds.length];
+    	makeCoffeeBatch(recipeIds, amtPaid, change, BatchMode.PER_ORDER);
+    	return change;
+    }
+    
+    /**
+     * Makes a batch of orders, writing the change for each order
+     * into the given array, and returns the number of beverages
+     * made.  All recipes come from one recipe book snapshot and
+     * the ingredients for the whole batch are taken from the
+     * inventory in a single step.  An order that cannot be made gets its full payment
+     * back as change, as with {@link #makeCoffee(int, int)}.
+     * @param recipeIds recipe to purchase for each order
+     * @param amtPaid amount paid for each order
+     * @param change receives the change for each order
+     * @param mode whether orders fail on their own or together
+     * @return int
+     */
+    public int makeCoffeeBatch(int[] recipeIds, int[] amtPaid, int[] change, BatchMode mode) {
+    	long start = System.nanoTime();
+    	boolean allOrNothing = mode == BatchMode.ALL_OR_NOTHING;
+    	RecipeSnapshot recipes = recipeBook.getSnapshot();
+    	Recipe[] orders = new Recipe[recipeIds.length];
+    	int unknown = 0;
+    	int underpaid = 0;
+    	for (int i = 0; i < recipeIds.length; i++) {
+    		Recipe recipe = recipes.getRecipe(recipeIds[i]);
+    		if (recipe == null) {
+    			unknown++;
+    		} else if (recipe.getPrice() > amtPaid[i]) {
+    			underpaid++;
+    		} else {
+    			orders[i] = recipe;
+    		}
+    	}
+    	int valid = recipeIds.length - unknown - underpaid;
+    	int made = 0;
+    	if (!(valid < recipeIds.length && allOrNothing)) {
+    		made = inventory.useIngredients(orders, allOrNothing);
+    	}
+    	metrics.count(OrderStatus.SUCCESS, made);
+    	metrics.count(OrderStatus.UNKNOWN_RECIPE, unknown);
+    	metrics.count(OrderStatus.INSUFFICIENT_FUNDS, underpaid);
+    	if (allOrNothing && valid < recipeIds.length) {
+    		metrics.count(OrderStatus.BATCH_FAILED, valid);
+    	} else {
+    		metrics.count(OrderStatus.OUT_OF_STOCK, valid - made);
+    	}
+    	metrics.record(CoffeeMakerMetrics.Operation.MAKE_COFFEE_BATCH, start);
+    	OrderHistory.Tap tap = history;
+    	for (int i = 0; i < recipeIds.length; i++) {
+    		Recipe recipe = orders[i];
+    		if (recipe != null && made > 0) {
+    			change[i] = amtPaid[i] - recipe.getPrice();
+    			sales.record(recipe);
+    			coffeeMade(recipeIds[i], recipe);
+    		} else {
+    			change[i] = amtPaid[i];
+    		}
+    		if (tap != null) {
+    			tap.record(recipeIds[i], amtPaid[i], change[i], batchStatus(recipes.getRecipe(recipeIds[i]),
+    					amtPaid[i], recipe != null && made > 0,
+    					allOrNothing && valid < recipeIds.length));
+    		}
+    	}
+    	return made;
     }
 
 	/**
 	 * Returns the list of Recipes in the RecipeBook.
 	 * @return Recipe []
 	 */
-	public synchronized Recipe[] getRecipes() {
+	public Recipe[] getRecipes() {
 		return recipeBook.getRecipes();
 	}
+
+	/**
+	 * Returns the current snapshot of the RecipeBook.
+	 * @return RecipeSnapshot
+	 */
+	public RecipeSnapshot getRecipeSnapshot() {
+		return recipeBook.getSnapshot();
+	}
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * A change made through a {@link CoffeeMaker}, as published on its
+ * {@link EventBus}.
+ *
+ * Events are immutable.  Besides what changed, every event carries the
+ * inventory and recipe snapshots taken right after the change, so the
+ * newest event a subscriber has read always describes the whole state,
+ * even if it skipped older ones.
+ */
+public final class CoffeeMakerEvent {
+
+	/** Kinds of events */
+	public enum Type {
+		/** A beverage was made and paid for */
+		COFFEE_MADE,
+		/** Inventory was added */
+		INVENTORY_ADDED,
+		/** A recipe was added */
+		RECIPE_ADDED,
+		/** A recipe was edited */
+		RECIPE_EDITED,
+		/** A recipe was deleted */
+		RECIPE_DELETED
+	}
+
+	final long sequence;
+	private final Type type;
+	private final int recipeId;
+	private final Recipe recipe;
+	private final InventorySnapshot inventory;
+	private final RecipeSnapshot recipes;
+
+	CoffeeMakerEvent(long sequence, Type type, int recipeId, Recipe recipe,
+			InventorySnapshot inventory, RecipeSnapshot recipes) {
+		this.sequence = sequence;
+		this.type = type;
+		this.recipeId = recipeId;
+		this.recipe = recipe;
+		this.inventory = inventory;
+		this.recipes = recipes;
+	}
+
+	/**
+	 * Returns the position of the event on the bus.  Every event
+	 * published gets the next sequence number.
+	 * @return long
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return   Returns what kind of change this was.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the id of the recipe made, added, edited or deleted,
+	 * or -1 for an inventory event.
+	 * @return int
+	 */
+	public int getRecipeId() {
+		return recipeId;
+	}
+
+	/**
+	 * Returns the recipe made, added or edited, or the recipe as it was
+	 * before it was deleted; null for an inventory event.
+	 * @return Recipe
+	 */
+	public Recipe getRecipe() {
+		return recipe;
+	}
+
+	/**
+	 * @return   Returns the inventory right after the change.
+	 */
+	public InventorySnapshot getInventory() {
+		return inventory;
+	}
+
+	/**
+	 * @return   Returns the recipes right after the change.
+	 */
+	public RecipeSnapshot getRecipes() {
+		return recipes;
+	}
+
+	public String toString() {
+		return sequence + " " + type + (recipe == null ? "" : " " + recipe.getName());
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of one coffee maker.
+ *
+ * Every order is counted by its {@link OrderStatus} in a striped
+ * counter.  Latency is recorded for every inventory and recipe change
+ * but, to keep the order path cheap, only for a random sample of
+ * orders: reading the clock twice costs more than everything else the
+ * metrics do for an order.  One in {@link #getLatencySampleRate()}
+ * orders is timed, 16 by default, and the rate can be set down to 1
+ * to time every order.
+ *
+ * Contention is reported as the number of inventory updates that lost
+ * a race and retried, and as the time recipe book writers waited for
+ * the book's lock.
+ *
+ * The metrics can be read directly, through JMX after
+ * {@link #register(String)}, or as text from {@link #scrape()}.
+ */
+public class CoffeeMakerMetrics implements CoffeeMakerMetricsMBean {
+
+	/** Operations whose latency is recorded */
+	public enum Operation {
+		MAKE_COFFEE, MAKE_COFFEE_BATCH, ADD_INVENTORY, ADD_RECIPE, EDIT_RECIPE, DELETE_RECIPE
+	}
+
+	/** Start time of an order that is not timed */
+	static final long NOT_TIMED = Long.MIN_VALUE;
+
+	private final Inventory inventory;
+	private final RecipeBook recipeBook;
+	private final LongAdder[] orders = new LongAdder[OrderStatus.values().length];
+	private final LatencyHistogram[] latency = new LatencyHistogram[Operation.values().length];
+	/** An order is timed when the low bits of a random number under this mask are 0 */
+	private volatile int sampleMask = 15;
+	private ObjectName name;
+
+	/**
+	 * Creates metrics for the coffee maker built from the inventory
+	 * and recipe book.
+	 */
+	CoffeeMakerMetrics(Inventory inventory, RecipeBook recipeBook) {
+		this.inventory = inventory;
+		this.recipeBook = recipeBook;
+		for (int i = 0; i < orders.length; i++) {
+			orders[i] = new LongAdder();
+		}
+		for (int i = 0; i < latency.length; i++) {
+			latency[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Returns the number of orders that ended with the given status.
+	 * @param status
+	 * @return long
+	 */
+	public long getOrders(OrderStatus status) {
+		return orders[status.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the latency histogram of an operation.
+	 * @param operation
+	 * @return LatencyHistogram
+	 */
+	public LatencyHistogram getLatency(Operation operation) {
+		return latency[operation.ordinal()];
+	}
+
+	public long getOrdersSucceeded() {
+		return getOrders(OrderStatus.SUCCESS);
+	}
+
+	public long getOrdersUnknownRecipe() {
+		return getOrders(OrderStatus.UNKNOWN_RECIPE);
+	}
+
+	public long getOrdersInsufficientFunds() {
+		return getOrders(OrderStatus.INSUFFICIENT_FUNDS);
+	}
+
+	public long getOrdersOutOfStock() {
+		return getOrders(OrderStatus.OUT_OF_STOCK);
+	}
+
+	public long getOrdersBatchFailed() {
+		return getOrders(OrderStatus.BATCH_FAILED);
+	}
+
+	public long getInventoryContention() {
+		return inventory.getContention();
+	}
+
+	public long getRecipeBookLockWaitP99Nanos() {
+		return recipeBook.getLockWait().getPercentile(0.99);
+	}
+
+	public int getLatencySampleRate() {
+		return sampleMask + 1;
+	}
+
+	public void setLatencySampleRate(int rate) {
+		if (rate < 1 || rate > 1 << 30) {
+			throw new IllegalArgumentException("Sample rate must be between 1 and 2^30");
+		}
+		int powerOfTwo = rate == 1 ? 1 : Integer.highestOneBit(rate - 1) * 2;
+		sampleMask = powerOfTwo - 1;
+	}
+
+	public long latencyPercentileNanos(String operation, double fraction) {
+		return getLatency(Operation.valueOf(operation)).getPercentile(fraction);
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under
+	 * edu.ncsu.csc326.coffeemaker:type=CoffeeMaker,name=&lt;name&gt;.
+	 * @param machineName
+	 * @return ObjectName
+	 * @throws JMException
+	 */
+	public synchronized ObjectName register(String machineName) throws JMException {
+		name = new ObjectName("edu.ncsu.csc326.coffeemaker:type=CoffeeMaker,name=" + ObjectName.quote(machineName));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		return name;
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server if they
+	 * were registered.
+	 * @throws JMException
+	 */
+	public synchronized void unregister() throws JMException {
+		if (name != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			name = null;
+		}
+	}
+
+	public String scrape() {
+		StringBuilder out = new StringBuilder(4096);
+		out.append("# TYPE coffeemaker_orders_total counter\n");
+		for (OrderStatus status : OrderStatus.values()) {
+			out.append("coffeemaker_orders_total{status=\"").append(label(status))
+					.append("\"} ").append(getOrders(status)).append('\n');
+		}
+		out.append("# TYPE coffeemaker_inventory_contention_total counter\n");
+		out.append("coffeemaker_inventory_contention_total ").append(getInventoryContention()).append('\n');
+		out.append("# TYPE coffeemaker_latency_nanos histogram\n");
+		for (Operation operation : Operation.values()) {
+			histogram(out, "coffeemaker_latency_nanos", "operation=\"" + label(operation) + "\"",
+					getLatency(operation));
+		}
+		out.append("# TYPE coffeemaker_recipe_book_lock_wait_nanos histogram\n");
+		histogram(out, "coffeemaker_recipe_book_lock_wait_nanos", "", recipeBook.getLockWait());
+		return out.toString();
+	}
+
+	/**
+	 * Returns the start time of an order, or {@link #NOT_TIMED} if
+	 * the order is not in the latency sample.
+	 */
+	long startOrder() {
+		return (ThreadLocalRandom.current().nextInt() & sampleMask) == 0 ? System.nanoTime() : NOT_TIMED;
+	}
+
+	/**
+	 * Counts an order and records its latency if it was timed.
+	 */
+	void finishOrder(OrderStatus status, long start) {
+		orders[status.ordinal()].increment();
+		if (start != NOT_TIMED) {
+			latency[Operation.MAKE_COFFEE.ordinal()].record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Counts orders of a batch that ended with the given status.
+	 */
+	void count(OrderStatus status, int n) {
+		if (n > 0) {
+			orders[status.ordinal()].add(n);
+		}
+	}
+
+	/**
+	 * Records the latency of an operation that started at start.
+	 */
+	void record(Operation operation, long start) {
+		latency[operation.ordinal()].record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Writes a histogram with cumulative buckets up to the highest
+	 * bucket in use.  Bucket bounds are inclusive, as the format
+	 * expects.
+	 */
+	private static void histogram(StringBuilder out, String metric, String labels, LatencyHistogram h) {
+		String open = labels.isEmpty() ? "{" : "{" + labels + ",";
+		String plain = labels.isEmpty() ? "" : "{" + labels + "}";
+		int highest = -1;
+		for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			if (h.getBucketCount(i) > 0) {
+				highest = i;
+			}
+		}
+		long cumulative = 0;
+		for (int i = 0; i <= highest && i < LatencyHistogram.BUCKETS - 1; i++) {
+			cumulative += h.getBucketCount(i);
+			out.append(metric).append("_bucket").append(open).append("le=\"")
+					.append(LatencyHistogram.getBucketBound(i) - 1).append("\"} ").append(cumulative).append('\n');
+		}
+		long count = h.getCount();
+		out.append(metric).append("_bucket").append(open).append("le=\"+Inf\"} ").append(count).append('\n');
+		out.append(metric).append("_sum").append(plain).append(' ').append(h.getSum()).append('\n');
+		out.append(metric).append("_count").append(plain).append(' ').append(count).append('\n');
+	}
+
+	private static String label(Enum<?> e) {
+		return e.name().toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * Management interface of {@link CoffeeMakerMetrics}.
+ */
+public interface CoffeeMakerMetricsMBean {
+
+	/** @return number of beverages made */
+	long getOrdersSucceeded();
+
+	/** @return number of orders for a recipe that does not exist */
+	long getOrdersUnknownRecipe();
+
+	/** @return number of orders that paid less than the price */
+	long getOrdersInsufficientFunds();
+
+	/** @return number of orders refused for lack of ingredients */
+	long getOrdersOutOfStock();
+
+	/** @return number of orders dropped with the rest of an all-or-nothing batch */
+	long getOrdersBatchFailed();
+
+	/** @return number of inventory updates that lost a race and retried */
+	long getInventoryContention();
+
+	/** @return 99th percentile of the recipe book lock wait, in nanoseconds */
+	long getRecipeBookLockWaitP99Nanos();
+
+	/** @return one in how many orders has its latency recorded */
+	int getLatencySampleRate();
+
+	/** @param rate one in how many orders has its latency recorded, rounded up to a power of two */
+	void setLatencySampleRate(int rate);
+
+	/**
+	 * Returns a latency percentile of an operation in nanoseconds.
+	 * @param operation name of a {@link CoffeeMakerMetrics.Operation}
+	 * @param fraction between 0 and 1
+	 * @return long
+	 */
+	long latencyPercentileNanos(String operation, double fraction);
+
+	/**
+	 * Returns all metrics in the Prometheus text format.
+	 * @return String
+	 */
+	String scrape();
+}
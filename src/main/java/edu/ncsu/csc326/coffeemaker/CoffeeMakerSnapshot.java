@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import edu.ncsu.csc326.coffeemaker.exceptions.RecipeException;
+
+/**
+ * Point-in-time snapshot of a coffee maker's recipes and inventory,
+ * stored in a compact binary file.
+ *
+ * A snapshot records the journal offset that was current before its
+ * state was captured.  Every change recorded before that offset is
+ * part of the snapshot, so a restart loads the snapshot and replays
+ * the journal from that offset instead of from the start.  Changes
+ * recorded after the offset that the snapshot already holds are
+ * skipped by their version.
+ *
+ * The file is laid out as
+ * <pre>
+ *   int  magic            "CMSN"
+ *   int  format version
+ *   int  length           of the whole file
+ *   int  crc              CRC-32 of everything after this field
+ *   long journal offset
+ *   long inventory version
+ *   long recipe book version
+ *   int  next recipe id
+ *   int  dictionary size, then per name: short length, UTF-8 bytes
+ *   int  ingredient count, then per ingredient: int name, int count
+ *   int  recipe count, then per recipe: int id, int name, int price,
+ *        int amount of each ingredient
+ * </pre>
+ * Ingredient and recipe names are stored once in the dictionary and
+ * referred to by their position in it.
+ *
+ * Opening a snapshot maps the file read-only and checks it in place;
+ * recipes and counts are read straight out of the mapping when the
+ * snapshot is restored.
+ */
+public final class CoffeeMakerSnapshot {
+
+	/** Version of the file format written by this class */
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int MAGIC = 0x434D534E;
+	/** Offset of the first byte covered by the checksum */
+	private static final int CHECKED = 16;
+
+	private final ByteBuffer buf;
+
+	private CoffeeMakerSnapshot(ByteBuffer buf) {
+		this.buf = buf;
+	}
+
+	/**
+	 * Writes a snapshot of the coffee maker to the file.  The snapshot
+	 * is first written to a temporary file next to it and then moved
+	 * over it, so the file always holds a complete snapshot.  Reading
+	 * the state takes no locks, so orders keep being served while the
+	 * snapshot is written.
+	 * @param coffeeMaker
+	 * @param journalOffset journal position read before calling this method
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(CoffeeMaker coffeeMaker, long journalOffset, File file) throws IOException {
+		ByteBuffer out = encode(coffeeMaker, journalOffset);
+		File tmp = new File(file.getPath() + ".tmp");
+		FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Maps a snapshot file and checks its format version and checksum.
+	 * @param file
+	 * @return CoffeeMakerSnapshot
+	 * @throws IOException if the file is not a valid snapshot
+	 */
+	public static CoffeeMakerSnapshot open(File file) throws IOException {
+		ByteBuffer buf;
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		if (buf.limit() < CHECKED || buf.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not a coffee maker snapshot");
+		}
+		if (buf.getInt(4) != FORMAT_VERSION) {
+			throw new IOException(file + " has unsupported snapshot format " + buf.getInt(4));
+		}
+		if (buf.getInt(8) != buf.limit() || buf.getInt(12) != checksum(buf)) {
+			throw new IOException(file + " is damaged");
+		}
+		return new CoffeeMakerSnapshot(buf);
+	}
+
+	/**
+	 * Returns the journal offset from which changes are not
+	 * necessarily part of this snapshot.
+	 * @return long
+	 */
+	public long getJournalOffset() {
+		return buf.getLong(16);
+	}
+
+	/**
+	 * Returns the inventory version captured in this snapshot.
+	 * @return long
+	 */
+	public long getInventoryVersion() {
+		return buf.getLong(24);
+	}
+
+	/**
+	 * Returns the recipe book version captured in this snapshot.
+	 * @return long
+	 */
+	public long getRecipeVersion() {
+		return buf.getLong(32);
+	}
+
+	/**
+	 * Loads the recipes and inventory of this snapshot into the coffee
+	 * maker.  Parts the coffee maker already has at the same or a newer
+	 * version are left alone.
+	 * @param coffeeMaker
+	 * @throws IOException if the snapshot was taken with a different
+	 * 		ingredient catalog
+	 */
+	public void restore(CoffeeMaker coffeeMaker) throws IOException {
+		IngredientCatalog catalog = coffeeMaker.getCatalog();
+		ByteBuffer in = buf.duplicate();
+		in.position(40);
+		int nextId = in.getInt();
+		String[] names = new String[in.getInt()];
+		for (int i = 0; i < names.length; i++) {
+			byte[] name = new byte[in.getShort() & 0xFFFF];
+			in.get(name);
+			names[i] = new String(name, StandardCharsets.UTF_8);
+		}
+
+		int[] counts = new int[in.getInt()];
+		if (counts.length != catalog.size()) {
+			throw new IOException("Snapshot was taken with " + counts.length
+					+ " ingredients but the coffee maker stocks " + catalog.size());
+		}
+		for (int i = 0; i < counts.length; i++) {
+			String name = names[in.getInt()];
+			if (!name.equals(catalog.getName(i))) {
+				throw new IOException("Snapshot stocks " + name + " where the coffee maker stocks "
+						+ catalog.getName(i));
+			}
+			counts[i] = in.getInt();
+		}
+
+		Recipe[] recipes = new Recipe[Math.max(4, nextId)];
+		RecipeIndex index = new RecipeIndex();
+		int recipeCount = in.getInt();
+		for (int n = 0; n < recipeCount; n++) {
+			int id = in.getInt();
+			Recipe r = new Recipe(catalog);
+			r.setName(names[in.getInt()]);
+			try {
+				r.setPrice(in.getInt());
+			} catch (RecipeException e) {
+				throw new IOException("Snapshot holds an invalid recipe price", e);
+			}
+			int[] amounts = r.amounts();
+			for (int i = 0; i < amounts.length; i++) {
+				amounts[i] = in.getInt();
+			}
+			recipes[id] = r;
+			index.put(r.getName(), id);
+		}
+
+		coffeeMaker.getInventory().restore(getInventoryVersion(), counts);
+		coffeeMaker.getRecipeBook().restore(new RecipeSnapshot(getRecipeVersion(), recipes, nextId, index));
+	}
+
+	/**
+	 * Captures the state of the coffee maker into a buffer ready
+	 * to be written.
+	 */
+	private static ByteBuffer encode(CoffeeMaker coffeeMaker, long journalOffset) {
+		IngredientCatalog catalog = coffeeMaker.getCatalog();
+		int[] counts = new int[catalog.size()];
+		long inventoryVersion = coffeeMaker.getInventory().getAmounts(counts);
+		RecipeSnapshot recipes = coffeeMaker.getRecipeSnapshot();
+
+		Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		List<byte[]> names = new ArrayList<byte[]>();
+		int length = 48 + 4 + 4;
+		for (int i = 0; i < counts.length; i++) {
+			length += nameSize(catalog.getName(i), dictionary, names) + 4 + 4;
+		}
+		for (int id = 0; id < recipes.getNextId(); id++) {
+			Recipe r = recipes.getRecipe(id);
+			if (r != null) {
+				length += nameSize(r.getName(), dictionary, names) + 4 + 4 + 4 + 4 * counts.length;
+			}
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(length);
+		out.putInt(MAGIC);
+		out.putInt(FORMAT_VERSION);
+		out.putInt(length);
+		out.putInt(0);
+		out.putLong(journalOffset);
+		out.putLong(inventoryVersion);
+		out.putLong(recipes.getVersion());
+		out.putInt(recipes.getNextId());
+		out.putInt(names.size());
+		for (byte[] name : names) {
+			out.putShort((short) name.length);
+			out.put(name);
+		}
+		out.putInt(counts.length);
+		for (int i = 0; i < counts.length; i++) {
+			out.putInt(dictionary.get(catalog.getName(i)));
+			out.putInt(counts[i]);
+		}
+		out.putInt(recipes.size());
+		for (int id = 0; id < recipes.getNextId(); id++) {
+			Recipe r = recipes.getRecipe(id);
+			if (r != null) {
+				out.putInt(id);
+				out.putInt(dictionary.get(r.getName()));
+				out.putInt(r.getPrice());
+				for (int amount : r.amounts()) {
+					out.putInt(amount);
+				}
+			}
+		}
+		out.putInt(12, checksum(out));
+		out.flip();
+		return out;
+	}
+
+	/**
+	 * Adds a name to the dictionary if it is not there yet and returns
+	 * the number of bytes that adds to the dictionary section.
+	 */
+	private static int nameSize(String name, Map<String, Integer> dictionary, List<byte[]> names) {
+		if (dictionary.containsKey(name)) {
+			return 0;
+		}
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		dictionary.put(name, names.size());
+		names.add(bytes);
+		return 2 + bytes.length;
+	}
+
+	private static int checksum(ByteBuffer buf) {
+		ByteBuffer checked = buf.duplicate();
+		checked.limit(buf.getInt(8));
+		checked.position(CHECKED);
+		CRC32 crc = new CRC32();
+		crc.update(checked);
+		return (int) crc.getValue();
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Runs the coffee maker's menu commands read from a stream.
+ *
+ * Each command is the menu number followed by the answers to its
+ * prompts, one per line, exactly as an operator types them at the
+ * console.  An interactive engine prints the menu, the prompts and
+ * the recipe lists and flushes before every read.  A batch engine
+ * prints only the outcome of each command and leaves the flushing to
+ * its buffered output, so a recorded session of any length can be
+ * streamed through it at full speed.
+ *
+ * The engine reads one command after another in a loop until the exit
+ * command or the end of the input.
+ */
+public class CommandEngine {
+
+	private final CoffeeMaker coffeeMaker;
+	private final BufferedReader in;
+	private final PrintWriter out;
+	private final boolean interactive;
+	/** Reused for the ingredient answers of every command */
+	private final String[] amounts;
+
+	/**
+	 * Creates an engine that runs commands from in against the coffee
+	 * maker and writes to out.
+	 * @param coffeeMaker
+	 * @param in
+	 * @param out
+	 * @param interactive whether to print the menu and prompts
+	 */
+	public CommandEngine(CoffeeMaker coffeeMaker, BufferedReader in, Writer out, boolean interactive) {
+		this.coffeeMaker = coffeeMaker;
+		this.in = in;
+		this.out = new PrintWriter(out, false);
+		this.interactive = interactive;
+		// Only the standard ingredients are prompted for; any others stay at 0.
+		this.amounts = new String[coffeeMaker.getCatalog().size()];
+		Arrays.fill(amounts, "0");
+	}
+
+	/**
+	 * Runs commands until the exit command or the end of the input
+	 * and returns the number of commands run.
+	 * @return long
+	 * @throws IOException
+	 */
+	public long run() throws IOException {
+		long commands = 0;
+		try {
+			while (step()) {
+				commands++;
+			}
+		} catch (EOFException e) {
+			// input ended, possibly part way through a command
+		} finally {
+			out.flush();
+		}
+		return commands;
+	}
+
+	/**
+	 * Runs the next command and returns false once the operator
+	 * asked to exit.
+	 */
+	private boolean step() throws IOException {
+		if (interactive) {
+			out.println("1. Add a recipe");
+			out.println("2. Delete a recipe");
+			out.println("3. Edit a recipe");
+			out.println("4. Add inventory");
+			out.println("5. Check inventory");
+			out.println("6. Make coffee");
+			out.println("0. Exit\n");
+		}
+		int userInput;
+		try {
+			userInput = Integer.parseInt(next("Please press the number that corresponds to what you would like the coffee maker to do."));
+		} catch (NumberFormatException e) {
+			userInput = -1;
+		}
+		switch (userInput) {
+		case 0:
+			return false;
+		case 1:
+			addRecipe();
+			break;
+		case 2:
+			deleteRecipe();
+			break;
+		case 3:
+			editRecipe();
+			break;
+		case 4:
+			addInventory();
+			break;
+		case 5:
+			out.println(coffeeMaker.checkInventory());
+			break;
+		case 6:
+			makeCoffee();
+			break;
+		default:
+			out.println("Please enter a number from 0 - 6");
+		}
+		return true;
+	}
+
+	private void addRecipe() throws IOException {
+		String name = next("\nPlease enter the recipe name: ");
+		String priceString = next("\nPlease enter the recipe price: $");
+		String coffeeString = next("\nPlease enter the units of coffee in the recipe: ");
+		String milkString = next("\nPlease enter the units of milk in the recipe: ");
+		String sugarString = next("\nPlease enter the units of sugar in the recipe: ");
+		String chocolateString = next("\nPlease enter the units of chocolate in the recipe: ");
+
+		Recipe r = new Recipe(coffeeMaker.getCatalog());
+		r.setName(name);
+		int bad = r.trySet(priceString, amounts(coffeeString, milkString, sugarString, chocolateString));
+		if (bad != InputCheck.NONE) {
+			out.println(InputCheck.message(bad, r.getCatalog()));
+		} else if (coffeeMaker.addRecipe(r)) {
+			out.println(name + " successfully added.\n");
+		} else {
+			out.println(name + " could not be added.\n");
+		}
+	}
+
+	private void deleteRecipe() throws IOException {
+		listRecipes();
+		int recipeToDelete = recipeListSelection("Please select the number of the recipe to delete.");
+		if (recipeToDelete < 0) {
+			return;
+		}
+
+		String recipeDeleted = coffeeMaker.deleteRecipe(recipeToDelete);
+		if (recipeDeleted != null) {
+			out.println(recipeDeleted + " successfully deleted.\n");
+		} else {
+			out.println("Selected recipe doesn't exist and could not be deleted.\n");
+		}
+	}
+
+	private void editRecipe() throws IOException {
+		listRecipes();
+		int recipeToEdit = recipeListSelection("Please select the number of the recipe to edit.");
+		if (recipeToEdit < 0) {
+			return;
+		}
+
+		String priceString = next("\nPlease enter the recipe price: $");
+		String coffeeString = next("\nPlease enter the units of coffee in the recipe: ");
+		String milkString = next("\nPlease enter the units of milk in the recipe: ");
+		String sugarString = next("\nPlease enter the units of sugar in the recipe: ");
+		String chocolateString = next("\nPlease enter the units of chocolate in the recipe: ");
+
+		Recipe newRecipe = new Recipe(coffeeMaker.getCatalog());
+		int bad = newRecipe.trySet(priceString, amounts(coffeeString, milkString, sugarString, chocolateString));
+		if (bad != InputCheck.NONE) {
+			out.println(InputCheck.message(bad, newRecipe.getCatalog()));
+			return;
+		}
+		String recipeEdited = coffeeMaker.editRecipe(recipeToEdit, newRecipe);
+		if (recipeEdited != null) {
+			out.println(recipeEdited + " successfully edited.\n");
+		} else {
+			out.println("Selected recipe doesn't exist and could not be edited.\n");
+		}
+	}
+
+	private void addInventory() throws IOException {
+		String coffeeString = next("\nPlease enter the units of coffee to add: ");
+		String milkString = next("\nPlease enter the units of milk to add: ");
+		String sugarString = next("\nPlease enter the units of sugar to add: ");
+		String chocolateString = next("\nPlease enter the units of chocolate to add: ");
+
+		if (coffeeMaker.tryAddInventory(amounts(coffeeString, milkString, sugarString, chocolateString)) == InputCheck.NONE) {
+			out.println("Inventory successfully added");
+		} else {
+			out.println("Inventory was not added");
+		}
+	}
+
+	private void makeCoffee() throws IOException {
+		listRecipes(true);
+		int recipeToPurchase = recipeListSelection("Please select the number of the recipe to purchase.");
+		String amountPaid = next("Please enter the amount you wish to pay");
+		if (recipeToPurchase < 0) {
+			return;
+		}
+		int amtPaid;
+		try {
+			amtPaid = Integer.parseInt(amountPaid);
+		} catch (NumberFormatException e) {
+			out.println("Please enter a positive integer");
+			return;
+		}
+
+		Recipe recipe = coffeeMaker.getRecipeSnapshot().getRecipe(recipeToPurchase);
+		OrderResult result = coffeeMaker.order(recipeToPurchase, amtPaid);
+
+		switch (result.getStatus()) {
+		case SUCCESS:
+			out.println("Thank you for purchasing " + recipe.getName());
+			break;
+		case INSUFFICIENT_FUNDS:
+			out.println("Insufficient funds to purchase.");
+			break;
+		case UNKNOWN_RECIPE:
+			out.println("Please select the number of a listed recipe.");
+			break;
+		default:
+			out.println("Insufficient inventory to purchase.");
+			break;
+		}
+		out.println("Your change is: " + result.getChange() + "\n");
+	}
+
+	/**
+	 * Returns the answers for the four standard ingredients in
+	 * catalog order.
+	 */
+	private String[] amounts(String coffee, String milk, String sugar, String chocolate) {
+		String[] amounts = this.amounts;
+		amounts[IngredientCatalog.COFFEE] = coffee;
+		amounts[IngredientCatalog.MILK] = milk;
+		amounts[IngredientCatalog.SUGAR] = sugar;
+		amounts[IngredientCatalog.CHOCOLATE] = chocolate;
+		return amounts;
+	}
+
+	/**
+	 * Prints the numbered recipe list in interactive mode.
+	 */
+	private void listRecipes() {
+		listRecipes(false);
+	}
+
+	/**
+	 * Prints the numbered recipe list in interactive mode, marking
+	 * the recipes that cannot be made if asked to.
+	 */
+	private void listRecipes(boolean markSoldOut) {
+		if (!interactive) {
+			return;
+		}
+		Recipe[] recipes = coffeeMaker.getRecipes();
+		for (int i = 0; i < recipes.length; i++) {
+			if (recipes[i] != null) {
+				if (markSoldOut && !coffeeMaker.isAvailable(i)) {
+					out.println((i + 1) + ". " + recipes[i].getName() + " (sold out)");
+				} else {
+					out.println((i + 1) + ". " + recipes[i].getName());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prompts for a recipe number and returns the recipe id, or -1
+	 * if the answer is not the number of a recipe slot.
+	 */
+	private int recipeListSelection(String message) throws IOException {
+		String userSelection = next(message);
+		try {
+			int recipe = Integer.parseInt(userSelection) - 1;
+			if (recipe >= 0 && recipe < coffeeMaker.getRecipeSnapshot().getNextId()) {
+				return recipe;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		out.println("Please select the number of a listed recipe.");
+		return -1;
+	}
+
+	/**
+	 * Prompts in interactive mode and returns the next line of input.
+	 * @throws EOFException at the end of the input
+	 */
+	private String next(String message) throws IOException {
+		if (interactive) {
+			out.println(message);
+			out.flush();
+		}
+		String line = in.readLine();
+		if (line == null) {
+			throw new EOFException();
+		}
+		return line;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Exponentially weighted moving average of how fast each ingredient
+ * is used, in units per second.
+ *
+ * Dispensing only adds the units used to a striped counter per
+ * ingredient, so it neither contends nor reads the clock.  The
+ * averages are brought up to date when they are read: all units used
+ * since the last update are spread evenly over the whole intervals
+ * that have passed, and the average decays once per interval.  Memory
+ * is constant: a counter, a running total and a rate per ingredient.
+ *
+ * The average starts at zero and would underestimate the rate until
+ * a few half-lives have passed, so the reported rate is divided by
+ * the total weight given to the samples so far.
+ */
+final class ConsumptionTracker {
+
+	/** Length of one averaging interval in nanoseconds */
+	static final long INTERVAL = 1000000000L;
+
+	private final LongAdder[] used;
+	/** Source of the time in nanoseconds */
+	private final LongSupplier clock;
+	/** Half-life of the average in nanoseconds */
+	private final long halfLife;
+	/** Units used up to the last update */
+	private final long[] counted;
+	/** Average units used per second, before bias correction */
+	private final double[] rates;
+	/** Total weight of the samples averaged so far */
+	private double weight;
+	/** Time of the last update */
+	private long updated;
+
+	/** The system clock */
+	static final LongSupplier SYSTEM = new LongSupplier() {
+		public long getAsLong() {
+			return System.nanoTime();
+		}
+	};
+
+	ConsumptionTracker(int ingredients, long halfLifeNanos, LongSupplier clock) {
+		this.used = new LongAdder[ingredients];
+		for (int i = 0; i < ingredients; i++) {
+			used[i] = new LongAdder();
+		}
+		this.clock = clock;
+		this.halfLife = halfLifeNanos;
+		this.counted = new long[ingredients];
+		this.rates = new double[ingredients];
+		this.updated = clock.getAsLong();
+	}
+
+	/**
+	 * Counts the units taken between two inventory states.
+	 */
+	void record(int[] before, int[] after) {
+		for (int i = 0; i < before.length; i++) {
+			int taken = before[i] - after[i];
+			if (taken > 0) {
+				used[i].add(taken);
+			}
+		}
+	}
+
+	/**
+	 * Counts the given units as taken.
+	 */
+	void record(int[] units) {
+		for (int i = 0; i < units.length; i++) {
+			if (units[i] > 0) {
+				used[i].add(units[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the average use of an ingredient in units per second.
+	 */
+	synchronized double getRate(int ingredient) {
+		update();
+		return weight == 0 ? 0 : rates[ingredient] / weight;
+	}
+
+	/**
+	 * Folds the units used since the last update into the averages,
+	 * one decay per whole interval that has passed.
+	 */
+	private void update() {
+		long now = clock.getAsLong();
+		long intervals = (now - updated) / INTERVAL;
+		if (intervals <= 0) {
+			return;
+		}
+		double seconds = intervals * (INTERVAL / 1e9);
+		double decay = Math.pow(0.5, (double) (intervals * INTERVAL) / halfLife);
+		for (int i = 0; i < rates.length; i++) {
+			long total = used[i].sum();
+			double rate = (total - counted[i]) / seconds;
+			counted[i] = total;
+			rates[i] = decay * rates[i] + (1 - decay) * rate;
+		}
+		weight = decay * weight + (1 - decay);
+		updated += intervals * INTERVAL;
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Bounded publish/subscribe bus for {@link CoffeeMakerEvent}s.
+ *
+ * Events go into one ring shared by every subscriber.  A publisher
+ * claims a sequence number, stores the event in its slot and is done;
+ * it does not look at subscribers unless one of them blocks.  Each
+ * {@link Subscription} keeps its own cursor and reads the ring at its
+ * own pace.  When the ring wraps, the oldest events are overwritten:
+ * a DROP subscriber that was behind skips them, a CONFLATE subscriber
+ * only ever reads the newest event, and publishers wait for a BLOCK
+ * subscriber to read its events before they overwrite them.  Only
+ * BLOCK subscribers can hold up the threads that publish.
+ *
+ * Sequence numbers are claimed before the state an event carries is
+ * read, so a later event never carries older state than the coffee
+ * maker had when an earlier one was claimed.  Two publishers can still
+ * read the state in the opposite order to their claims; a CONFLATE
+ * subscriber therefore hands over the newest inventory and recipe
+ * snapshots among the events it skips, not just those of the last one.
+ *
+ * A BLOCK handler that publishes onto its own bus would wait for
+ * itself.  Publishers never wait for the subscription whose poll they
+ * are running in; if such a handler fills the ring, that subscription
+ * drops the events it overwrote instead of deadlocking.
+ *
+ * Publishing allocates the event and nothing else.  With no
+ * subscribers it costs one volatile read.  The ring is only allocated
+ * when the first subscriber arrives, so a bus nobody subscribes to
+ * costs a few fields.
+ */
+public final class EventBus {
+
+	/** The ring, allocated on the first subscribe */
+	private volatile AtomicReferenceArray<CoffeeMakerEvent> slots;
+	private final int mask;
+	/** Next sequence number to claim */
+	private final AtomicLong next = new AtomicLong();
+	private volatile Subscription[] subscriptions = new Subscription[0];
+	/** The BLOCK subscriptions among them */
+	private volatile Subscription[] blocking = new Subscription[0];
+
+	/**
+	 * Creates a bus that keeps the given number of events.
+	 * @param capacity rounded up to a power of two
+	 */
+	public EventBus(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Returns the number of events the ring keeps.
+	 * @return int
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Returns true if anyone is subscribed, so publishers can skip
+	 * building events nobody reads.
+	 * @return boolean
+	 */
+	public boolean hasSubscribers() {
+		return subscriptions.length > 0;
+	}
+
+	/**
+	 * Subscribes to every event published from now on.
+	 * @param policy what to do when the subscriber falls behind
+	 * @return Subscription
+	 */
+	public synchronized Subscription subscribe(OverflowPolicy policy) {
+		if (slots == null) {
+			// Set before the subscription is published, so every
+			// publisher that sees a subscriber sees the ring.
+			slots = new AtomicReferenceArray<CoffeeMakerEvent>(mask + 1);
+		}
+		Subscription s = new Subscription(policy, next.get());
+		subscriptions = add(subscriptions, s);
+		if (policy == OverflowPolicy.BLOCK) {
+			blocking = add(blocking, s);
+		}
+		return s;
+	}
+
+	private synchronized void unsubscribe(Subscription s) {
+		subscriptions = remove(subscriptions, s);
+		blocking = remove(blocking, s);
+	}
+
+	private static Subscription[] add(Subscription[] current, Subscription s) {
+		Subscription[] next = Arrays.copyOf(current, current.length + 1);
+		next[current.length] = s;
+		return next;
+	}
+
+	private static Subscription[] remove(Subscription[] current, Subscription s) {
+		Subscription[] next = new Subscription[current.length];
+		int n = 0;
+		for (Subscription other : current) {
+			if (other != s) {
+				next[n++] = other;
+			}
+		}
+		return Arrays.copyOf(next, n);
+	}
+
+	/**
+	 * Publishes an event carrying the given snapshots if anyone is
+	 * subscribed.
+	 */
+	void publish(CoffeeMakerEvent.Type type, int recipeId, Recipe recipe,
+			InventorySnapshot inventory, RecipeSnapshot recipes) {
+		if (subscriptions.length == 0) {
+			return;
+		}
+		long seq = claim();
+		store(new CoffeeMakerEvent(seq, type, recipeId, recipe, inventory, recipes));
+	}
+
+	/**
+	 * Publishes an event carrying the current state of the inventory
+	 * and recipe book if anyone is subscribed.  The state is read after
+	 * the event's sequence number is claimed.
+	 */
+	void publishCurrent(CoffeeMakerEvent.Type type, int recipeId, Recipe recipe,
+			Inventory inventory, RecipeBook recipeBook) {
+		if (subscriptions.length == 0) {
+			return;
+		}
+		long seq = claim();
+		store(new CoffeeMakerEvent(seq, type, recipeId, recipe,
+				inventory.getSnapshot(), recipeBook.getSnapshot()));
+	}
+
+	/**
+	 * Claims the next sequence number, waiting until every BLOCK
+	 * subscriber has read the event it would overwrite.
+	 */
+	private long claim() {
+		long seq = next.getAndIncrement();
+		Thread self = Thread.currentThread();
+		for (Subscription s : blocking) {
+			while (seq - s.cursor > mask && !s.closed && s.poller != self) {
+				LockSupport.parkNanos(1000);
+			}
+		}
+		return seq;
+	}
+
+	private void store(CoffeeMakerEvent e) {
+		long seq = e.sequence;
+		int slot = (int) seq & mask;
+		AtomicReferenceArray<CoffeeMakerEvent> ring = slots;
+		CoffeeMakerEvent current;
+		do {
+			current = ring.get(slot);
+			if (current != null && current.sequence > seq) {
+				return; // a publisher a lap ahead got here first
+			}
+		} while (!ring.compareAndSet(slot, current, e));
+	}
+
+	/**
+	 * One subscriber's position on the bus.  A subscription is read
+	 * by one thread at a time.
+	 */
+	public final class Subscription {
+		private final OverflowPolicy policy;
+		/** Sequence number of the next event to read */
+		private volatile long cursor;
+		private volatile boolean closed;
+		/** The thread running poll, which publishers must not wait for */
+		private volatile Thread poller;
+		private long dropped;
+		private long conflated;
+
+		Subscription(OverflowPolicy policy, long cursor) {
+			this.policy = policy;
+			this.cursor = cursor;
+		}
+
+		/**
+		 * Hands the events published since the last poll to the handler,
+		 * oldest first, and returns how many were handed over.  Stops
+		 * after max events, or at an event that is claimed but not yet
+		 * stored.
+		 * @param handler
+		 * @param max
+		 * @return int
+		 */
+		public int poll(Consumer<CoffeeMakerEvent> handler, int max) {
+			poller = Thread.currentThread();
+			try {
+				if (policy == OverflowPolicy.CONFLATE) {
+					return pollNewest(handler);
+				}
+				return pollInOrder(handler, max);
+			} finally {
+				poller = null;
+			}
+		}
+
+		private int pollInOrder(Consumer<CoffeeMakerEvent> handler, int max) {
+			AtomicReferenceArray<CoffeeMakerEvent> ring = slots;
+			long at = cursor;
+			int delivered = 0;
+			while (delivered < max) {
+				CoffeeMakerEvent e = ring.get((int) at & mask);
+				if (e == null || e.sequence < at) {
+					break;
+				}
+				if (e.sequence > at) {
+					// Lapped: skip to the oldest event the ring still holds.
+					long oldest = Math.max(at + 1, next.get() - mask);
+					dropped += oldest - at;
+					at = oldest;
+					continue;
+				}
+				// Events are immutable, so the slot may be reused while
+				// the handler still holds this one.
+				cursor = ++at;
+				delivered++;
+				handler.accept(e);
+			}
+			return delivered;
+		}
+
+		/**
+		 * Hands only the newest stored event to the handler, carrying
+		 * the newest snapshots among the events it replaces.
+		 */
+		private int pollNewest(Consumer<CoffeeMakerEvent> handler) {
+			AtomicReferenceArray<CoffeeMakerEvent> ring = slots;
+			long at = cursor;
+			long end = next.get();
+			long first = Math.max(at, end - 1 - mask);
+			for (long seq = end - 1; seq >= first; seq--) {
+				CoffeeMakerEvent e = ring.get((int) seq & mask);
+				if (e != null && e.sequence == seq) {
+					conflated += seq - at;
+					cursor = seq + 1;
+					handler.accept(newestState(e, first));
+					return 1;
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Returns the event with the newest inventory and recipe
+		 * snapshots found in the ring from the given sequence number up
+		 * to the event.
+		 */
+		private CoffeeMakerEvent newestState(CoffeeMakerEvent e, long first) {
+			InventorySnapshot inventory = e.getInventory();
+			RecipeSnapshot recipes = e.getRecipes();
+			AtomicReferenceArray<CoffeeMakerEvent> ring = slots;
+			for (long seq = first; seq < e.sequence; seq++) {
+				CoffeeMakerEvent older = ring.get((int) seq & mask);
+				if (older == null || older.sequence != seq) {
+					continue;
+				}
+				if (older.getInventory() != null && (inventory == null
+						|| older.getInventory().getVersion() > inventory.getVersion())) {
+					inventory = older.getInventory();
+				}
+				if (older.getRecipes() != null && (recipes == null
+						|| older.getRecipes().getVersion() > recipes.getVersion())) {
+					recipes = older.getRecipes();
+				}
+			}
+			if (inventory == e.getInventory() && recipes == e.getRecipes()) {
+				return e;
+			}
+			return new CoffeeMakerEvent(e.sequence, e.getType(), e.getRecipeId(),
+					e.getRecipe(), inventory, recipes);
+		}
+
+		/**
+		 * Returns the number of events this subscriber missed because
+		 * they were overwritten before it read them.
+		 * @return long
+		 */
+		public long getDropped() {
+			return dropped;
+		}
+
+		/**
+		 * Returns the number of events a CONFLATE subscriber skipped
+		 * because a newer event replaced them.
+		 * @return long
+		 */
+		public long getConflated() {
+			return conflated;
+		}
+
+		/**
+		 * Returns the number of events published but not yet read.
+		 * @return long
+		 */
+		public long getLag() {
+			return Math.max(0, next.get() - cursor);
+		}
+
+		/**
+		 * Returns how this subscriber handles falling behind.
+		 * @return OverflowPolicy
+		 */
+		public OverflowPolicy getPolicy() {
+			return policy;
+		}
+
+		/**
+		 * Stops the subscription.  Publishers no longer wait for it.
+		 */
+		public void close() {
+			closed = true;
+			unsubscribe(this);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The ingredients a coffee maker stocks, in a fixed order.
+ *
+ * Recipe amounts and inventory counts are int vectors indexed by
+ * position in the catalog.  Every catalog starts with coffee, milk,
+ * sugar and chocolate at the positions given by the constants below;
+ * machines that stock more (syrups, oat milk, cups...) list the extra
+ * ingredients after them.
+ */
+public final class IngredientCatalog {
+	/** Position of coffee in every catalog */
+	public static final int COFFEE = 0;
+	/** Position of milk in every catalog */
+	public static final int MILK = 1;
+	/** Position of sugar in every catalog */
+	public static final int SUGAR = 2;
+	/** Position of chocolate in every catalog */
+	public static final int CHOCOLATE = 3;
+
+	/** Catalog with only the four standard ingredients */
+	public static final IngredientCatalog DEFAULT = new IngredientCatalog();
+
+	/** Ingredient names in catalog order */
+	private final String[] names;
+	/** Positions by ingredient name */
+	private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+	/**
+	 * Creates a catalog with the four standard ingredients
+	 * followed by the given extra ingredients.
+	 * @param extraIngredients names of the extra ingredients
+	 */
+	public IngredientCatalog(String... extraIngredients) {
+		names = new String[4 + extraIngredients.length];
+		names[COFFEE] = "Coffee";
+		names[MILK] = "Milk";
+		names[SUGAR] = "Sugar";
+		names[CHOCOLATE] = "Chocolate";
+		System.arraycopy(extraIngredients, 0, names, 4, extraIngredients.length);
+		for (int i = 0; i < names.length; i++) {
+			if (names[i] == null || positions.put(names[i], i) != null) {
+				throw new IllegalArgumentException("Duplicate or missing ingredient name: " + names[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of ingredients in the catalog.
+	 * @return int
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Returns the name of the ingredient at the given position.
+	 * @param ingredient
+	 * @return String
+	 */
+	public String getName(int ingredient) {
+		return names[ingredient];
+	}
+
+	/**
+	 * Returns the position of the named ingredient, or -1 if
+	 * it is not in the catalog.
+	 * @param name
+	 * @return int
+	 */
+	public int indexOf(String name) {
+		Integer position = positions.get(name);
+		return position == null ? -1 : position.intValue();
+	}
+
+	/**
+	 * Returns the message used when an amount of the ingredient
+	 * at the given position is not a positive integer.
+	 */
+	String invalidUnitsMessage(int ingredient) {
+		return "Units of " + names[ingredient].toLowerCase(Locale.ROOT) + " must be a positive integer";
+	}
+}
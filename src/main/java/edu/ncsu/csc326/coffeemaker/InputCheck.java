@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * Checks prices and ingredient amounts without throwing.
+ *
+ * The check methods return a result code: {@link #NONE} when every
+ * value is valid, {@link #PRICE} or {@link #COUNT} for a bad price or
+ * a wrong number of amounts, {@link #TOO_MANY} for amounts that would
+ * take a count past what an int holds, and otherwise the catalog
+ * position of the first invalid amount.  Checking allocates nothing, so rejecting a
+ * flood of malformed input costs no more than accepting good input.
+ * {@link #message(int, IngredientCatalog)} turns a code into the same
+ * message the throwing methods use.
+ */
+public final class InputCheck {
+
+	/** Result code: nothing is invalid */
+	public static final int NONE = -1;
+	/** Result code: the price is not a positive integer */
+	public static final int PRICE = -2;
+	/** Result code: the number of amounts does not match the catalog */
+	public static final int COUNT = -3;
+	/** Result code: adding the amounts would take a count past Integer.MAX_VALUE */
+	public static final int TOO_MANY = -4;
+
+	private InputCheck() {
+	}
+
+	/**
+	 * Returns the value of a non-negative decimal integer, or -1 if the
+	 * text is null, empty, not an integer, negative or too large for an
+	 * int.  Accepts what Integer.parseInt accepts, apart from non-ASCII
+	 * digits.
+	 * @param s
+	 * @return int
+	 */
+	public static int parseUnits(CharSequence s) {
+		if (s == null) {
+			return -1;
+		}
+		int n = s.length();
+		int i = 0;
+		boolean negative = false;
+		if (n > 0 && (s.charAt(0) == '+' || s.charAt(0) == '-')) {
+			negative = s.charAt(0) == '-';
+			i = 1;
+		}
+		if (i == n) {
+			return -1;
+		}
+		int value = 0;
+		for (; i < n; i++) {
+			int digit = s.charAt(i) - '0';
+			if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return negative && value != 0 ? -1 : value;
+	}
+
+	/**
+	 * Checks one amount per catalog ingredient and returns
+	 * {@link #NONE}, {@link #COUNT} or the position of the first
+	 * negative amount.
+	 * @param amounts
+	 * @param catalog
+	 * @return int
+	 */
+	public static int checkAmounts(int[] amounts, IngredientCatalog catalog) {
+		if (amounts.length != catalog.size()) {
+			return COUNT;
+		}
+		for (int i = 0; i < amounts.length; i++) {
+			if (amounts[i] < 0) {
+				return i;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Checks one amount per catalog ingredient given as text and
+	 * returns {@link #NONE}, {@link #COUNT} or the position of the
+	 * first amount that is not a positive integer.
+	 * @param amounts
+	 * @param catalog
+	 * @return int
+	 */
+	public static int checkAmounts(CharSequence[] amounts, IngredientCatalog catalog) {
+		if (amounts.length != catalog.size()) {
+			return COUNT;
+		}
+		for (int i = 0; i < amounts.length; i++) {
+			if (parseUnits(amounts[i]) < 0) {
+				return i;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Checks a whole recipe and returns {@link #NONE}, {@link #PRICE},
+	 * {@link #COUNT} or the position of the first negative amount.
+	 * @param price
+	 * @param amounts
+	 * @param catalog
+	 * @return int
+	 */
+	public static int checkRecipe(int price, int[] amounts, IngredientCatalog catalog) {
+		if (price < 0) {
+			return PRICE;
+		}
+		return checkAmounts(amounts, catalog);
+	}
+
+	/**
+	 * Checks a whole recipe given as text and returns {@link #NONE},
+	 * {@link #PRICE}, {@link #COUNT} or the position of the first
+	 * amount that is not a positive integer.
+	 * @param price
+	 * @param amounts
+	 * @param catalog
+	 * @return int
+	 */
+	public static int checkRecipe(CharSequence price, CharSequence[] amounts, IngredientCatalog catalog) {
+		if (parseUnits(price) < 0) {
+			return PRICE;
+		}
+		return checkAmounts(amounts, catalog);
+	}
+
+	/**
+	 * Returns the message for a result code, or null for {@link #NONE}.
+	 * @param code
+	 * @param catalog
+	 * @return String
+	 */
+	public static String message(int code, IngredientCatalog catalog) {
+		switch (code) {
+		case NONE:
+			return null;
+		case PRICE:
+			return "Price must be a positive integer";
+		case COUNT:
+			return "Expected " + catalog.size() + " ingredient amounts";
+		case TOO_MANY:
+			return "The inventory holds at most " + Integer.MAX_VALUE + " units of each ingredient";
+		default:
+			return catalog.invalidUnitsMessage(code);
+		}
+	}
+}
@@ -13,38 +13,227 @@
  */
 package edu.ncsu.csc326.coffeemaker;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
 import edu.ncsu.csc326.coffeemaker.exceptions.InventoryException;
 
 /**
  * @author Sarah Heckman
  *
  * Inventory for the coffee maker
+ *
+ * The count of every ingredient in the machine's {@link IngredientCatalog}
+ * lives in a single immutable {@link InventorySnapshot} that is swapped with
+ * compare-and-set, so every change is applied atomically and no reader
+ * ever sees a partially updated inventory.  Each inventory owns its own
+ * counts.
  */
 public class Inventory {
     
-    private static int coffee;
-    private static int milk;
-    private static int sugar;
-    private static int chocolate;
+    /** Longest a reservation is held; larger timeouts are cut to this */
+    private static final long MAX_HOLD_NANOS = Long.MAX_VALUE / 4;
+    /** Ingredients stocked by this inventory */
+    private final IngredientCatalog catalog;
+    /** Current counts; padded so machines in one fleet don't false-share */
+    private final PaddedReference<InventorySnapshot> stock;
+    /** Listeners told about every change; replaced as a whole when one is added */
+    private volatile InventoryListener[] listeners = new InventoryListener[0];
+    /** Log every change is written to before it is published, if any */
+    private volatile WriteAheadLog log;
+    /** Number of compare-and-set attempts that lost to another update */
+    private final LongAdder contention = new LongAdder();
+    /** Average rate at which each ingredient is used */
+    private final ConsumptionTracker consumption;
     
     /**
      * Creates a coffee maker inventory object and
      * fills each item in the inventory with 15 units.
      */
     public Inventory() {
-    	setCoffee(15);
-    	setMilk(15);
-    	setSugar(15);
-    	setChocolate(15);
+    	this(IngredientCatalog.DEFAULT);
+    }
+    
+    /**
+     * Creates an inventory of the ingredients in the given
+     * catalog and fills each of them with 15 units.
+     * @param catalog
+     */
+    public Inventory(IngredientCatalog catalog) {
+    	this(catalog, ConsumptionTracker.SYSTEM);
+    }
+    
+    /**
+     * Creates an inventory whose consumption rates are measured
+     * against the given clock, in nanoseconds.
+     */
+    Inventory(IngredientCatalog catalog, LongSupplier clock) {
+    	this.catalog = catalog;
+    	this.consumption = new ConsumptionTracker(catalog.size(), TimeUnit.MINUTES.toNanos(5), clock);
+    	int[] counts = new int[catalog.size()];
+    	Arrays.fill(counts, 15);
+    	this.stock = new PaddedReference<InventorySnapshot>(new InventorySnapshot(catalog, 0, counts));
+    }
+    
+    /**
+     * Registers a listener that is told about every later
+     * change to the inventory.
+     * @param listener
+     */
+    public synchronized void addListener(InventoryListener listener) {
+    	InventoryListener[] current = listeners;
+    	InventoryListener[] next = Arrays.copyOf(current, current.length + 1);
+    	next[current.length] = listener;
+    	listeners = next;
+    }
+    
+    /**
+     * Sets the log every later change is written to before it is
+     * published, replacing any earlier one.
+     * @param log
+     */
+    void setLog(WriteAheadLog log) {
+    	this.log = log;
+    }
+    
+    /**
+     * Returns the version of the inventory.  It increases by
+     * one on every change.
+     * @return long
+     */
+    public long getVersion() {
+    	return stock.get().version;
+    }
+    
+    /**
+     * Returns the current counts and their version.  This takes
+     * no lock and allocates nothing.
+     * @return InventorySnapshot
+     */
+    public InventorySnapshot getSnapshot() {
+    	return stock.get();
+    }
+    
+    /**
+     * Returns true if the inventory changed after the given
+     * version, without allocating.
+     * @param version a version from an earlier snapshot
+     * @return boolean
+     */
+    public boolean changedSince(long version) {
+    	return stock.get().version > version;
+    }
+    
+    /**
+     * Returns a copy of the current counts, in catalog order.
+     * @return int []
+     */
+    public int[] getAmounts() {
+    	return stock.get().counts.clone();
+    }
+    
+    /**
+     * Copies the current counts into the given array and returns
+     * the version they belong to, both read from the same state.
+     * @param into array of at least one slot per ingredient
+     * @return long
+     */
+    long getAmounts(int[] into) {
+    	InventorySnapshot current = stock.get();
+    	System.arraycopy(current.counts, 0, into, 0, current.counts.length);
+    	return current.version;
+    }
+    
+    /**
+     * Replaces the counts with a recovered state if that state
+     * is newer than the current one.  Listeners are not told.
+     * @return true if the state was replaced
+     */
+    boolean restore(long version, int[] counts) {
+    	for (;;) {
+    		InventorySnapshot current = stock.get();
+    		if (current.version >= version) {
+    			return false;
+    		}
+    		if (swap(current, new InventorySnapshot(catalog, version, counts.clone()), null)) {
+    			return true;
+    		}
+    	}
+    }
+    
+    /**
+     * Returns the catalog of ingredients in this inventory.
+     * @return IngredientCatalog
+     */
+    public IngredientCatalog getCatalog() {
+    	return catalog;
+    }
+    
+    /**
+     * Returns the current number of units of an ingredient.
+     * @param ingredient   position of the ingredient in the catalog
+     * @return int
+     */
+    public int getAmount(int ingredient) {
+    	return stock.get().counts[ingredient];
     }
     
     /**
-     * Returns the current number of chocolate units in 
+     * Sets the number of units of an ingredient to the specified
+     * amount.  Negative amounts are ignored.
+     * @param ingredient   position of the ingredient in the catalog
+     * @param amount
+     */
+    public void setAmount(int ingredient, int amount) {
+    	if (amount >= 0) {
+    		InventorySnapshot current;
+    		InventorySnapshot next;
+    		do {
+    			current = stock.get();
+    			int[] counts = current.counts.clone();
+    			counts[ingredient] = amount;
+    			next = new InventorySnapshot(catalog, current.version + 1, counts);
+    		} while (!swap(current, next, InventoryListener.Change.SET));
+    		changed(InventoryListener.Change.SET, current, next);
+    	}
+    }
+    
+    /**
+     * Adds units of an ingredient to the current amount.
+     * @param ingredient   position of the ingredient in the catalog
+     * @param amount
+     * @throws InventoryException
+     */
+    public void addAmount(int ingredient, String amount) throws InventoryException {
+    	addAmount(ingredient, parseUnits(amount, ingredient));
+    }
+    
+    /**
+     * Adds units of an ingredient to the current amount.
+     * @param ingredient   position of the ingredient in the catalog
+     * @param amount
+     * @throws InventoryException if the amount is negative or
+     * 		would take the count past Integer.MAX_VALUE
+     */
+    public void addAmount(int ingredient, int amount) throws InventoryException {
+    	if (amount < 0) {
+    		throw new InventoryException(catalog.invalidUnitsMessage(ingredient));
+    	}
+    	int[] delta = new int[catalog.size()];
+    	delta[ingredient] = amount;
+    	checkAdded(add(delta, InventoryListener.Change.ADD));
+    }
+    
+    /**
+     * Returns the current number of chocolate units in
      * the inventory.
      * @return int
      */
     public int getChocolate() {
-        return chocolate;
+        return getAmount(IngredientCatalog.CHOCOLATE);
     }
     
     /**
@@ -52,31 +241,18 @@ public class Inventory {
      * to the specified amount.
      * @param chocolate
      */
-    public synchronized void setChocolate(int chocolate) {
-    	if(chocolate >= 0) {
-    		Inventory.chocolate = chocolate;
-    	}
-        
+    public void setChocolate(int chocolate) {
+    	setAmount(IngredientCatalog.CHOCOLATE, chocolate);
     }
     
     /**
-     * Add the number of chocolate units in the inventory 
+     * Add the number of chocolate units in the inventory
      * to the current amount of chocolate units.
      * @param chocolate
      * @throws InventoryException
      */
-    public synchronized void addChocolate(String chocolate) throws InventoryException {
-    	int amtChocolate = 0;
-    	try {
-    		amtChocolate = Integer.parseInt(chocolate);
-    	} catch (NumberFormatException e) {
-    		throw new InventoryException("Units of chocolate must be a positive integer");
-    	}
-		if (amtChocolate >= 0) {
-			Inventory.chocolate += amtChocolate;
-		} else {
-			throw new InventoryException("Units of chocolate must be a positive integer");
-		}
+    public void addChocolate(String chocolate) throws InventoryException {
+    	addAmount(IngredientCatalog.CHOCOLATE, chocolate);
     }
     
     /**
@@ -85,38 +261,26 @@ public class Inventory {
      * @return int
      */
     public int getCoffee() {
-        return coffee;
+        return getAmount(IngredientCatalog.COFFEE);
     }
     
     /**
-     * Sets the number of coffee units in the inventory 
+     * Sets the number of coffee units in the inventory
      * to the specified amount.
      * @param coffee
      */
-    public synchronized void setCoffee(int coffee) {
-    	if(coffee >= 0) {
-    		Inventory.coffee = coffee;
-    	}
+    public void setCoffee(int coffee) {
+    	setAmount(IngredientCatalog.COFFEE, coffee);
     }
     
     /**
-     * Add the number of coffee units in the inventory 
+     * Add the number of coffee units in the inventory
      * to the current amount of coffee units.
      * @param coffee
      * @throws InventoryException
      */
-    public synchronized void addCoffee(String coffee) throws InventoryException {
-    	int amtCoffee = 0;
-    	try {
-    		amtCoffee = Integer.parseInt(coffee);
-    	} catch (NumberFormatException e) {
-    		throw new InventoryException("Units of coffee must be a positive integer");
-    	}
-		if (amtCoffee >= 0) {
-			Inventory.coffee += amtCoffee;
-		} else {
-			throw new InventoryException("Units of coffee must be a positive integer");
-		}
+    public void addCoffee(String coffee) throws InventoryException {
+    	addAmount(IngredientCatalog.COFFEE, coffee);
     }
     
     /**
@@ -125,7 +289,7 @@ public class Inventory {
      * @return int
      */
     public int getMilk() {
-        return milk;
+        return getAmount(IngredientCatalog.MILK);
     }
     
     /**
@@ -133,39 +297,27 @@ public class Inventory {
      * to the specified amount.
      * @param milk
      */
-    public synchronized void setMilk(int milk) {
-    	if(milk >= 0) {
-    		Inventory.milk = milk;
-    	}
+    public void setMilk(int milk) {
+    	setAmount(IngredientCatalog.MILK, milk);
     }
     
     /**
-     * Add the number of milk units in the inventory 
+     * Add the number of milk units in the inventory
      * to the current amount of milk units.
      * @param milk
      * @throws InventoryException
      */
-    public synchronized void addMilk(String milk) throws InventoryException {
-    	int amtMilk = 0;
-    	try {
-    		amtMilk = Integer.parseInt(milk);
-    	} catch (NumberFormatException e) {
-    		throw new InventoryException("Units of milk must be a positive integer");
-    	}
-		if (amtMilk >= 0) {
-			Inventory.milk += amtMilk;
-		} else {
-			throw new InventoryException("Units of milk must be a positive integer");
-		}
+    public void addMilk(String milk) throws InventoryException {
+    	addAmount(IngredientCatalog.MILK, milk);
     }
     
     /**
-     * Returns the current number of sugar units in 
+     * Returns the current number of sugar units in
      * the inventory.
      * @return int
      */
     public int getSugar() {
-        return sugar;
+        return getAmount(IngredientCatalog.SUGAR);
     }
     
     /**
@@ -173,30 +325,107 @@ public class Inventory {
      * to the specified amount.
      * @param sugar
      */
-    public synchronized void setSugar(int sugar) {
-    	if(sugar >= 0) {
-    		Inventory.sugar = sugar;
-    	}
+    public void setSugar(int sugar) {
+    	setAmount(IngredientCatalog.SUGAR, sugar);
     }
     
     /**
-     * Add the number of sugar units in the inventory 
+     * Add the number of sugar units in the inventory
      * to the current amount of sugar units.
      * @param sugar
      * @throws InventoryException
      */
-    public synchronized void addSugar(String sugar) throws InventoryException {
-    	int amtSugar = 0;
-    	try {
-    		amtSugar = Integer.parseInt(sugar);
-    	} catch (NumberFormatException e) {
-    		throw new InventoryException("Units of sugar must be a positive integer");
+    public void addSugar(String sugar) throws InventoryException {
+    	addAmount(IngredientCatalog.SUGAR, sugar);
+    }
+    
+    /**
+     * Adds all four amounts to the inventory in a single
+     * atomic step.  Every amount is validated before any
+     * of them is applied.
+     * @param coffee
+     * @param milk
+     * @param sugar
+     * @param chocolate
+     * @throws InventoryException
+     */
+    public void addInventory(String coffee, String milk, String sugar, String chocolate) throws InventoryException {
+    	int[] delta = new int[catalog.size()];
+    	delta[IngredientCatalog.COFFEE] = parseUnits(coffee, IngredientCatalog.COFFEE);
+    	delta[IngredientCatalog.MILK] = parseUnits(milk, IngredientCatalog.MILK);
+    	delta[IngredientCatalog.SUGAR] = parseUnits(sugar, IngredientCatalog.SUGAR);
+    	delta[IngredientCatalog.CHOCOLATE] = parseUnits(chocolate, IngredientCatalog.CHOCOLATE);
+    	checkAdded(add(delta, InventoryListener.Change.ADD));
+    }
+    
+    private void checkAdded(int result) throws InventoryException {
+    	if (result != InputCheck.NONE) {
+    		throw new InventoryException(InputCheck.message(result, catalog));
+    	}
+    }
+    
+    /**
+     * Adds an amount of every ingredient in the catalog, in
+     * catalog order, in a single atomic step.  Every amount is
+     * validated before any of them is applied.
+     * @param amounts   one amount per catalog ingredient
+     * @throws InventoryException
+     */
+    public void addInventory(String[] amounts) throws InventoryException {
+    	int bad = tryAddInventory(amounts);
+    	if (bad != InputCheck.NONE) {
+    		throw new InventoryException(InputCheck.message(bad, catalog));
+    	}
+    }
+    
+    /**
+     * Adds an amount of every ingredient in the catalog, in
+     * catalog order, in a single atomic step.  Every amount is
+     * validated before any of them is applied.
+     * @param amounts   one amount per catalog ingredient
+     * @throws InventoryException
+     */
+    public void addInventory(int[] amounts) throws InventoryException {
+    	int bad = tryAddInventory(amounts);
+    	if (bad != InputCheck.NONE) {
+    		throw new InventoryException(InputCheck.message(bad, catalog));
     	}
-		if (amtSugar <= 0) {
-			Inventory.sugar += amtSugar;
-		} else {
-			throw new InventoryException("Units of sugar must be a positive integer");
-		}
+    }
+    
+    /**
+     * Adds an amount of every ingredient in the catalog if all of
+     * them are valid.  Never throws, and allocates nothing when an
+     * amount is rejected.
+     * @param amounts   one amount per catalog ingredient
+     * @return int   {@link InputCheck#NONE} if the amounts were added,
+     * 		otherwise the result code of the first invalid amount
+     */
+    public int tryAddInventory(int[] amounts) {
+    	int bad = InputCheck.checkAmounts(amounts, catalog);
+    	if (bad == InputCheck.NONE) {
+    		bad = add(amounts, InventoryListener.Change.ADD);
+    	}
+    	return bad;
+    }
+    
+    /**
+     * Adds an amount of every ingredient in the catalog, given as
+     * text, if all of them are valid.  Never throws, and allocates
+     * nothing when an amount is rejected.
+     * @param amounts   one amount per catalog ingredient
+     * @return int   {@link InputCheck#NONE} if the amounts were added,
+     * 		otherwise the result code of the first invalid amount
+     */
+    public int tryAddInventory(CharSequence[] amounts) {
+    	int bad = InputCheck.checkAmounts(amounts, catalog);
+    	if (bad == InputCheck.NONE) {
+    		int[] delta = new int[amounts.length];
+    		for (int i = 0; i < amounts.length; i++) {
+    			delta[i] = InputCheck.parseUnits(amounts[i]);
+    		}
+    		bad = add(delta, InventoryListener.Change.ADD);
+    	}
+    	return bad;
     }
     
     /**
@@ -205,60 +434,396 @@ public class Inventory {
      * @param r
      * @return boolean
      */
-    protected synchronized boolean enoughIngredients(Recipe r) {
-        boolean isEnough = true;
-        if(Inventory.coffee < r.getAmtCoffee()) {
-            isEnough = false;
-        }
-        if(Inventory.milk < r.getAmtMilk()) {
-            isEnough = false;
-        }
-        if(Inventory.sugar < r.getAmtSugar()) {
-            isEnough = false;
-        }
-        if(Inventory.chocolate < r.getAmtChocolate()) {
-            isEnough = false;
-        }
-        return isEnough;
-    }
-    
-    /**
-     * Removes the ingredients used to make the specified 
-     * recipe.  Assumes that the user has checked that there
-     * are enough ingredients to make 
+    protected boolean enoughIngredients(Recipe r) {
+        return covers(stock.get().counts, r.amounts());
+    }
+    
+    /**
+     * Removes the ingredients used to make the specified
+     * recipe.  The check and the removal are one atomic
+     * step, so two orders can never both take the last units.
+     * @param r
+     * @return true if the ingredients were removed
+     */
+    public boolean useIngredients(Recipe r) {
+    	return take(r.amounts(), InventoryListener.Change.USE);
+    }
+    
+    /**
+     * Takes the ingredients for the recipe and holds them for
+     * 30 seconds; see {@link #reserve(Recipe, long, TimeUnit)}.
      * @param r
+     * @return Reservation, or null if there are not enough ingredients
      */
-    public synchronized boolean useIngredients(Recipe r) {
-    	if (enoughIngredients(r)) {
-	    	Inventory.coffee += r.getAmtCoffee();
-	    	Inventory.milk -= r.getAmtMilk();
-	    	Inventory.sugar -= r.getAmtSugar();
-	    	Inventory.chocolate -= r.getAmtChocolate();
-	    	return true;
-    	} else {
-    		return false;
+    public Reservation reserve(Recipe r) {
+    	return reserve(r, 30, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Takes the ingredients for the recipe in one atomic step and
+     * holds them until the returned reservation is committed or
+     * cancelled.  If neither happens within the timeout, the units
+     * are given back.  Held units count as used for every other
+     * order, so stock is never sold twice.
+     * @param r
+     * @param timeout
+     * @param unit
+     * @return Reservation, or null if there are not enough ingredients
+     */
+    public Reservation reserve(Recipe r, long timeout, TimeUnit unit) {
+    	int[] need = Arrays.copyOf(r.amounts(), catalog.size());
+    	if (!take(need, InventoryListener.Change.RESERVE)) {
+    		return null;
     	}
+    	long nanos = Math.min(unit.toNanos(timeout), MAX_HOLD_NANOS);
+    	Reservation reservation = new Reservation(this, need, System.nanoTime() + nanos);
+    	TimingWheel.Shared.WHEEL.schedule(reservation);
+    	return reservation;
+    }
+    
+    /**
+     * Counts the units of a committed reservation as used.
+     */
+    void committed(int[] units) {
+    	consumption.record(units);
+    }
+    
+    /**
+     * Gives back the units of a cancelled or expired reservation.
+     */
+    void release(int[] units) {
+    	add(units, InventoryListener.Change.RELEASE);
+    }
+    
+    /**
+     * Adds units moved in from a {@link Storeroom}.
+     */
+    void deposit(int[] units) {
+    	add(units, InventoryListener.Change.TRANSFER);
     }
     
     /**
-     * Returns a string describing the current contents 
+     * Removes up to the given units for a {@link Storeroom} in one
+     * atomic step and returns how many of each were removed.
+     */
+    int[] withdraw(int[] wanted) {
+    	for (;;) {
+    		InventorySnapshot current = stock.get();
+    		int[] next = current.counts.clone();
+    		int[] taken = new int[next.length];
+    		int n = Math.min(next.length, wanted.length);
+    		for (int i = 0; i < n; i++) {
+    			taken[i] = Math.max(0, Math.min(wanted[i], next[i]));
+    			next[i] -= taken[i];
+    		}
+    		InventorySnapshot updated = new InventorySnapshot(catalog, current.version + 1, next);
+    		if (swap(current, updated, InventoryListener.Change.TRANSFER)) {
+    			changed(InventoryListener.Change.TRANSFER, current, updated);
+    			return taken;
+    		}
+    	}
+    }
+    
+    /**
+     * Removes the needed units if all of them are on hand.
+     */
+    private boolean take(int[] need, InventoryListener.Change change) {
+    	for (;;) {
+    		InventorySnapshot current = stock.get();
+    		int[] counts = current.counts;
+    		if (!covers(counts, need)) {
+    			return false;
+    		}
+    		int[] next = counts.clone();
+    		int n = Math.min(next.length, need.length);
+    		for (int i = 0; i < n; i++) {
+    			next[i] -= need[i];
+    		}
+    		InventorySnapshot updated = new InventorySnapshot(catalog, current.version + 1, next);
+    		if (swap(current, updated, change)) {
+    			if (change == InventoryListener.Change.USE) {
+    				consumption.record(counts, next);
+    			}
+    			changed(change, current, updated);
+    			return true;
+    		}
+    	}
+    }
+    
+    /**
+     * Removes the ingredients for a whole batch of orders in a
+     * single atomic step.  Null entries are skipped.  Each order
+     * that cannot be made is set to null, so on return the array
+     * holds exactly the orders whose ingredients were removed.
+     * @param orders recipes to make, in order
+     * @param allOrNothing if true, either every order is made or none
+     * @return int the number of orders made
+     */
+    public int useIngredients(Recipe[] orders, boolean allOrNothing) {
+    	long[] left = new long[catalog.size()];
+    	for (;;) {
+    		InventorySnapshot current = stock.get();
+    		int made = allOrNothing ? takeAll(current.counts, orders, left) : takeEach(current.counts, orders, left, false);
+    		if (made == 0) {
+    			Arrays.fill(orders, null);
+    			return 0;
+    		}
+    		int[] next = new int[left.length];
+    		for (int i = 0; i < left.length; i++) {
+    			next[i] = (int) left[i];
+    		}
+    		InventorySnapshot updated = new InventorySnapshot(catalog, current.version + 1, next);
+    		if (swap(current, updated, InventoryListener.Change.USE)) {
+    			consumption.record(current.counts, next);
+    			changed(InventoryListener.Change.USE, current, updated);
+    			if (!allOrNothing) {
+    				takeEach(current.counts, orders, left, true);
+    			}
+    			return made;
+    		}
+    	}
+    }
+    
+    /**
+     * Takes the total demand of all orders from the counts into
+     * left.  Returns the number of orders, or 0 if the total
+     * demand does not fit.
+     */
+    private static int takeAll(int[] counts, Recipe[] orders, long[] left) {
+    	for (int i = 0; i < left.length; i++) {
+    		left[i] = counts[i];
+    	}
+    	int made = 0;
+    	long shortfall = 0;
+    	for (Recipe r : orders) {
+    		if (r != null) {
+    			int[] need = r.amounts();
+    			int n = Math.min(left.length, need.length);
+    			for (int i = 0; i < n; i++) {
+    				left[i] -= need[i];
+    			}
+    			shortfall |= unstocked(need, n);
+    			made++;
+    		}
+    	}
+    	for (int i = 0; i < left.length; i++) {
+    		shortfall |= left[i];
+    	}
+    	return shortfall < 0 ? 0 : made;
+    }
+    
+    /**
+     * Takes each order that still fits, in order, from the counts
+     * into left.  Returns the number of orders taken.  If clearUnmade
+     * is set, orders that did not fit are set to null.
+     */
+    private static int takeEach(int[] counts, Recipe[] orders, long[] left, boolean clearUnmade) {
+    	for (int i = 0; i < left.length; i++) {
+    		left[i] = counts[i];
+    	}
+    	int made = 0;
+    	for (int o = 0; o < orders.length; o++) {
+    		Recipe r = orders[o];
+    		if (r == null) {
+    			continue;
+    		}
+    		int[] need = r.amounts();
+    		int n = Math.min(left.length, need.length);
+    		long shortfall = unstocked(need, n);
+    		for (int i = 0; i < n; i++) {
+    			shortfall |= left[i] - need[i];
+    		}
+    		if (shortfall >= 0) {
+    			for (int i = 0; i < n; i++) {
+    				left[i] -= need[i];
+    			}
+    			made++;
+    		} else if (clearUnmade) {
+    			orders[o] = null;
+    		}
+    	}
+    	return made;
+    }
+    
+    /**
+     * Returns a string describing the current contents
      * of the inventory.
      * @return String
      */
     public String toString() {
-    	StringBuffer buf = new StringBuffer();
-    	buf.append("Coffee: ");
-    	buf.append(getCoffee());
-    	buf.append("\n");
-    	buf.append("Milk: ");
-    	buf.append(getMilk());
-    	buf.append("\n");
-    	buf.append("Sugar: ");
-    	buf.append(getSugar());
-    	buf.append("\n");
-    	buf.append("Chocolate: ");
-    	buf.append(getChocolate());
-    	buf.append("\n");
-    	return buf.toString();
+    	return stock.get().toString();
+    }
+    
+    /**
+     * Returns true if every count is at least the needed amount.
+     * The differences are OR-ed together and checked once, so the
+     * loop has no branches.
+     */
+    private static boolean covers(int[] counts, int[] need) {
+    	int n = Math.min(counts.length, need.length);
+    	int shortfall = unstocked(need, n);
+    	for (int i = 0; i < n; i++) {
+    		shortfall |= counts[i] - need[i];
+    	}
+    	return shortfall >= 0;
+    }
+    
+    /**
+     * Returns a negative number if the recipe needs any ingredient
+     * from position stocked on, which this inventory does not stock.
+     * A recipe from a smaller catalog simply needs none of the extra
+     * ingredients.
+     */
+    private static int unstocked(int[] need, int stocked) {
+    	int shortfall = 0;
+    	for (int i = stocked; i < need.length; i++) {
+    		shortfall |= -need[i];
+    	}
+    	return shortfall;
+    }
+    
+    /**
+     * Returns the number of times an update lost a race with another
+     * update and had to start over.  A rising count means threads are
+     * contending for the inventory.
+     * @return long
+     */
+    public long getContention() {
+    	return contention.sum();
+    }
+    
+    /**
+     * Returns how fast an ingredient is being used, in units per
+     * second, averaged over roughly the last five minutes.  Older
+     * use counts for less the older it is.
+     * @param ingredient   position of the ingredient in the catalog
+     * @return double
+     */
+    public double getConsumptionRate(int ingredient) {
+    	return consumption.getRate(ingredient);
+    }
+    
+    /**
+     * Returns the number of seconds until an ingredient runs out
+     * if it keeps being used at its current rate, or infinity if
+     * it is not being used.
+     * @param ingredient   position of the ingredient in the catalog
+     * @return double
+     */
+    public double getTimeToDepletion(int ingredient) {
+    	return depletion(stock.get().counts[ingredient], consumption.getRate(ingredient));
+    }
+    
+    /**
+     * Plans the restocks needed to keep every ingredient from
+     * running out within the horizon at the current rates of use.
+     * Each ingredient that would run out gets one restock, due the
+     * lead time before it runs out, of enough units to last to the
+     * end of the horizon.  The most urgent restock comes first.
+     * @param horizonSeconds   how far ahead to plan
+     * @param leadTimeSeconds   how long a restock takes to arrive
+     * @return Restock []
+     */
+    public Restock[] getRestockSchedule(double horizonSeconds, double leadTimeSeconds) {
+    	int[] counts = stock.get().counts;
+    	Restock[] plan = new Restock[counts.length];
+    	int n = 0;
+    	for (int i = 0; i < counts.length; i++) {
+    		double rate = consumption.getRate(i);
+    		double runsOut = depletion(counts[i], rate);
+    		if (runsOut < horizonSeconds) {
+    			int units = (int) Math.min(Integer.MAX_VALUE, Math.ceil(rate * horizonSeconds - counts[i]));
+    			plan[n++] = new Restock(i, catalog.getName(i), Math.max(0, runsOut - leadTimeSeconds), units);
+    		}
+    	}
+    	plan = Arrays.copyOf(plan, n);
+    	Arrays.sort(plan, new Comparator<Restock>() {
+    		public int compare(Restock a, Restock b) {
+    			return Double.compare(a.getSecondsUntil(), b.getSecondsUntil());
+    		}
+    	});
+    	return plan;
+    }
+    
+    private static double depletion(int count, double rate) {
+    	return rate > 0 ? count / rate : Double.POSITIVE_INFINITY;
+    }
+    
+    /**
+     * Replaces the counts if they are still current, counting
+     * a lost race.  Unless the change is null, it is written to the
+     * log before it is published and committed or aborted after.
+     */
+    private boolean swap(InventorySnapshot current, InventorySnapshot next, InventoryListener.Change change) {
+    	WriteAheadLog wal = change == null ? null : log;
+    	long record = wal == null ? 0 : wal.inventoryChanging(change, next.version, next.counts);
+    	if (stock.compareAndSet(current, next)) {
+    		if (wal != null) {
+    			wal.commit(record);
+    		}
+    		return true;
+    	}
+    	if (wal != null) {
+    		wal.abort(record);
+    	}
+    	contention.increment();
+    	return false;
+    }
+    
+    /**
+     * Atomically adds the given (already validated) amounts.  A
+     * shorter array leaves the remaining ingredients alone.  Added
+     * units that would take a count past Integer.MAX_VALUE are refused;
+     * units coming back from a reservation or a storeroom cannot be,
+     * so those counts stop at Integer.MAX_VALUE.
+     * @return {@link InputCheck#NONE}, or {@link InputCheck#TOO_MANY}
+     * 		if nothing was added
+     */
+    private int add(int[] delta, InventoryListener.Change change) {
+    	if (delta.length > catalog.size()) {
+    		throw new IllegalArgumentException("Expected at most " + catalog.size() + " amounts");
+    	}
+    	InventorySnapshot current;
+    	InventorySnapshot next;
+    	do {
+    		current = stock.get();
+    		int[] counts = current.counts;
+    		if (change == InventoryListener.Change.ADD) {
+    			for (int i = 0; i < delta.length; i++) {
+    				if (delta[i] > Integer.MAX_VALUE - counts[i]) {
+    					return InputCheck.TOO_MANY;
+    				}
+    			}
+    		}
+    		counts = counts.clone();
+    		for (int i = 0; i < delta.length; i++) {
+    			counts[i] = (int) Math.min(Integer.MAX_VALUE, (long) counts[i] + delta[i]);
+    		}
+    		next = new InventorySnapshot(catalog, current.version + 1, counts);
+    	} while (!swap(current, next, change));
+    	changed(change, current, next);
+    	return InputCheck.NONE;
+    }
+    
+    /**
+     * Tells every listener about a change that was just applied.
+     */
+    private void changed(InventoryListener.Change change, InventorySnapshot before, InventorySnapshot after) {
+    	InventoryListener[] current = listeners;
+    	for (int i = 0; i < current.length; i++) {
+    		current[i].inventoryChanged(change, after.version, before.counts, after.counts);
+    	}
+    }
+    
+    /**
+     * Parses a number of units to add, rejecting anything that
+     * is not a non-negative integer.
+     */
+    private int parseUnits(String units, int ingredient) throws InventoryException {
+    	int amt = InputCheck.parseUnits(units);
+    	if (amt < 0) {
+    		throw new InventoryException(catalog.invalidUnitsMessage(ingredient));
+    	}
+    	return amt;
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * Receives every change made to an {@link Inventory}.
+ *
+ * The listener is called on the thread that made the change, right
+ * after the change was applied.  Changes made concurrently by different
+ * threads may be reported in a different order than their versions, so
+ * listeners that care about order should use the version.  Listeners
+ * run on the order path and must be quick and must not throw.
+ */
+public interface InventoryListener {
+
+	/** Kinds of inventory changes */
+	enum Change {
+		/** Units were added, by addInventory or one of the add methods */
+		ADD,
+		/** Units were taken to make one or more beverages */
+		USE,
+		/** An ingredient count was set to an absolute amount */
+		SET,
+		/** Units were held for a {@link Reservation} */
+		RESERVE,
+		/** Units held for a reservation were given back */
+		RELEASE,
+		/** Units were moved to or from a {@link Storeroom} */
+		TRANSFER
+	}
+
+	/**
+	 * Called after the inventory changed.  The count arrays are
+	 * shared with the inventory and must not be modified.
+	 * @param change what kind of change was made
+	 * @param version inventory version after the change
+	 * @param before counts before the change, in catalog order
+	 * @param after counts after the change, in catalog order
+	 */
+	void inventoryChanged(Change change, long version, int[] before, int[] after);
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * The counts of an {@link Inventory} at one version.
+ *
+ * Snapshots are immutable and are the inventory's own state: every
+ * change publishes a new snapshot with the next version, so getting
+ * the current one takes no lock and allocates nothing, and its counts
+ * always belong together.
+ */
+public final class InventorySnapshot {
+
+	private final IngredientCatalog catalog;
+	final long version;
+	final int[] counts;
+
+	InventorySnapshot(IngredientCatalog catalog, long version, int[] counts) {
+		this.catalog = catalog;
+		this.version = version;
+		this.counts = counts;
+	}
+
+	/**
+	 * Returns the version of the inventory these counts belong to.
+	 * Later snapshots have higher versions.
+	 * @return long
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns true if this snapshot is newer than the given version.
+	 * @param version
+	 * @return boolean
+	 */
+	public boolean isNewerThan(long version) {
+		return this.version > version;
+	}
+
+	/**
+	 * Returns the catalog of the ingredients counted.
+	 * @return IngredientCatalog
+	 */
+	public IngredientCatalog getCatalog() {
+		return catalog;
+	}
+
+	/**
+	 * Returns the number of ingredients counted.
+	 * @return int
+	 */
+	public int size() {
+		return counts.length;
+	}
+
+	/**
+	 * Returns the number of units of an ingredient.
+	 * @param ingredient   position of the ingredient in the catalog
+	 * @return int
+	 */
+	public int getCount(int ingredient) {
+		return counts[ingredient];
+	}
+
+	/**
+	 * Copies the counts into the given array, in catalog order.
+	 * @param into array of at least one slot per ingredient
+	 */
+	public void getCounts(int[] into) {
+		System.arraycopy(counts, 0, into, 0, counts.length);
+	}
+
+	/**
+	 * Returns a copy of the counts, in catalog order.
+	 * @return int []
+	 */
+	public int[] getCounts() {
+		return counts.clone();
+	}
+
+	/**
+	 * Returns the counts one ingredient per line, as
+	 * {@link Inventory#toString()} does.
+	 * @return String
+	 */
+	public String toString() {
+		StringBuilder buf = new StringBuilder(counts.length * 16);
+		for (int i = 0; i < counts.length; i++) {
+			buf.append(catalog.getName(i));
+			buf.append(": ");
+			buf.append(counts[i]);
+			buf.append('\n');
+		}
+		return buf.toString();
+	}
+}
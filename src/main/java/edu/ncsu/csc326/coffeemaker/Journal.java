@@ -0,0 +1,747 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import edu.ncsu.csc326.coffeemaker.exceptions.RecipeException;
+
+/**
+ * Append-only write-ahead journal of inventory and recipe book changes.
+ *
+ * Once attached to a coffee maker, the journal records every change to
+ * its inventory and recipe book before the change is published.  On
+ * startup, {@link #replay(CoffeeMaker)} applies the recorded changes to
+ * a fresh coffee maker to bring it back to the state it had before the
+ * process stopped.
+ *
+ * A record is written in full before its change is published, but its
+ * length, which makes it visible to recovery, is only written once the
+ * change has been published.  An inventory change that loses its race
+ * turns its record into padding instead.  So by the time an order is
+ * acknowledged its record is in the journal, and a change that was
+ * never made is never replayed.
+ *
+ * Records are copied into memory-mapped files, so appending one costs a
+ * memory copy and no system call.  Writers reserve space with a single
+ * atomic add and never wait for each other.  Records only reach the disk
+ * when the mapped pages are forced.  With {@link FsyncPolicy#INTERVAL} a
+ * background thread forces everything appended since the last force, so
+ * one fsync commits a whole group of orders.  {@link #sync()} forces on
+ * demand.
+ *
+ * The journal is a series of segment files named after the journal
+ * file with the segment number appended.  Offsets run on across
+ * segments.  Once a snapshot covers everything before an offset,
+ * {@link #checkpoint(long)} deletes the segments before it, so the
+ * journal only keeps what a restart needs.
+ *
+ * Inventory records hold the complete counts after the change together
+ * with the inventory version.  Replay keeps the newest version, so it
+ * does not matter in which order concurrent orders reached the journal.
+ * Recipe records are written under the recipe book's lock and replayed
+ * in order.  Replay skips any record at or below the version the coffee
+ * maker already has, so replaying the same journal twice is harmless.
+ *
+ * Each record is laid out as
+ * <pre>
+ *   int  length    total record length, a multiple of 8
+ *   int  crc       CRC-32 of everything after this field
+ *   byte type
+ *   long version   inventory or recipe book version after the change
+ *   ...  payload
+ * </pre>
+ * The length is written last.  A record that was not completely written
+ * or not committed before a crash has no length and is skipped.
+ */
+public class Journal implements WriteAheadLog, Closeable {
+
+	/** When the journal forces appended records to disk */
+	public enum FsyncPolicy {
+		/** Only on {@link Journal#sync()} and {@link Journal#close()} */
+		ON_DEMAND,
+		/** From a background thread at a fixed interval, and on demand */
+		INTERVAL
+	}
+
+	/** Default size of each segment file */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+	private static final byte INVENTORY_ADD = 1;
+	private static final byte INVENTORY_USE = 2;
+	private static final byte INVENTORY_SET = 3;
+	private static final byte RECIPE_ADD = 4;
+	private static final byte RECIPE_EDIT = 5;
+	private static final byte RECIPE_DELETE = 6;
+	private static final byte PADDING = 7;
+
+	/** Bytes before the payload */
+	private static final int HEADER = 4 + 4 + 1 + 8;
+	/** Smallest possible record, a header padded to 8 bytes */
+	private static final int MIN_RECORD = align(HEADER);
+
+	/**
+	 * One writing thread's record buffer and the record it has
+	 * written but not yet committed or aborted.
+	 */
+	private static final class Writer {
+		ByteBuffer buf = ByteBuffer.allocate(256);
+		/** Offset at or below the uncommitted record, or Long.MAX_VALUE */
+		volatile long pending = Long.MAX_VALUE;
+		MappedByteBuffer segment;
+		int offset;
+	}
+
+	private final File file;
+	private final int segmentSize;
+	/** Mapped segments by number, mapped on first use; deleted ones are null */
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	/** Offset of the first segment still kept */
+	private volatile long head;
+	/** Offset at which the next record will be written */
+	private final AtomicLong tail;
+	/** Offset up to which records have been forced to disk */
+	private long synced;
+	private final ScheduledExecutorService flusher;
+	/** First error hit while appending or syncing, reported by sync and close */
+	private volatile IOException failure;
+	/** Every thread that has written a record */
+	private final CopyOnWriteArrayList<Writer> writers = new CopyOnWriteArrayList<Writer>();
+	private final ThreadLocal<Writer> writer = new ThreadLocal<Writer>() {
+		@Override
+		protected Writer initialValue() {
+			Writer w = new Writer();
+			writers.add(w);
+			return w;
+		}
+	};
+
+	/**
+	 * Opens a journal with the default segment size that forces
+	 * appended records to disk every syncIntervalMillis.
+	 * @param file
+	 * @param syncIntervalMillis
+	 * @throws IOException
+	 */
+	public Journal(File file, long syncIntervalMillis) throws IOException {
+		this(file, DEFAULT_SEGMENT_SIZE, FsyncPolicy.INTERVAL, syncIntervalMillis);
+	}
+
+	/**
+	 * Opens a journal, starting a new one if it has no segments.  New
+	 * records are appended after the last valid record.  Only the
+	 * segments kept since the last checkpoint are read.
+	 * @param file
+	 * @param segmentSize size of each segment; a multiple of 8 and
+	 * 		larger than the largest record
+	 * @param policy when appended records are forced to disk
+	 * @param syncIntervalMillis interval for {@link FsyncPolicy#INTERVAL}
+	 * @throws IOException
+	 */
+	public Journal(File file, int segmentSize, FsyncPolicy policy, long syncIntervalMillis) throws IOException {
+		if (segmentSize % 8 != 0 || segmentSize < MIN_RECORD) {
+			throw new IllegalArgumentException("Segment size must be a multiple of 8 of at least " + MIN_RECORD);
+		}
+		this.file = file;
+		this.segmentSize = segmentSize;
+		long first = -1;
+		long last = -1;
+		File dir = file.getAbsoluteFile().getParentFile();
+		String[] names = dir.list();
+		for (String name : names == null ? new String[0] : names) {
+			long index = segmentIndex(name);
+			if (index >= 0) {
+				first = first < 0 ? index : Math.min(first, index);
+				last = Math.max(last, index);
+			}
+		}
+		this.head = Math.max(0, first) * segmentSize;
+		long end = scan(null, head);
+		// Anything after the last valid record is garbage from a crash;
+		// drop it so it can't be mistaken for a record later.
+		for (long index = Math.max(0, first); index <= last; index++) {
+			long base = index * segmentSize;
+			File segment = segmentFile(index);
+			if (base > end) {
+				segment.delete();
+			} else if (end < base + segmentSize && segment.exists()) {
+				FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.WRITE);
+				try {
+					channel.truncate(end - base);
+				} finally {
+					channel.close();
+				}
+			}
+		}
+		this.tail = new AtomicLong(end);
+		this.synced = end;
+		if (policy == FsyncPolicy.INTERVAL) {
+			flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "journal-sync-" + Journal.this.file.getName());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			flusher.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						sync();
+					} catch (IOException e) {
+						// kept in failure and reported by the next sync or close
+					}
+				}
+			}, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			flusher = null;
+		}
+	}
+
+	/**
+	 * Makes the journal the write-ahead log of the coffee maker's
+	 * inventory and recipe book, so that every later change is recorded
+	 * before it is published.
+	 * @param coffeeMaker
+	 */
+	public void attach(CoffeeMaker coffeeMaker) {
+		coffeeMaker.getInventory().setLog(this);
+		coffeeMaker.getRecipeBook().setLog(this);
+	}
+
+	/**
+	 * Applies every record in the journal to the coffee maker and
+	 * returns the number of records applied.  Records at or below
+	 * the coffee maker's current versions are skipped.  Attach the
+	 * journal only after replaying, or the replayed recipe changes are
+	 * recorded again.
+	 * @param coffeeMaker
+	 * @return int
+	 * @throws IOException if the journal was written for a different
+	 * 		ingredient catalog
+	 */
+	public int replay(CoffeeMaker coffeeMaker) throws IOException {
+		return replay(coffeeMaker, 0);
+	}
+
+	/**
+	 * Applies the records from the given offset on to the coffee
+	 * maker and returns the number of records applied.  Used after
+	 * loading a {@link CoffeeMakerSnapshot}, which records the offset
+	 * up to which its state already covers the journal.
+	 * @param coffeeMaker
+	 * @param from offset of the first record to read
+	 * @return int
+	 * @throws IOException if the journal was written for a different
+	 * 		ingredient catalog
+	 */
+	public int replay(CoffeeMaker coffeeMaker, long from) throws IOException {
+		Replay replay = new Replay(coffeeMaker);
+		scan(replay, Math.max(from, head));
+		return replay.applied;
+	}
+
+	/**
+	 * Returns the offset at which the next record will be written.
+	 * @return long
+	 */
+	public long getPosition() {
+		return tail.get();
+	}
+
+	/**
+	 * Returns an offset such that the change of every record before it
+	 * has already been published.  Records still waiting for their
+	 * change to be published hold it back.  A snapshot that reads this
+	 * offset before the coffee maker's state covers every record before
+	 * the offset.
+	 * @return long
+	 */
+	public long getStablePosition() {
+		long position = tail.get();
+		for (Writer w : writers) {
+			position = Math.min(position, w.pending);
+		}
+		return position;
+	}
+
+	/**
+	 * Returns the offset of the first record the journal still keeps.
+	 * @return long
+	 */
+	public long getHead() {
+		return head;
+	}
+
+	/**
+	 * Starts a new segment, padding out the rest of the current one,
+	 * and returns the offset of the new segment.  A snapshot taken
+	 * after rotating lets {@link #checkpoint(long)} delete every
+	 * segment written before it.
+	 * @return long
+	 * @throws IOException if the new segment could not be created
+	 */
+	public long rotate() throws IOException {
+		for (;;) {
+			long position = tail.get();
+			long segmentStart = (position + segmentSize - 1) / segmentSize * segmentSize;
+			if (position == segmentStart || tail.compareAndSet(position, segmentStart)) {
+				pad(position, segmentStart);
+				segment(segmentStart / segmentSize);
+				return segmentStart;
+			}
+		}
+	}
+
+	/**
+	 * Deletes the segments that end at or before the given offset.
+	 * Call it once a snapshot that covers everything before the offset
+	 * is safely on disk.  The segment holding the offset is kept, so
+	 * the next open starts reading there.
+	 * @param offset
+	 * @return the number of segments deleted
+	 * @throws IOException if the kept segment could not be created
+	 */
+	public synchronized int checkpoint(long offset) throws IOException {
+		long keep = Math.min(offset, getStablePosition()) / segmentSize;
+		segment(keep);
+		int deleted = 0;
+		MappedByteBuffer[] mapped = segments;
+		for (long index = head / segmentSize; index < keep; index++) {
+			if (index < mapped.length) {
+				mapped[(int) index] = null;
+			}
+			if (segmentFile(index).delete()) {
+				deleted++;
+			}
+		}
+		segments = mapped;
+		head = Math.max(head, keep * segmentSize);
+		return deleted;
+	}
+
+	/**
+	 * Forces every record appended so far to disk.  A record that is
+	 * committed after the force that covered its space is forced by the
+	 * next one.
+	 * @throws IOException if this or an earlier append or sync failed
+	 */
+	public synchronized void sync() throws IOException {
+		checkFailure();
+		long end = tail.get();
+		if (end == synced) {
+			return;
+		}
+		MappedByteBuffer[] mapped = segments;
+		int last = (int) Math.min((end - 1) / segmentSize, mapped.length - 1);
+		for (int i = (int) (Math.max(synced - 1, head) / segmentSize); i <= last; i++) {
+			if (mapped[i] != null) {
+				mapped[i].force();
+			}
+		}
+		synced = end;
+	}
+
+	/**
+	 * Stops the background sync and forces all records to disk.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (flusher != null) {
+			flusher.shutdown();
+		}
+		sync();
+	}
+
+	/**
+	 * Writes an inventory change that is about to be published.
+	 */
+	public long inventoryChanging(InventoryListener.Change change, long version, int[] after) {
+		// Records hold absolute counts, so after recovery the units of a
+		// reservation that was still pending stay taken.
+		byte type = change == InventoryListener.Change.ADD || change == InventoryListener.Change.RELEASE ? INVENTORY_ADD
+				: change == InventoryListener.Change.USE || change == InventoryListener.Change.RESERVE ? INVENTORY_USE
+				: INVENTORY_SET;
+		ByteBuffer buf = start(type, version, 2 + 4 * after.length);
+		buf.putShort((short) after.length);
+		for (int count : after) {
+			buf.putInt(count);
+		}
+		return prepare(buf);
+	}
+
+	/**
+	 * Writes a recipe book change that is about to be published.
+	 */
+	public long recipeChanging(RecipeBookListener.Change change, int recipeId, RecipeSnapshot after) {
+		if (change == RecipeBookListener.Change.DELETE) {
+			ByteBuffer buf = start(RECIPE_DELETE, after.getVersion(), 4);
+			buf.putInt(recipeId);
+			return prepare(buf);
+		}
+		Recipe r = after.getRecipe(recipeId);
+		byte[] name = r.getName().getBytes(StandardCharsets.UTF_8);
+		int[] amounts = r.amounts();
+		ByteBuffer buf = start(change == RecipeBookListener.Change.ADD ? RECIPE_ADD : RECIPE_EDIT,
+				after.getVersion(), 4 + 4 + 4 + name.length + 2 + 4 * amounts.length);
+		buf.putInt(recipeId);
+		buf.putInt(r.getPrice());
+		buf.putInt(name.length);
+		buf.put(name);
+		buf.putShort((short) amounts.length);
+		for (int amount : amounts) {
+			buf.putInt(amount);
+		}
+		return prepare(buf);
+	}
+
+	/**
+	 * Writes the length of the thread's pending record, making it
+	 * visible to recovery.
+	 */
+	public void commit(long record) {
+		Writer w = writer.get();
+		if (record >= 0) {
+			w.segment.putInt(w.offset, w.buf.getInt(0));
+		}
+		w.pending = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Turns the thread's pending record into padding.
+	 */
+	public void abort(long record) {
+		Writer w = writer.get();
+		if (record >= 0) {
+			ByteBuffer buf = w.buf;
+			int length = buf.getInt(0);
+			buf.put(8, PADDING);
+			buf.putInt(4, checksum(buf.array(), 8, length - 8));
+			write(w.segment, w.offset, buf.array(), length);
+			w.segment.putInt(w.offset, length);
+		}
+		w.pending = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns this thread's record buffer, cleared and positioned
+	 * after a header for a record of the given type and version.
+	 */
+	private ByteBuffer start(byte type, long version, int payload) {
+		int length = align(HEADER + payload);
+		Writer w = writer.get();
+		ByteBuffer buf = w.buf;
+		if (buf.capacity() < length) {
+			buf = ByteBuffer.allocate(Math.max(length, buf.capacity() * 2));
+			w.buf = buf;
+		}
+		buf.clear();
+		buf.putInt(length);
+		buf.putInt(0);
+		buf.put(type);
+		buf.putLong(version);
+		return buf;
+	}
+
+	/**
+	 * Pads the record in the buffer to its length, fills in the
+	 * checksum and copies all of it but the length into the journal.
+	 * Returns the record's offset, or -1 if it could not be written.
+	 */
+	private long prepare(ByteBuffer buf) {
+		int length = buf.getInt(0);
+		while (buf.position() < length) {
+			buf.put((byte) 0);
+		}
+		buf.putInt(4, checksum(buf.array(), 8, length - 8));
+		if (length > segmentSize) {
+			fail(new IOException("Journal record of " + length + " bytes does not fit in a segment"));
+			return -1;
+		}
+		Writer w = writer.get();
+		// Hold back the stable position before the space is reserved,
+		// so a snapshot never reads past a record it cannot see yet.
+		w.pending = tail.get();
+		try {
+			long position = reserve(length);
+			w.pending = position;
+			w.segment = segment(position / segmentSize);
+			w.offset = (int) (position % segmentSize);
+			write(w.segment, w.offset, buf.array(), length);
+			return position;
+		} catch (IOException e) {
+			fail(e);
+			return -1;
+		}
+	}
+
+	/**
+	 * Reserves space for a record and returns its offset.  A record
+	 * never spans two segments: if it does not fit in the rest of the
+	 * current segment, the rest is filled with padding.
+	 */
+	private long reserve(int length) throws IOException {
+		for (;;) {
+			long position = tail.get();
+			long segmentEnd = (position / segmentSize + 1) * segmentSize;
+			if (position + length <= segmentEnd) {
+				if (tail.compareAndSet(position, position + length)) {
+					return position;
+				}
+			} else if (tail.compareAndSet(position, segmentEnd)) {
+				pad(position, segmentEnd);
+			}
+		}
+	}
+
+	/**
+	 * Fills the space between two offsets in one segment with a
+	 * padding record.
+	 */
+	private void pad(long position, long end) throws IOException {
+		int gap = (int) (end - position);
+		if (gap >= MIN_RECORD) {
+			byte[] padding = new byte[gap];
+			ByteBuffer buf = ByteBuffer.wrap(padding);
+			buf.putInt(gap);
+			buf.putInt(0);
+			buf.put(PADDING);
+			buf.putInt(4, checksum(padding, 8, gap - 8));
+			MappedByteBuffer segment = segment(position / segmentSize);
+			int offset = (int) (position % segmentSize);
+			write(segment, offset, padding, gap);
+			segment.putInt(offset, gap);
+		}
+	}
+
+	/**
+	 * Copies all of a record but its length into a segment.
+	 */
+	private static void write(MappedByteBuffer segment, int offset, byte[] record, int length) {
+		ByteBuffer target = segment.duplicate();
+		target.position(offset + 4);
+		target.put(record, 4, length - 4);
+	}
+
+	/**
+	 * Returns the mapped segment with the given number, creating and
+	 * mapping its file first if needed.  Mapping only happens once per
+	 * segment.
+	 */
+	private MappedByteBuffer segment(long index) throws IOException {
+		MappedByteBuffer[] mapped = segments;
+		if (index < mapped.length && mapped[(int) index] != null) {
+			return mapped[(int) index];
+		}
+		synchronized (this) {
+			mapped = segments;
+			if (index >= mapped.length) {
+				mapped = Arrays.copyOf(mapped, (int) index + 1);
+			}
+			if (mapped[(int) index] == null) {
+				FileChannel channel = FileChannel.open(segmentFile(index).toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+				try {
+					mapped[(int) index] = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+				} finally {
+					channel.close();
+				}
+				segments = mapped;
+			}
+			return mapped[(int) index];
+		}
+	}
+
+	private File segmentFile(long index) {
+		return new File(file.getPath() + "." + index);
+	}
+
+	/**
+	 * Returns the segment number of a file in the journal's directory,
+	 * or -1 if the file is not one of its segments.
+	 */
+	private long segmentIndex(String name) {
+		String prefix = file.getName() + ".";
+		if (!name.startsWith(prefix) || name.length() == prefix.length() || name.length() > prefix.length() + 18) {
+			return -1;
+		}
+		long index = 0;
+		for (int i = prefix.length(); i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			index = index * 10 + (c - '0');
+		}
+		return index;
+	}
+
+	/**
+	 * Reads the journal from the given offset, handing every valid
+	 * record to the replay if there is one, and returns the offset
+	 * just after the last valid record.  The scan ends at the first
+	 * missing segment.
+	 *
+	 * A position that does not hold a valid record is either the end
+	 * of the journal or a record that was still being written when
+	 * the process stopped.  The scan moves on 8 bytes at a time
+	 * looking for a later valid record, so one torn record does not
+	 * hide the ones written after it.
+	 */
+	private long scan(Replay replay, long from) throws IOException {
+		long end = from;
+		for (long index = from / segmentSize; segmentFile(index).exists(); index++) {
+			long base = index * segmentSize;
+			ByteBuffer segment;
+			FileChannel channel = FileChannel.open(segmentFile(index).toPath(), StandardOpenOption.READ);
+			try {
+				segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(segmentSize, channel.size()));
+			} finally {
+				channel.close();
+			}
+			int length = segment.limit();
+			int offset = (int) Math.max(0, from - base);
+			while (offset + MIN_RECORD <= length) {
+				int recordLength = segment.getInt(offset);
+				if (recordLength >= MIN_RECORD && recordLength % 8 == 0 && offset + recordLength <= length
+						&& segment.getInt(offset + 4) == checksum(segment, offset + 8, recordLength - 8)) {
+					if (replay != null) {
+						replay.apply(segment, offset);
+					}
+					offset += recordLength;
+					end = base + offset;
+				} else {
+					offset += 8;
+				}
+			}
+		}
+		return end;
+	}
+
+	private void fail(IOException e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			throw new IOException("Journal " + file + " failed", e);
+		}
+	}
+
+	private static int checksum(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+
+	private static int checksum(ByteBuffer buf, int offset, int length) {
+		ByteBuffer slice = buf.duplicate();
+		slice.limit(offset + length);
+		slice.position(offset);
+		CRC32 crc = new CRC32();
+		crc.update(slice);
+		return (int) crc.getValue();
+	}
+
+	private static int align(int length) {
+		return (length + 7) & ~7;
+	}
+
+	/**
+	 * Applies records to one coffee maker.
+	 */
+	private static final class Replay {
+		private final CoffeeMaker coffeeMaker;
+		private final IngredientCatalog catalog;
+		int applied;
+
+		Replay(CoffeeMaker coffeeMaker) {
+			this.coffeeMaker = coffeeMaker;
+			this.catalog = coffeeMaker.getCatalog();
+		}
+
+		void apply(ByteBuffer segment, int offset) throws IOException {
+			ByteBuffer buf = segment.duplicate();
+			buf.position(offset + 8);
+			byte type = buf.get();
+			long version = buf.getLong();
+			switch (type) {
+			case INVENTORY_ADD:
+			case INVENTORY_USE:
+			case INVENTORY_SET:
+				int[] counts = new int[buf.getShort()];
+				if (counts.length != catalog.size()) {
+					throw new IOException("Journal was written for " + counts.length
+							+ " ingredients but the coffee maker stocks " + catalog.size());
+				}
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] = buf.getInt();
+				}
+				if (coffeeMaker.getInventory().restore(version, counts)) {
+					applied++;
+				}
+				break;
+			case RECIPE_ADD:
+			case RECIPE_EDIT:
+				int recipeId = buf.getInt();
+				Recipe r = new Recipe(catalog);
+				try {
+					r.setPrice(buf.getInt());
+				} catch (RecipeException e) {
+					throw new IOException("Journal holds an invalid recipe price", e);
+				}
+				byte[] name = new byte[buf.getInt()];
+				buf.get(name);
+				r.setName(new String(name, StandardCharsets.UTF_8));
+				int[] amounts = r.amounts();
+				int recorded = buf.getShort();
+				for (int i = 0; i < recorded; i++) {
+					int amount = buf.getInt();
+					if (i < amounts.length) {
+						amounts[i] = amount;
+					}
+				}
+				if (coffeeMaker.getRecipeBook().restore(type == RECIPE_ADD ? RecipeBookListener.Change.ADD
+						: RecipeBookListener.Change.EDIT, version, recipeId, r)) {
+					applied++;
+				}
+				break;
+			case RECIPE_DELETE:
+				if (coffeeMaker.getRecipeBook().restore(RecipeBookListener.Change.DELETE, version, buf.getInt(), null)) {
+					applied++;
+				}
+				break;
+			default:
+				// padding
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with one bucket per power of
+ * two.  Bucket i counts durations below 2^i ns that are not counted by
+ * a lower bucket, so the buckets span 1 ns to about 290 years with
+ * at most a factor of two of error.
+ *
+ * Every bucket is a striped counter, so threads recording at the same
+ * time do not contend; recording costs one bit scan and one increment.
+ */
+public final class LatencyHistogram {
+
+	/** Number of buckets */
+	public static final int BUCKETS = 64;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Creates an empty histogram.
+	 */
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Records a duration.
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+		sum.add(nanos);
+	}
+
+	/**
+	 * Returns the number of durations recorded.
+	 * @return long
+	 */
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the total of all durations recorded, in nanoseconds.
+	 * @return long
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Returns the number of durations recorded in a bucket.
+	 * @param bucket
+	 * @return long
+	 */
+	public long getBucketCount(int bucket) {
+		return buckets[bucket].sum();
+	}
+
+	/**
+	 * Returns the exclusive upper bound of a bucket in nanoseconds.
+	 * The last bucket has no bound and returns Long.MAX_VALUE.
+	 * @param bucket
+	 * @return long
+	 */
+	public static long getBucketBound(int bucket) {
+		return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket holding the given
+	 * fraction of recorded durations, or 0 if nothing was recorded.
+	 * @param fraction between 0 and 1
+	 * @return long
+	 */
+	public long getPercentile(double fraction) {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen > 0 && seen >= rank) {
+				return getBucketBound(i);
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.ncsu.csc326.coffeemaker.exceptions.RecipeException;
+
+/**
+ * Load generator that runs simulated customers and restockers against
+ * a coffee maker in the same process.
+ *
+ * Customers are spread over a few threads.  Each thread keeps its
+ * customers in a heap ordered by when they next order.  A customer
+ * orders, then thinks for an exponentially distributed time before
+ * ordering again, so thousands of customers need no more threads than
+ * cores.  Latency is measured from when an order was due, not from
+ * when the thread got to it, so a thread falling behind shows up in the
+ * latency instead of hiding it.
+ *
+ * The recipes must not change during a run, and nothing else may
+ * change the inventory: the run ends by checking that the initial
+ * stock plus restocks minus the ingredients of every beverage made
+ * equals the final stock.
+ *
+ * Usage: LoadGenerator [customers] [threads] [seconds]
+ */
+public class LoadGenerator {
+
+	private final CoffeeMaker coffeeMaker;
+	private int customers = 1000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long thinkNanos = TimeUnit.MILLISECONDS.toNanos(10);
+	/** Relative frequency of each recipe id, or null for all recipes equally */
+	private double[] mix;
+	private int minOver = 0;
+	private int maxOver = 25;
+	private int restockers = 1;
+	private long restockNanos = TimeUnit.MILLISECONDS.toNanos(100);
+	private int[] restockUnits;
+	private long seed = 42;
+
+	/**
+	 * Creates a load generator for the coffee maker.  By default
+	 * 1000 customers on one thread per core think for 10 ms on average,
+	 * pay up to 25 over the price, and one restocker adds 10 units of
+	 * every ingredient every 100 ms.
+	 * @param coffeeMaker
+	 */
+	public LoadGenerator(CoffeeMaker coffeeMaker) {
+		this.coffeeMaker = coffeeMaker;
+		this.restockUnits = new int[coffeeMaker.getCatalog().size()];
+		Arrays.fill(restockUnits, 10);
+	}
+
+	/**
+	 * Sets the number of customers and the threads they run on.
+	 * @param customers
+	 * @param threads
+	 */
+	public void setCustomers(int customers, int threads) {
+		if (customers < threads || threads < 1) {
+			throw new IllegalArgumentException("Need at least one customer per thread");
+		}
+		this.customers = customers;
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the average time a customer waits between orders.
+	 * @param mean
+	 * @param unit
+	 */
+	public void setThinkTime(long mean, TimeUnit unit) {
+		this.thinkNanos = unit.toNanos(mean);
+	}
+
+	/**
+	 * Sets how often each recipe is ordered, relative to the others.
+	 * @param weights one weight per recipe id
+	 */
+	public void setRecipeMix(double[] weights) {
+		this.mix = weights.clone();
+	}
+
+	/**
+	 * Sets how much customers pay: the price plus an amount drawn
+	 * evenly from minOver to maxOver.  A negative minOver makes some
+	 * customers pay too little.
+	 * @param minOver
+	 * @param maxOver
+	 */
+	public void setPayment(int minOver, int maxOver) {
+		if (maxOver < minOver) {
+			throw new IllegalArgumentException("maxOver is below minOver");
+		}
+		this.minOver = minOver;
+		this.maxOver = maxOver;
+	}
+
+	/**
+	 * Sets the number of restockers, how often each restocks and
+	 * how much of every ingredient it adds, in catalog order.
+	 * @param restockers
+	 * @param interval
+	 * @param unit
+	 * @param units
+	 */
+	public void setRestockers(int restockers, long interval, TimeUnit unit, int[] units) {
+		this.restockers = restockers;
+		this.restockNanos = unit.toNanos(interval);
+		this.restockUnits = units.clone();
+	}
+
+	/**
+	 * Sets the seed of the random recipe, payment and think time
+	 * choices.
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Runs the customers and restockers for the given time and waits
+	 * for them to stop.
+	 * @param duration
+	 * @param unit
+	 * @return Report
+	 * @throws InterruptedException
+	 */
+	public Report run(long duration, TimeUnit unit) throws InterruptedException {
+		Recipe[] recipes = coffeeMaker.getRecipeSnapshot().getRecipes();
+		double[] cumulative = cumulativeMix(recipes);
+		final Report report = new Report(coffeeMaker.getCatalog(), coffeeMaker.getInventory().getAmounts());
+		long start = System.nanoTime();
+		long stop = start + unit.toNanos(duration);
+
+		Thread[] running = new Thread[threads + restockers];
+		for (int t = 0; t < threads; t++) {
+			int share = customers / threads + (t < customers % threads ? 1 : 0);
+			final Customers c = new Customers(share, recipes, cumulative, new Random(seed + t), start, stop, report);
+			running[t] = new Thread(new Runnable() {
+				public void run() {
+					c.run();
+				}
+			}, "load-customers-" + t);
+		}
+		for (int r = 0; r < restockers; r++) {
+			final long first = start + restockNanos * (r + 1) / restockers;
+			final long end = stop;
+			running[threads + r] = new Thread(new Runnable() {
+				public void run() {
+					restock(first, end, report);
+				}
+			}, "load-restocker-" + r);
+		}
+		for (Thread t : running) {
+			t.start();
+		}
+		for (Thread t : running) {
+			t.join();
+		}
+		report.finish(System.nanoTime() - start, coffeeMaker.getInventory().getAmounts());
+		return report;
+	}
+
+	/**
+	 * Returns the running total of the recipe mix, by recipe id.
+	 */
+	private double[] cumulativeMix(Recipe[] recipes) {
+		double[] weights = mix;
+		if (weights == null) {
+			weights = new double[recipes.length];
+			for (int i = 0; i < recipes.length; i++) {
+				weights[i] = recipes[i] == null ? 0 : 1;
+			}
+		}
+		double[] cumulative = new double[weights.length];
+		double total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			total += weights[i];
+			cumulative[i] = total;
+		}
+		if (total <= 0) {
+			throw new IllegalStateException("No recipes to order");
+		}
+		return cumulative;
+	}
+
+	/**
+	 * Body of a restocker thread.
+	 */
+	private void restock(long next, long stop, Report report) {
+		long[] restocked = new long[restockUnits.length];
+		long restocks = 0;
+		for (; next < stop; next += restockNanos) {
+			sleepUntil(next);
+			if (coffeeMaker.tryAddInventory(restockUnits) == InputCheck.NONE) {
+				for (int i = 0; i < restocked.length; i++) {
+					restocked[i] += restockUnits[i];
+				}
+				restocks++;
+			}
+		}
+		report.addRestocks(restocks, restocked);
+	}
+
+	private static void sleepUntil(long due) {
+		long now;
+		while ((now = System.nanoTime()) < due) {
+			LockSupport.parkNanos(due - now);
+		}
+	}
+
+	/**
+	 * The customers run by one thread.
+	 */
+	private final class Customers {
+		private final Recipe[] recipes;
+		private final double[] cumulative;
+		private final Random random;
+		private final long stop;
+		private final Report report;
+		/** When each customer orders next, earliest first */
+		private final long[] due;
+		private final long[] statuses = new long[OrderStatus.values().length];
+		private final long[] consumed;
+
+		Customers(int count, Recipe[] recipes, double[] cumulative, Random random, long start, long stop, Report report) {
+			this.recipes = recipes;
+			this.cumulative = cumulative;
+			this.random = random;
+			this.stop = stop;
+			this.report = report;
+			this.consumed = new long[report.initial.length];
+			this.due = new long[count];
+			for (int i = 0; i < count; i++) {
+				due[i] = start + think();
+			}
+			Arrays.sort(due);
+		}
+
+		void run() {
+			while (due[0] < stop) {
+				long when = due[0];
+				sleepUntil(when);
+				int id = pick();
+				Recipe r = id < recipes.length ? recipes[id] : null;
+				int price = r == null ? 0 : r.getPrice();
+				int paid = Math.max(0, price + minOver + random.nextInt(maxOver - minOver + 1));
+				OrderResult result = coffeeMaker.order(id, paid);
+				report.latency.record(System.nanoTime() - when);
+				statuses[result.getStatus().ordinal()]++;
+				if (result.isSuccess()) {
+					for (int i = 0; i < consumed.length; i++) {
+						consumed[i] += r.getAmount(i);
+					}
+				}
+				due[0] = when + think();
+				siftDown();
+			}
+			report.addOrders(statuses, consumed);
+		}
+
+		private int pick() {
+			double x = random.nextDouble() * cumulative[cumulative.length - 1];
+			int i = 0;
+			while (i < cumulative.length - 1 && x >= cumulative[i]) {
+				i++;
+			}
+			return i;
+		}
+
+		private long think() {
+			return (long) (-thinkNanos * Math.log(1 - random.nextDouble()));
+		}
+
+		/**
+		 * Moves the first customer down the heap to its place.
+		 */
+		private void siftDown() {
+			long value = due[0];
+			int i = 0;
+			int child;
+			while ((child = 2 * i + 1) < due.length) {
+				if (child + 1 < due.length && due[child + 1] < due[child]) {
+					child++;
+				}
+				if (value <= due[child]) {
+					break;
+				}
+				due[i] = due[child];
+				i = child;
+			}
+			due[i] = value;
+		}
+	}
+
+	/**
+	 * Results of a load run.
+	 */
+	public static final class Report {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final long[] statuses = new long[OrderStatus.values().length];
+		private final IngredientCatalog catalog;
+		private final int[] initial;
+		private final long[] restocked;
+		private final long[] consumed;
+		private int[] remaining;
+		private long restocks;
+		private long elapsed;
+
+		Report(IngredientCatalog catalog, int[] initial) {
+			this.catalog = catalog;
+			this.initial = initial;
+			this.restocked = new long[initial.length];
+			this.consumed = new long[initial.length];
+		}
+
+		synchronized void addOrders(long[] counts, long[] used) {
+			for (int i = 0; i < counts.length; i++) {
+				statuses[i] += counts[i];
+			}
+			for (int i = 0; i < used.length; i++) {
+				consumed[i] += used[i];
+			}
+		}
+
+		synchronized void addRestocks(long count, long[] added) {
+			restocks += count;
+			for (int i = 0; i < added.length; i++) {
+				restocked[i] += added[i];
+			}
+		}
+
+		synchronized void finish(long elapsedNanos, int[] counts) {
+			this.elapsed = elapsedNanos;
+			this.remaining = counts;
+		}
+
+		/**
+		 * Returns the number of orders placed.
+		 * @return long
+		 */
+		public synchronized long getOrders() {
+			long orders = 0;
+			for (long count : statuses) {
+				orders += count;
+			}
+			return orders;
+		}
+
+		/**
+		 * Returns the number of orders with the given outcome.
+		 * @param status
+		 * @return long
+		 */
+		public synchronized long getOrders(OrderStatus status) {
+			return statuses[status.ordinal()];
+		}
+
+		/**
+		 * Returns the number of successful restocks.
+		 * @return long
+		 */
+		public synchronized long getRestocks() {
+			return restocks;
+		}
+
+		/**
+		 * Returns the orders placed per second.
+		 * @return double
+		 */
+		public synchronized double getThroughput() {
+			return elapsed == 0 ? 0 : getOrders() * 1e9 / elapsed;
+		}
+
+		/**
+		 * Returns the fraction of orders that failed because the
+		 * machine was out of an ingredient.
+		 * @return double
+		 */
+		public synchronized double getStockoutRate() {
+			long orders = getOrders();
+			return orders == 0 ? 0 : (double) getOrders(OrderStatus.OUT_OF_STOCK) / orders;
+		}
+
+		/**
+		 * Returns the latency of every order, from when it was due
+		 * until it was answered.
+		 * @return LatencyHistogram
+		 */
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		/**
+		 * Returns true if, for every ingredient, the initial stock plus
+		 * the restocks minus the units used equals the final stock and
+		 * no count is negative.
+		 * @return boolean
+		 */
+		public synchronized boolean isConserved() {
+			for (int i = 0; i < initial.length; i++) {
+				if (remaining[i] < 0 || initial[i] + restocked[i] - consumed[i] != remaining[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public synchronized String toString() {
+			StringBuilder buf = new StringBuilder();
+			buf.append(String.format("%d orders in %.1f s: %.0f orders/s, %d restocks%n",
+					getOrders(), elapsed / 1e9, getThroughput(), restocks));
+			for (OrderStatus status : OrderStatus.values()) {
+				buf.append(String.format("  %s: %d%n", status, statuses[status.ordinal()]));
+			}
+			buf.append(String.format("stockout rate %.2f%%%n", 100 * getStockoutRate()));
+			buf.append(String.format("latency p50 < %d ns, p99 < %d ns, p99.9 < %d ns%n",
+					latency.getPercentile(0.5), latency.getPercentile(0.99), latency.getPercentile(0.999)));
+			for (int i = 0; i < initial.length; i++) {
+				buf.append(String.format("  %s: %d + %d - %d = %d%n",
+						catalog.getName(i), initial[i], restocked[i], consumed[i], remaining[i]));
+			}
+			buf.append(isConserved() ? "inventory conserved" : "INVENTORY NOT CONSERVED");
+			return buf.toString();
+		}
+	}
+
+	/**
+	 * Runs a load test against a fresh coffee maker with three recipes.
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int customers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		CoffeeMaker coffeeMaker = new CoffeeMaker();
+		coffeeMaker.addRecipe(recipe("Coffee", 50, 3, 1, 1, 0));
+		coffeeMaker.addRecipe(recipe("Latte", 100, 3, 3, 1, 0));
+		coffeeMaker.addRecipe(recipe("Mocha", 75, 3, 1, 1, 2));
+		coffeeMaker.addInventory(new int[] {1000, 1000, 1000, 1000});
+
+		LoadGenerator load = new LoadGenerator(coffeeMaker);
+		load.setCustomers(customers, threads);
+		load.setThinkTime(1, TimeUnit.SECONDS);
+		load.setRecipeMix(new double[] {0.5, 0.3, 0.2});
+		load.setPayment(-5, 50);
+		load.setRestockers(2, 10, TimeUnit.MILLISECONDS, new int[] {40, 25, 15, 5});
+		Report report = load.run(seconds, TimeUnit.SECONDS);
+		System.out.println(report);
+		if (!report.isConserved()) {
+			System.exit(1);
+		}
+	}
+
+	private static Recipe recipe(String name, int price, int coffee, int milk, int sugar, int chocolate)
+			throws RecipeException {
+		Recipe r = new Recipe();
+		r.setName(name);
+		r.setPrice(price);
+		r.setAmtCoffee(coffee);
+		r.setAmtMilk(milk);
+		r.setAmtSugar(sugar);
+		r.setAmtChocolate(chocolate);
+		return r;
+	}
+}
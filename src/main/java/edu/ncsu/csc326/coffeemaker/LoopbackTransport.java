@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * {@link RecipeLogTransport} between a primary and replicas in the
+ * same JVM.
+ *
+ * Shipping only queues the entry; a daemon thread hands each entry to
+ * every replica in turn, so the primary's writers never wait for the
+ * replicas.  Fetches call the primary directly.
+ */
+public class LoopbackTransport implements RecipeLogTransport {
+
+	private final LinkedBlockingQueue<RecipeLogEntry> queue = new LinkedBlockingQueue<RecipeLogEntry>();
+	private final CopyOnWriteArrayList<RecipeReplica> replicas = new CopyOnWriteArrayList<RecipeReplica>();
+	private final Thread thread;
+	private volatile RecipePrimary primary;
+
+	/**
+	 * Creates the transport and starts its delivery thread.
+	 */
+	public LoopbackTransport() {
+		thread = new Thread(new Runnable() {
+			public void run() {
+				deliver();
+			}
+		}, "recipe-replication");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void connect(RecipePrimary primary) {
+		if (this.primary != null) {
+			throw new IllegalStateException("A primary is already connected");
+		}
+		this.primary = primary;
+	}
+
+	/**
+	 * Attaches the replica and catches it up with the primary.
+	 */
+	public void attach(RecipeReplica replica) {
+		replicas.add(replica);
+		replica.catchUp();
+	}
+
+	public void ship(RecipeLogEntry entry) {
+		queue.add(entry);
+	}
+
+	public RecipeLogEntry[] fetch(long version) {
+		return primary().entriesAfter(version);
+	}
+
+	public RecipeSnapshot fetchSnapshot() {
+		return primary().getSnapshot();
+	}
+
+	/**
+	 * Stops delivering.  Entries still queued are not delivered.
+	 */
+	public void close() {
+		thread.interrupt();
+	}
+
+	private RecipePrimary primary() {
+		RecipePrimary p = primary;
+		if (p == null) {
+			throw new IllegalStateException("No primary is connected");
+		}
+		return p;
+	}
+
+	private void deliver() {
+		try {
+			while (true) {
+				RecipeLogEntry entry = queue.take();
+				for (RecipeReplica replica : replicas) {
+					replica.receive(entry);
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of independent coffee makers hosted in one JVM.
+ *
+ * Every machine owns its own {@link RecipeBook} and {@link Inventory};
+ * orders on one machine never touch the state of another.
+ */
+public class MachineFleet {
+	/** Machines in the fleet keyed by machine id */
+	private final ConcurrentHashMap<String, CoffeeMaker> machines = new ConcurrentHashMap<String, CoffeeMaker>();
+
+	/**
+	 * Returns the machine with the given id, creating a new
+	 * machine with the default inventory if there is none yet.
+	 * @param machineId
+	 * @return CoffeeMaker
+	 */
+	public CoffeeMaker getOrCreateMachine(String machineId) {
+		CoffeeMaker machine = machines.get(machineId);
+		if (machine == null) {
+			CoffeeMaker created = new CoffeeMaker();
+			machine = machines.putIfAbsent(machineId, created);
+			if (machine == null) {
+				machine = created;
+			}
+		}
+		return machine;
+	}
+
+	/**
+	 * Returns true if the machine is added to the fleet and
+	 * false if a machine with that id already exists.
+	 * @param machineId
+	 * @param machine
+	 * @return boolean
+	 */
+	public boolean addMachine(String machineId, CoffeeMaker machine) {
+		return machines.putIfAbsent(machineId, machine) == null;
+	}
+
+	/**
+	 * Returns the machine with the given id or null if
+	 * there is no such machine.
+	 * @param machineId
+	 * @return CoffeeMaker
+	 */
+	public CoffeeMaker getMachine(String machineId) {
+		return machines.get(machineId);
+	}
+
+	/**
+	 * Returns the removed machine or null if there was
+	 * no machine with the given id.
+	 * @param machineId
+	 * @return CoffeeMaker
+	 */
+	public CoffeeMaker removeMachine(String machineId) {
+		return machines.remove(machineId);
+	}
+
+	/**
+	 * Returns the ids of all machines in the fleet.
+	 * @return Set
+	 */
+	public Set<String> getMachineIds() {
+		return Collections.unmodifiableSet(machines.keySet());
+	}
+
+	/**
+	 * Returns the number of machines in the fleet.
+	 * @return int
+	 */
+	public int size() {
+		return machines.size();
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Places orders on a coffee maker from a single thread.
+ *
+ * Submitting threads claim a sequence number, write the order into a
+ * preallocated ring slot and publish the slot by storing its sequence.
+ * One dispatcher thread drains every published slot in sequence order
+ * before it waits again, freeing each slot with an ordered store as soon
+ * as it has copied the order out.  Orders are made one at a time in
+ * the order they were claimed, so orders placed through the same
+ * dispatcher never contend with each other and the cost of queueing
+ * one does not grow with the number of threads placing them.
+ *
+ * The dispatcher is only an order queue.  Restocking, recipe changes
+ * and orders placed on the coffee maker directly still update the
+ * inventory from other threads and race with the dispatcher as they
+ * would with any other caller.
+ *
+ * Futures are completed on the dispatcher thread; dependent actions
+ * that block or take long should be run with an executor.  An order
+ * that fails, even with an error, fails its own future and the
+ * dispatcher moves on to the next one.
+ */
+public final class OrderDispatcher {
+
+	/** Value of claimed once the dispatcher has stopped */
+	private static final long TERMINATED = -1;
+
+	private final CoffeeMaker coffeeMaker;
+	private final WaitStrategy waitStrategy;
+	private final int mask;
+	private final int[] recipeIds;
+	private final int[] amtPaid;
+	private final CompletableFuture<?>[] futures;
+	/** Sequence number stored in each slot once its order is written */
+	private final AtomicLongArray published;
+	/** Next sequence number to claim, or TERMINATED */
+	private final AtomicLong claimed = new AtomicLong();
+	/** Number of orders the dispatcher has finished with */
+	private final AtomicLong consumed = new AtomicLong();
+	private final Thread thread;
+	/** Set while the dispatcher thread is parked */
+	private volatile boolean waiting;
+	private volatile boolean closed;
+
+	/**
+	 * Starts a dispatcher thread for the coffee maker.
+	 * @param coffeeMaker
+	 * @param capacity number of slots in the ring; rounded up to a
+	 * 		power of two
+	 * @param waitStrategy
+	 */
+	OrderDispatcher(CoffeeMaker coffeeMaker, int capacity, WaitStrategy waitStrategy) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.coffeeMaker = coffeeMaker;
+		this.waitStrategy = waitStrategy;
+		this.mask = size - 1;
+		this.recipeIds = new int[size];
+		this.amtPaid = new int[size];
+		this.futures = new CompletableFuture<?>[size];
+		this.published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			published.set(i, -1);
+		}
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				dispatch();
+			}
+		}, "order-dispatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues an order.  If the ring is full, waits for room using
+	 * the wait strategy.
+	 * @param recipeToPurchase
+	 * @param paid
+	 * @return the result of the order once it has been made; fails
+	 * 		with a RejectedExecutionException if the dispatcher is closed
+	 */
+	public CompletableFuture<OrderResult> submit(int recipeToPurchase, int paid) {
+		CompletableFuture<OrderResult> future = new CompletableFuture<OrderResult>();
+		long seq;
+		do {
+			seq = claimed.get();
+			if (seq == TERMINATED || closed) {
+				future.completeExceptionally(new RejectedExecutionException("Order dispatcher is closed"));
+				return future;
+			}
+		} while (!claimed.compareAndSet(seq, seq + 1));
+		while (seq - consumed.get() > mask) {
+			pause(waitStrategy);
+		}
+		int slot = (int) seq & mask;
+		recipeIds[slot] = recipeToPurchase;
+		amtPaid[slot] = paid;
+		futures[slot] = future;
+		published.set(slot, seq);
+		if (waiting) {
+			LockSupport.unpark(thread);
+		}
+		return future;
+	}
+
+	/**
+	 * Returns the number of orders submitted but not yet made.
+	 * @return long
+	 */
+	public long getQueueDepth() {
+		long end = claimed.get();
+		return end == TERMINATED ? 0 : Math.max(0, end - consumed.get());
+	}
+
+	/**
+	 * Returns the number of slots in the ring.
+	 * @return int
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Returns how the dispatcher waits for orders.
+	 * @return WaitStrategy
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Returns true once close has been called.
+	 * @return boolean
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Stops taking orders, makes every order already queued and
+	 * waits for the dispatcher thread to finish.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Body of the dispatcher thread.
+	 */
+	@SuppressWarnings("unchecked")
+	private void dispatch() {
+		long next = 0;
+		for (;;) {
+			long end = next;
+			int slot = (int) end & mask;
+			while (published.get(slot) == end) {
+				CompletableFuture<OrderResult> future = (CompletableFuture<OrderResult>) futures[slot];
+				int recipeToPurchase = recipeIds[slot];
+				int paid = amtPaid[slot];
+				futures[slot] = null;
+				consumed.lazySet(++end);
+				try {
+					future.complete(coffeeMaker.order(recipeToPurchase, paid));
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+				slot = (int) end & mask;
+			}
+			if (end != next) {
+				next = end;
+			} else if (closed) {
+				// Stop only once every claimed order has been made; a
+				// submitter that claimed after this check gets the slot.
+				if (claimed.compareAndSet(next, TERMINATED)) {
+					return;
+				}
+			} else if (waitStrategy == WaitStrategy.PARK) {
+				waiting = true;
+				if (published.get(slot) != next && !closed) {
+					LockSupport.park(this);
+				}
+				waiting = false;
+			} else {
+				pause(waitStrategy);
+			}
+		}
+	}
+
+	/**
+	 * Waits briefly before checking again.
+	 */
+	private static void pause(WaitStrategy waitStrategy) {
+		switch (waitStrategy) {
+		case YIELD:
+			Thread.yield();
+			break;
+		case PARK:
+			LockSupport.parkNanos(1000);
+			break;
+		default:
+			break;
+		}
+	}
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Append-only history of orders: when, on which machine, which recipe,
+ * what was paid, the change given and the outcome.
+ *
+ * Rows are appended in arrival order to an open segment of plain
+ * arrays.  When it fills up, a spare segment takes its place and the
+ * full one is queued for a background thread, which compresses it
+ * column by column into an {@link OrderSegment}.  So appending an
+ * order never waits for a segment to be compressed, and the cost of
+ * compressing is paid once per batch of rows, not per order.
+ * {@link #flush()} compresses everything appended so far right away.
+ * A sealed segment records its oldest and newest timestamps, and a
+ * time-range scan only decodes the segments that overlap the range.
+ *
+ * A history given a directory saves every sealed segment there as a
+ * file of its own, together with the machine ids, and loads them again
+ * when it is created, so sealed orders survive a restart.  Orders not
+ * yet sealed are lost if the process stops before a flush.
+ *
+ * A busy machine selling an order every ten seconds around the clock
+ * appends about three million rows a year; at three to four bytes a
+ * row that is around ten megabytes.
+ */
+public final class OrderHistory {
+
+	/**
+	 * Receives the orders found by a scan.
+	 */
+	public interface Visitor {
+		/**
+		 * Called once per order, oldest segment first.
+		 * @param time milliseconds since the epoch
+		 * @param machine id the machine was recorded under
+		 * @param recipeId id of the recipe ordered, or -1 if it was
+		 * 		ordered by a name that did not exist
+		 * @param paid amount paid
+		 * @param change change given back
+		 * @param status outcome of the order
+		 */
+		void order(long time, String machine, int recipeId, int paid, int change, OrderStatus status);
+	}
+
+	private static final int MACHINE = 0;
+	private static final int RECIPE = 1;
+	private static final int PAID = 2;
+	private static final int CHANGE = 3;
+	private static final int STATUS = 4;
+	private static final int COLUMNS = 5;
+	private static final OrderStatus[] STATUSES = OrderStatus.values();
+	private static final String MACHINES_FILE = "machines";
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	/** Thread that seals the full segments of every history by default */
+	private static final ExecutorService SEALER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "order-history-sealer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Rows of a segment that is not sealed yet.
+	 */
+	private static final class Rows {
+		final long[] times;
+		final int[][] columns;
+		int size;
+
+		Rows(int capacity) {
+			times = new long[capacity];
+			columns = new int[COLUMNS][capacity];
+		}
+
+		Rows copy() {
+			Rows copy = new Rows(size);
+			System.arraycopy(times, 0, copy.times, 0, size);
+			for (int i = 0; i < COLUMNS; i++) {
+				System.arraycopy(columns[i], 0, copy.columns[i], 0, size);
+			}
+			copy.size = size;
+			return copy;
+		}
+	}
+
+	private final int segmentSize;
+	private final LongSupplier clock;
+	/** Directory segments are saved to, or null to keep them in memory only */
+	private final File directory;
+	private final Executor sealer;
+	private volatile OrderSegment[] segments = new OrderSegment[0];
+	/** Machine ids by code */
+	private volatile String[] machines = new String[0];
+	private final HashMap<String, Integer> machineCodes = new HashMap<String, Integer>();
+	/** The open segment, guarded by this */
+	private Rows open;
+	/** An emptied segment ready to replace the open one, or null; guarded by this */
+	private Rows spare;
+	/** Full segments waiting to be sealed, oldest first; guarded by this */
+	private final ArrayDeque<Rows> full = new ArrayDeque<Rows>();
+	/** Set while a sealing task is queued or running; guarded by this */
+	private boolean sealing;
+	/** Held while sealing, so segments are sealed one at a time and in order */
+	private final Object sealLock = new Object();
+	/** Number of machine ids saved to the directory; guarded by sealLock */
+	private int machinesSaved;
+	private long rows;
+	private long compressedBytes;
+	private final LongAdder segmentsRead = new LongAdder();
+	private final Runnable seal = new Runnable() {
+		public void run() {
+			try {
+				sealFull();
+			} catch (IOException e) {
+				System.err.println("Could not save the order history: " + e.getMessage());
+			}
+		}
+	};
+
+	/**
+	 * Creates a history that seals a segment every 4096 orders.
+	 */
+	public OrderHistory() {
+		this(4096);
+	}
+
+	/**
+	 * Creates a history that seals a segment every segmentSize orders.
+	 * @param segmentSize
+	 */
+	public OrderHistory(int segmentSize) {
+		this(segmentSize, CoarseClock.MILLIS);
+	}
+
+	/**
+	 * Creates a history that seals a segment every segmentSize orders
+	 * and saves the sealed segments to the directory, loading the ones
+	 * already there.
+	 * @param segmentSize
+	 * @param directory
+	 * @throws IOException if the saved segments could not be read
+	 */
+	public OrderHistory(int segmentSize, File directory) throws IOException {
+		this(segmentSize, CoarseClock.MILLIS, directory, SEALER);
+	}
+
+	OrderHistory(int segmentSize, LongSupplier clock) {
+		this(segmentSize, clock, SEALER);
+	}
+
+	OrderHistory(int segmentSize, LongSupplier clock, Executor sealer) {
+		if (segmentSize < 1) {
+			throw new IllegalArgumentException("Segment size must be positive");
+		}
+		this.segmentSize = segmentSize;
+		this.clock = clock;
+		this.directory = null;
+		this.sealer = sealer;
+		this.open = new Rows(segmentSize);
+	}
+
+	OrderHistory(int segmentSize, LongSupplier clock, File directory, Executor sealer) throws IOException {
+		if (segmentSize < 1) {
+			throw new IllegalArgumentException("Segment size must be positive");
+		}
+		this.segmentSize = segmentSize;
+		this.clock = clock;
+		this.directory = directory;
+		this.sealer = sealer;
+		this.open = new Rows(segmentSize);
+		load();
+	}
+
+	/**
+	 * Appends an order, timestamped now.
+	 * @param machine
+	 * @param recipeId
+	 * @param paid
+	 * @param change
+	 * @param status
+	 */
+	public synchronized void append(String machine, int recipeId, int paid, int change, OrderStatus status) {
+		append(machineCode(machine), recipeId, paid, change, status);
+	}
+
+	/**
+	 * Appends an order for a machine code from {@link #machineCode(String)}.
+	 */
+	synchronized void append(int machine, int recipeId, int paid, int change, OrderStatus status) {
+		Rows r = open;
+		int row = r.size;
+		r.times[row] = clock.getAsLong();
+		r.columns[MACHINE][row] = machine;
+		r.columns[RECIPE][row] = recipeId;
+		r.columns[PAID][row] = paid;
+		r.columns[CHANGE][row] = change;
+		r.columns[STATUS][row] = status.ordinal();
+		r.size = row + 1;
+		rows++;
+		if (r.size == segmentSize) {
+			close();
+			if (!sealing) {
+				sealing = true;
+				sealer.execute(seal);
+			}
+		}
+	}
+
+	/**
+	 * Returns the code the machine id is stored as, adding it to the
+	 * dictionary if it is new.
+	 */
+	synchronized int machineCode(String machine) {
+		Integer code = machineCodes.get(machine);
+		if (code == null) {
+			code = machines.length;
+			machineCodes.put(machine, code);
+			String[] next = Arrays.copyOf(machines, code + 1);
+			next[code] = machine;
+			machines = next;
+		}
+		return code;
+	}
+
+	/**
+	 * Seals the open segment, if it holds any orders, and every full
+	 * one still waiting, so that every order appended so far is in a
+	 * sealed segment and, with a directory, saved.
+	 * @throws IOException if a segment could not be saved
+	 */
+	public void flush() throws IOException {
+		synchronized (this) {
+			if (open.size > 0) {
+				close();
+			}
+			sealing = true;
+		}
+		sealFull();
+	}
+
+	/**
+	 * Queues the open segment for sealing and opens another.  Called
+	 * with this held.
+	 */
+	private void close() {
+		full.addLast(open);
+		open = spare != null ? spare : new Rows(segmentSize);
+		spare = null;
+	}
+
+	/**
+	 * Seals the full segments one by one, oldest first, saving each to
+	 * the directory if there is one.  Compresses without holding this,
+	 * so orders keep being appended meanwhile.
+	 */
+	private void sealFull() throws IOException {
+		synchronized (sealLock) {
+			for (;;) {
+				Rows r;
+				synchronized (this) {
+					r = full.peekFirst();
+					if (r == null) {
+						sealing = false;
+						return;
+					}
+				}
+				OrderSegment segment = OrderSegment.encode(r.times, r.columns, r.size);
+				if (directory != null) {
+					try {
+						save(segment, segments.length);
+					} catch (IOException e) {
+						synchronized (this) {
+							sealing = false;
+						}
+						throw e;
+					}
+				}
+				synchronized (this) {
+					full.removeFirst();
+					OrderSegment[] next = Arrays.copyOf(segments, segments.length + 1);
+					next[segments.length] = segment;
+					segments = next;
+					compressedBytes += segment.getBytes();
+					r.size = 0;
+					spare = r;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves a sealed segment, and any machine ids added since the last
+	 * one, to the directory.  Called with sealLock held.
+	 */
+	private void save(OrderSegment segment, int index) throws IOException {
+		String[] names = machines;
+		if (names.length > machinesSaved) {
+			int size = 4;
+			for (String name : names) {
+				size += 4 + name.getBytes(StandardCharsets.UTF_8).length;
+			}
+			ByteBuffer buf = ByteBuffer.allocate(size);
+			buf.putInt(names.length);
+			for (String name : names) {
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				buf.putInt(bytes.length).put(bytes);
+			}
+			buf.flip();
+			write(new File(directory, MACHINES_FILE), buf);
+			machinesSaved = names.length;
+		}
+		write(new File(directory, SEGMENT_PREFIX + index), segment.save());
+	}
+
+	/**
+	 * Writes a file in full, forced to disk, replacing any earlier
+	 * version in one step.
+	 */
+	private static void write(File file, ByteBuffer buf) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Loads the machine ids and sealed segments saved to the directory.
+	 */
+	private void load() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		File names = new File(directory, MACHINES_FILE);
+		if (names.exists()) {
+			ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(names.toPath()));
+			try {
+				String[] loaded = new String[buf.getInt()];
+				for (int i = 0; i < loaded.length; i++) {
+					byte[] bytes = new byte[buf.getInt()];
+					buf.get(bytes);
+					loaded[i] = new String(bytes, StandardCharsets.UTF_8);
+					machineCodes.put(loaded[i], i);
+				}
+				machines = loaded;
+				machinesSaved = loaded.length;
+			} catch (RuntimeException e) {
+				throw new IOException(names + " is damaged", e);
+			}
+		}
+		OrderSegment[] loaded = new OrderSegment[0];
+		for (int index = 0;; index++) {
+			File file = new File(directory, SEGMENT_PREFIX + index);
+			if (!file.exists()) {
+				break;
+			}
+			OrderSegment segment = OrderSegment.load(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+			loaded = Arrays.copyOf(loaded, index + 1);
+			loaded[index] = segment;
+			rows += segment.size;
+			compressedBytes += segment.getBytes();
+		}
+		segments = loaded;
+	}
+
+	/**
+	 * Hands every order with from &lt;= time &lt; to to the visitor and
+	 * returns how many there were.  Segments outside the range are
+	 * skipped without being decoded.
+	 * @param from milliseconds since the epoch, inclusive
+	 * @param to milliseconds since the epoch, exclusive
+	 * @param visitor
+	 * @return long
+	 */
+	public long scan(long from, long to, Visitor visitor) {
+		long found = 0;
+		OrderSegment[] sealed;
+		Rows[] waiting;
+		Rows current;
+		synchronized (this) {
+			sealed = segments;
+			waiting = new Rows[full.size()];
+			int i = 0;
+			for (Rows r : full) {
+				waiting[i++] = r.copy();
+			}
+			current = open.copy();
+		}
+		String[] names = machines;
+		long[] st = new long[segmentSize];
+		int[][] sc = new int[COLUMNS][segmentSize];
+		for (OrderSegment segment : sealed) {
+			if (segment.maxTime < from || segment.minTime >= to) {
+				continue;
+			}
+			segmentsRead.increment();
+			segment.decode(st, sc);
+			found += visit(st, sc, segment.size, from, to, names, visitor);
+		}
+		for (Rows r : waiting) {
+			// Copied under the same lock as sealed, so a segment sealed
+			// meanwhile is not visited twice.
+			if (overlaps(r, from, to)) {
+				segmentsRead.increment();
+				found += visit(r.times, r.columns, r.size, from, to, names, visitor);
+			}
+		}
+		return found + visit(current.times, current.columns, current.size, from, to, names, visitor);
+	}
+
+	private static boolean overlaps(Rows r, long from, long to) {
+		for (int i = 0; i < r.size; i++) {
+			if (r.times[i] >= from && r.times[i] < to) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long visit(long[] t, int[][] c, int n, long from, long to, String[] names, Visitor visitor) {
+		long found = 0;
+		for (int i = 0; i < n; i++) {
+			if (t[i] >= from && t[i] < to) {
+				visitor.order(t[i], names[c[MACHINE][i]], c[RECIPE][i], c[PAID][i], c[CHANGE][i],
+						STATUSES[c[STATUS][i]]);
+				found++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the number of orders appended.
+	 * @return long
+	 */
+	public synchronized long size() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of full segments, sealed or waiting to be.
+	 * @return int
+	 */
+	public synchronized int getSegments() {
+		return segments.length + full.size();
+	}
+
+	/**
+	 * Returns the size of the sealed segments in bytes.
+	 * @return long
+	 */
+	public synchronized long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	/**
+	 * Returns the number of full segments scans have read.
+	 * @return long
+	 */
+	public long getSegmentsRead() {
+		return segmentsRead.sum();
+	}
+
+	/**
+	 * Where one coffee maker records its orders.
+	 */
+	static final class Tap {
+		final OrderHistory history;
+		final int machine;
+
+		Tap(OrderHistory history, String machine) {
+			this.history = history;
+			this.machine = history.machineCode(machine);
+		}
+
+		void record(int recipeId, int paid, int change, OrderStatus status) {
+			history.append(machine, recipeId, paid, change, status);
+		}
+	}
+}
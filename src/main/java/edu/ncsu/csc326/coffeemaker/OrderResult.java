@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * Outcome of an order and the change given back for it.
+ */
+public final class OrderResult {
+
+	private final OrderStatus status;
+	private final int change;
+
+	/**
+	 * Creates an order result.
+	 * @param status
+	 * @param change
+	 */
+	public OrderResult(OrderStatus status, int change) {
+		this.status = status;
+		this.change = change;
+	}
+
+	/**
+	 * Returns the outcome of the order.
+	 * @return OrderStatus
+	 */
+	public OrderStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the change given back: the amount paid minus the price
+	 * if the beverage was made, and the whole amount paid otherwise.
+	 * @return int
+	 */
+	public int getChange() {
+		return change;
+	}
+
+	/**
+	 * Returns true if the beverage was made.
+	 * @return boolean
+	 */
+	public boolean isSuccess() {
+		return status == OrderStatus.SUCCESS;
+	}
+
+	public String toString() {
+		return status + ", change " + change;
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A sealed, compressed block of rows in an {@link OrderHistory}.
+ *
+ * Each column is encoded on its own.  Timestamps are stored as the
+ * first value followed by zigzag varint deltas, so orders a few
+ * seconds apart cost a byte or two.  An int column with at most 256
+ * distinct values is stored as a dictionary plus codes packed into
+ * just enough bits for the dictionary; a column of one value costs no
+ * bits per row at all.  Other int columns fall back to zigzag varints.
+ *
+ * Saved to disk, a segment is its row count, oldest and newest
+ * timestamps and the length of the encoded rows, followed by the rows.
+ */
+final class OrderSegment {
+
+	private static final byte DICTIONARY = 0;
+	private static final byte VARINT = 1;
+	private static final int MAX_DICTIONARY = 256;
+
+	final long minTime;
+	final long maxTime;
+	final int size;
+	private final byte[] data;
+
+	private OrderSegment(long minTime, long maxTime, int size, byte[] data) {
+		this.minTime = minTime;
+		this.maxTime = maxTime;
+		this.size = size;
+		this.data = data;
+	}
+
+	/**
+	 * Encodes the first size rows of the columns.
+	 */
+	static OrderSegment encode(long[] times, int[][] columns, int size) {
+		Bytes out = new Bytes(size * 4);
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		long previous = 0;
+		for (int i = 0; i < size; i++) {
+			out.varLong(zigzag(times[i] - previous));
+			previous = times[i];
+			min = Math.min(min, times[i]);
+			max = Math.max(max, times[i]);
+		}
+		for (int[] column : columns) {
+			encode(out, column, size);
+		}
+		return new OrderSegment(min, max, size, out.toArray());
+	}
+
+	private static void encode(Bytes out, int[] column, int size) {
+		// Open-addressing table of the values seen so far, twice the
+		// largest dictionary, holding code + 1 (0 marks a free slot).
+		int[] values = new int[MAX_DICTIONARY * 2];
+		int[] slots = new int[MAX_DICTIONARY * 2];
+		int[] dictionary = new int[MAX_DICTIONARY];
+		int[] codes = new int[size];
+		int distinct = 0;
+		for (int i = 0; i < size; i++) {
+			int value = column[i];
+			int slot = (value * 0x9E3779B9) >>> 23;
+			while (slots[slot] != 0 && values[slot] != value) {
+				slot = (slot + 1) & (slots.length - 1);
+			}
+			if (slots[slot] == 0) {
+				if (distinct == MAX_DICTIONARY) {
+					distinct++;
+					break;
+				}
+				values[slot] = value;
+				dictionary[distinct] = value;
+				slots[slot] = ++distinct;
+			}
+			codes[i] = slots[slot] - 1;
+		}
+		if (distinct > MAX_DICTIONARY) {
+			out.put(VARINT);
+			for (int i = 0; i < size; i++) {
+				out.varLong(zigzag(column[i]));
+			}
+			return;
+		}
+		out.put(DICTIONARY);
+		out.varLong(distinct);
+		for (int i = 0; i < distinct; i++) {
+			out.varLong(zigzag(dictionary[i]));
+		}
+		int width = 32 - Integer.numberOfLeadingZeros(Math.max(distinct - 1, 0));
+		long bits = 0;
+		int filled = 0;
+		for (int i = 0; i < size; i++) {
+			bits |= (long) codes[i] << filled;
+			filled += width;
+			while (filled >= 8) {
+				out.put((byte) bits);
+				bits >>>= 8;
+				filled -= 8;
+			}
+		}
+		if (filled > 0) {
+			out.put((byte) bits);
+		}
+	}
+
+	/**
+	 * Decodes every row into the given arrays, which must hold at
+	 * least size rows.
+	 */
+	void decode(long[] times, int[][] columns) {
+		int[] at = {0};
+		long previous = 0;
+		for (int i = 0; i < size; i++) {
+			previous += unzigzag(varLong(at));
+			times[i] = previous;
+		}
+		for (int[] column : columns) {
+			decode(at, column);
+		}
+	}
+
+	private void decode(int[] at, int[] column) {
+		if (data[at[0]++] == VARINT) {
+			for (int i = 0; i < size; i++) {
+				column[i] = (int) unzigzag(varLong(at));
+			}
+			return;
+		}
+		int[] dictionary = new int[(int) varLong(at)];
+		for (int i = 0; i < dictionary.length; i++) {
+			dictionary[i] = (int) unzigzag(varLong(at));
+		}
+		int width = 32 - Integer.numberOfLeadingZeros(Math.max(dictionary.length - 1, 0));
+		int mask = (1 << width) - 1;
+		long bits = 0;
+		int filled = 0;
+		for (int i = 0; i < size; i++) {
+			while (filled < width) {
+				bits |= (data[at[0]++] & 0xFFL) << filled;
+				filled += 8;
+			}
+			column[i] = dictionary[(int) (bits & mask)];
+			bits >>>= width;
+			filled -= width;
+		}
+	}
+
+	/**
+	 * Returns the segment as it is saved to disk, ready to be written.
+	 */
+	ByteBuffer save() {
+		ByteBuffer buf = ByteBuffer.allocate(4 + 8 + 8 + 4 + data.length);
+		buf.putInt(size).putLong(minTime).putLong(maxTime).putInt(data.length).put(data);
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Reads a segment saved by {@link #save()}.
+	 */
+	static OrderSegment load(ByteBuffer buf) throws IOException {
+		if (buf.remaining() < 4 + 8 + 8 + 4) {
+			throw new IOException("Order history segment is truncated");
+		}
+		int size = buf.getInt();
+		long minTime = buf.getLong();
+		long maxTime = buf.getLong();
+		int length = buf.getInt();
+		if (size < 0 || length < 0 || length != buf.remaining()) {
+			throw new IOException("Order history segment is damaged");
+		}
+		byte[] data = new byte[length];
+		buf.get(data);
+		return new OrderSegment(minTime, maxTime, size, data);
+	}
+
+	/**
+	 * Returns the size of the encoded rows in bytes.
+	 */
+	int getBytes() {
+		return data.length;
+	}
+
+	private long varLong(int[] at) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = data[at[0]++];
+			value |= (b & 0x7FL) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Growable byte array.
+	 */
+	private static final class Bytes {
+		private byte[] bytes;
+		private int size;
+
+		Bytes(int capacity) {
+			bytes = new byte[Math.max(capacity, 16)];
+		}
+
+		void put(byte b) {
+			if (size == bytes.length) {
+				bytes = Arrays.copyOf(bytes, size * 2);
+			}
+			bytes[size++] = b;
+		}
+
+		void varLong(long value) {
+			while ((value & ~0x7FL) != 0) {
+				put((byte) (value | 0x80));
+				value >>>= 7;
+			}
+			put((byte) value);
+		}
+
+		byte[] toArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * Outcome of an order.
+ */
+public enum OrderStatus {
+	/** The beverage was made */
+	SUCCESS,
+	/** No recipe has the requested id or name */
+	UNKNOWN_RECIPE,
+	/** The amount paid is less than the price */
+	INSUFFICIENT_FUNDS,
+	/** The inventory does not hold enough ingredients */
+	OUT_OF_STOCK,
+	/** The order could be made, but another order in its all-or-nothing batch could not */
+	BATCH_FAILED
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * What an {@link EventBus} subscriber gets when it falls behind.
+ */
+public enum OverflowPolicy {
+	/** Events overwritten before they were read are skipped and counted */
+	DROP,
+	/** Only the newest event is delivered; it carries the full state */
+	CONFLATE,
+	/** Publishers wait for the subscriber instead of overwriting its events */
+	BLOCK
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An atomic reference that sits alone on its cache line.
+ *
+ * Each machine's inventory is updated with compare-and-set.  Without
+ * padding, the references of machines allocated next to each other
+ * share a cache line and every order on one machine invalidates the
+ * line for its neighbours.
+ *
+ * @param <V> type of the referenced value
+ */
+final class PaddedReference<V> extends PaddedReferenceValue {
+
+	/** Padding after the value */
+	long p9, p10, p11, p12, p13, p14, p15;
+
+	private static final AtomicReferenceFieldUpdater<PaddedReferenceValue, Object> VALUE =
+			AtomicReferenceFieldUpdater.newUpdater(PaddedReferenceValue.class, Object.class, "value");
+
+	/**
+	 * Creates a reference holding the given initial value.
+	 * @param initial
+	 */
+	PaddedReference(V initial) {
+		value = initial;
+	}
+
+	/**
+	 * Returns the current value.
+	 * @return V
+	 */
+	@SuppressWarnings("unchecked")
+	V get() {
+		return (V) value;
+	}
+
+	/**
+	 * Sets the value to update if it is currently expect.
+	 * @param expect
+	 * @param update
+	 * @return true if the value was replaced
+	 */
+	boolean compareAndSet(V expect, V update) {
+		return VALUE.compareAndSet(this, expect, update);
+	}
+}
+
+/** Padding before the value */
+abstract class PaddedReferenceLhs {
+	long p1, p2, p3, p4, p5, p6, p7;
+}
+
+/** The value itself, between the two paddings */
+abstract class PaddedReferenceValue extends PaddedReferenceLhs {
+	volatile Object value;
+}
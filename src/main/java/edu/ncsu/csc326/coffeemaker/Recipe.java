@@ -17,114 +17,240 @@ import edu.ncsu.csc326.coffeemaker.exceptions.RecipeException;
 
 /**
  * @author   Sarah Heckman
+ *
+ * The amount of each ingredient is kept in an int vector indexed by
+ * position in the recipe's {@link IngredientCatalog}.
+ *
+ * Recipes handed out by a {@link RecipeBook} are frozen: they are
+ * shared by every reader of a snapshot, so their setters throw
+ * UnsupportedOperationException.  Copy one with {@link #Recipe(Recipe)}
+ * to change it and pass the copy to editRecipe.
  */
 public class Recipe {
     private String name;
     private int price;
-    private int amtCoffee;
-    private int amtMilk;
-    private int amtSugar;
-    private int amtChocolate;
+    private final IngredientCatalog catalog;
+    private final int[] amounts;
+    /** Set once the recipe is published by a recipe book */
+    private boolean frozen;
     
     /**
      * Creates a default recipe for the coffee maker.
      */
     public Recipe() {
+    	this(IngredientCatalog.DEFAULT);
+    }
+    
+    /**
+     * Creates a default recipe using the ingredients of
+     * the given catalog.
+     * @param catalog
+     */
+    public Recipe(IngredientCatalog catalog) {
     	this.name = "";
     	this.price = 0;
-    	this.amtCoffee = 0;
-    	this.amtMilk = 0;
-    	this.amtSugar = 0;
-    	this.amtChocolate = 0;
+    	this.catalog = catalog;
+    	this.amounts = new int[catalog.size()];
+    }
+    
+    /**
+     * Creates a copy of the given recipe.  The copy can be changed
+     * even if the recipe is frozen.
+     * @param r
+     */
+    public Recipe(Recipe r) {
+    	this.name = r.name;
+    	this.price = r.price;
+    	this.catalog = r.catalog;
+    	this.amounts = r.amounts.clone();
+    }
+    
+    /**
+     * Returns a frozen copy of the recipe, or the recipe itself if
+     * it is already frozen.
+     */
+    static Recipe frozen(Recipe r) {
+    	if (r == null || r.frozen) {
+    		return r;
+    	}
+    	Recipe copy = new Recipe(r);
+    	copy.frozen = true;
+    	return copy;
+    }
+    
+    /**
+     * Returns true if the recipe belongs to a recipe book and can
+     * no longer be changed.
+     * @return boolean
+     */
+    public boolean isFrozen() {
+    	return frozen;
+    }
+    
+    private void checkNotFrozen() {
+    	if (frozen) {
+    		throw new UnsupportedOperationException("Recipe " + name + " belongs to a recipe book; change a copy");
+    	}
+    }
+    
+    /**
+     * @return   Returns the catalog of ingredients the amounts refer to.
+     */
+    public IngredientCatalog getCatalog() {
+    	return catalog;
+    }
+    
+    /**
+     * Returns the amount of an ingredient.
+     * @param ingredient   position of the ingredient in the catalog
+     * @return int
+     */
+    public int getAmount(int ingredient) {
+    	return amounts[ingredient];
+    }
+    
+    /**
+     * Sets the amount of an ingredient.
+     * @param ingredient   position of the ingredient in the catalog
+     * @param amount   the amount to set
+     * @throws RecipeException if the amount is not a positive integer
+     */
+    public void setAmount(int ingredient, String amount) throws RecipeException {
+    	setAmount(ingredient, InputCheck.parseUnits(amount));
+    }
+    
+    /**
+     * Sets the amount of an ingredient.
+     * @param ingredient   position of the ingredient in the catalog
+     * @param amount   the amount to set
+     * @throws RecipeException if the amount is negative
+     */
+    public void setAmount(int ingredient, int amount) throws RecipeException {
+    	checkNotFrozen();
+		if (amount >= 0) {
+			amounts[ingredient] = amount;
+		} else {
+			throw new RecipeException(catalog.invalidUnitsMessage(ingredient));
+		}
+    }
+    
+    /**
+     * Sets the price and every amount if all of them are valid,
+     * and leaves the recipe unchanged otherwise.  Never throws.
+     * @param price
+     * @param amounts   one amount per catalog ingredient
+     * @return int   {@link InputCheck#NONE} if the recipe was set,
+     * 		otherwise the result code of the first invalid value
+     */
+    public int trySet(int price, int[] amounts) {
+    	checkNotFrozen();
+    	int bad = InputCheck.checkRecipe(price, amounts, catalog);
+    	if (bad == InputCheck.NONE) {
+    		this.price = price;
+    		System.arraycopy(amounts, 0, this.amounts, 0, amounts.length);
+    	}
+    	return bad;
+    }
+    
+    /**
+     * Sets the price and every amount from text if all of them are
+     * valid, and leaves the recipe unchanged otherwise.  Never throws.
+     * @param price
+     * @param amounts   one amount per catalog ingredient
+     * @return int   {@link InputCheck#NONE} if the recipe was set,
+     * 		otherwise the result code of the first invalid value
+     */
+    public int trySet(CharSequence price, CharSequence[] amounts) {
+    	checkNotFrozen();
+    	int bad = InputCheck.checkRecipe(price, amounts, catalog);
+    	if (bad == InputCheck.NONE) {
+    		this.price = InputCheck.parseUnits(price);
+    		for (int i = 0; i < amounts.length; i++) {
+    			this.amounts[i] = InputCheck.parseUnits(amounts[i]);
+    		}
+    	}
+    	return bad;
+    }
+    
+    /**
+     * Returns the amounts vector itself, for the inventory's
+     * inner loops.  It must not be modified.
+     */
+    int[] amounts() {
+    	return amounts;
     }
     
     /**
 	 * @return   Returns the amtChocolate.
 	 */
     public int getAmtChocolate() {
-		return amtChocolate;
+		return amounts[IngredientCatalog.CHOCOLATE];
 	}
     /**
-	 * @param amtChocolate   The amtChocolate to set.
+	 * @param chocolate   The amtChocolate to set.
 	 */
     public void setAmtChocolate(String chocolate) throws RecipeException {
-    	int amtChocolate = 0;
-    	try {
-    		amtChocolate = Integer.parseInt(chocolate);
-    	} catch (NumberFormatException e) {
-    		throw new RecipeException("Units of chocolate must be a positive integer");
-    	}
-		if (amtChocolate >= 0) {
-			this.amtChocolate = amtChocolate;
-		} else {
-			throw new RecipeException("Units of chocolate must be a positive integer");
-		}
+    	setAmount(IngredientCatalog.CHOCOLATE, chocolate);
+	}
+    /**
+	 * @param chocolate   The amtChocolate to set.
+	 */
+    public void setAmtChocolate(int chocolate) throws RecipeException {
+    	setAmount(IngredientCatalog.CHOCOLATE, chocolate);
 	}
     /**
 	 * @return   Returns the amtCoffee.
 	 */
     public int getAmtCoffee() {
-		return amtCoffee;
+		return amounts[IngredientCatalog.COFFEE];
 	}
     /**
-	 * @param amtCoffee   The amtCoffee to set.
+	 * @param coffee   The amtCoffee to set.
 	 */
     public void setAmtCoffee(String coffee) throws RecipeException {
-    	int amtCoffee = 0;
-    	try {
-    		amtCoffee = Integer.parseInt(coffee);
-    	} catch (NumberFormatException e) {
-    		throw new RecipeException("Units of coffee must be a positive integer");
-    	}
-		if (amtCoffee >= 0) {
-			this.amtCoffee = amtCoffee;
-		} else {
-			throw new RecipeException("Units of coffee must be a positive integer");
-		}
+    	setAmount(IngredientCatalog.COFFEE, coffee);
+	}
+    /**
+	 * @param coffee   The amtCoffee to set.
+	 */
+    public void setAmtCoffee(int coffee) throws RecipeException {
+    	setAmount(IngredientCatalog.COFFEE, coffee);
 	}
     /**
 	 * @return   Returns the amtMilk.
 	 */
     public int getAmtMilk() {
-		return amtMilk;
+		return amounts[IngredientCatalog.MILK];
 	}
     /**
-	 * @param amtMilk   The amtMilk to set.
+	 * @param milk   The amtMilk to set.
 	 */
     public void setAmtMilk(String milk) throws RecipeException{
-    	int amtMilk = 0;
-    	try {
-    		amtMilk = Integer.parseInt(milk);
-    	} catch (NumberFormatException e) {
-    		throw new RecipeException("Units of milk must be a positive integer");
-    	}
-		if (amtMilk >= 0) {
-			this.amtMilk = amtMilk;
-		} else {
-			throw new RecipeException("Units of milk must be a positive integer");
-		}
+    	setAmount(IngredientCatalog.MILK, milk);
+	}
+    /**
+	 * @param milk   The amtMilk to set.
+	 */
+    public void setAmtMilk(int milk) throws RecipeException {
+    	setAmount(IngredientCatalog.MILK, milk);
 	}
     /**
 	 * @return   Returns the amtSugar.
 	 */
     public int getAmtSugar() {
-		return amtSugar;
+		return amounts[IngredientCatalog.SUGAR];
 	}
     /**
-	 * @param amtSugar   The amtSugar to set.
+	 * @param sugar   The amtSugar to set.
 	 */
     public void setAmtSugar(String sugar) throws RecipeException {
-    	int amtSugar = 0;
-    	try {
-    		amtSugar = Integer.parseInt(sugar);
-    	} catch (NumberFormatException e) {
-    		throw new RecipeException("Units of sugar must be a positive integer");
-    	}
-		if (amtSugar >= 0) {
-			this.amtSugar = amtSugar;
-		} else {
-			throw new RecipeException("Units of sugar must be a positive integer");
-		}
+    	setAmount(IngredientCatalog.SUGAR, sugar);
+	}
+    /**
+	 * @param sugar   The amtSugar to set.
+	 */
+    public void setAmtSugar(int sugar) throws RecipeException {
+    	setAmount(IngredientCatalog.SUGAR, sugar);
 	}
     /**
 	 * @return   Returns the name.
@@ -136,6 +262,7 @@ public class Recipe {
 	 * @param name   The name to set.
 	 */
     public void setName(String name) {
+    	checkNotFrozen();
     	if(name != null) {
     		this.name = name;
     	}
@@ -150,18 +277,19 @@ public class Recipe {
 	 * @param price   The price to set.
 	 */
     public void setPrice(String price) throws RecipeException{
-    	int amtPrice = 0;
-    	try {
-    		amtPrice = Integer.parseInt(price);
-    	} catch (NumberFormatException e) {
-    		throw new RecipeException("Price must be a positive integer");
-    	}
-		if (amtPrice >= 0) {
-			this.price = amtPrice;
+    	setPrice(InputCheck.parseUnits(price));
+	} 
+    /**
+	 * @param price   The price to set.
+	 */
+    public void setPrice(int price) throws RecipeException {
+    	checkNotFrozen();
+		if (price >= 0) {
+			this.price = price;
 		} else {
-			throw new RecipeException("Price must be a positive integer");
+			throw new RecipeException(InputCheck.message(InputCheck.PRICE, catalog));
 		}
-	} 
+	}
     
     /**
      * Returns the name of the recipe.
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Which recipes the inventory can make right now, as a bitmap over
+ * recipe ids.
+ *
+ * For every recipe the index keeps the number of ingredients it is
+ * short of, and for every ingredient the recipes that use it sorted
+ * by how much they need.  When a count moves from one value to another
+ * only the recipes whose need lies between the two have crossed a
+ * threshold; their shortfall goes up or down by one and their bit
+ * flips when it reaches or leaves zero.  Every other recipe is left
+ * alone.  A changed recipe is evaluated on its own.
+ *
+ * The index is brought up to date when it is read and finds that the
+ * inventory or recipe book version has moved, going straight from the
+ * counts it last saw to the current ones.  The order path does no
+ * extra work, and a read of an up-to-date index is two version checks
+ * and a bit test.
+ */
+public final class RecipeAvailability {
+
+	/** Published bitmap and the versions it was computed for */
+	private static final class State {
+		final long inventoryVersion;
+		final long recipeVersion;
+		final long[] words;
+
+		State(long inventoryVersion, long recipeVersion, long[] words) {
+			this.inventoryVersion = inventoryVersion;
+			this.recipeVersion = recipeVersion;
+			this.words = words;
+		}
+	}
+
+	private final Inventory inventory;
+	private final RecipeBook recipeBook;
+	private volatile State state = new State(-1, -1, new long[0]);
+
+	// The fields below are only used while holding the lock.
+	/** Counts the index was last brought up to date with */
+	private int[] counts;
+	/** Recipes the index was last brought up to date with, by id */
+	private Recipe[] recipes = new Recipe[0];
+	/** Number of ingredients each recipe is short of */
+	private int[] shortfall = new int[0];
+	/** Available recipes */
+	private long[] words = new long[0];
+	/** For each ingredient, need << 32 | recipe id of every recipe using it, sorted */
+	private long[][] thresholds;
+
+	/**
+	 * Creates an index of the recipes in the book the inventory
+	 * can make.
+	 * @param inventory
+	 * @param recipeBook
+	 */
+	public RecipeAvailability(Inventory inventory, RecipeBook recipeBook) {
+		this.inventory = inventory;
+		this.recipeBook = recipeBook;
+		this.counts = new int[inventory.getCatalog().size()];
+		this.thresholds = new long[counts.length][0];
+	}
+
+	/**
+	 * Returns true if the recipe exists and the inventory holds
+	 * enough of every ingredient to make it.
+	 * @param recipeId
+	 * @return boolean
+	 */
+	public boolean isAvailable(int recipeId) {
+		long[] w = current().words;
+		return recipeId >= 0 && (recipeId >>> 6) < w.length && (w[recipeId >>> 6] & (1L << recipeId)) != 0;
+	}
+
+	/**
+	 * Returns the ids of the recipes that can be made.
+	 * @return BitSet
+	 */
+	public BitSet getAvailable() {
+		return BitSet.valueOf(current().words);
+	}
+
+	private State current() {
+		State s = state;
+		if (s.inventoryVersion != inventory.getVersion()
+				|| s.recipeVersion != recipeBook.getSnapshot().getVersion()) {
+			s = refresh();
+		}
+		return s;
+	}
+
+	/**
+	 * Brings the index up to date with the current recipes and
+	 * counts and publishes it.
+	 */
+	private synchronized State refresh() {
+		int[] now = new int[counts.length];
+		long inventoryVersion = inventory.getAmounts(now);
+		RecipeSnapshot snapshot = recipeBook.getSnapshot();
+		State s = state;
+		if (s.inventoryVersion == inventoryVersion && s.recipeVersion == snapshot.getVersion()) {
+			return s;
+		}
+		if (s.recipeVersion != snapshot.getVersion()) {
+			updateRecipes(snapshot.getRecipes());
+		}
+		for (int i = 0; i < now.length; i++) {
+			if (now[i] < counts[i]) {
+				cross(thresholds[i], now[i], counts[i], 1);
+			} else if (now[i] > counts[i]) {
+				cross(thresholds[i], counts[i], now[i], -1);
+			}
+		}
+		counts = now;
+		s = new State(inventoryVersion, snapshot.getVersion(), words.clone());
+		state = s;
+		return s;
+	}
+
+	/**
+	 * Changes the shortfall of every recipe that needs more than
+	 * low and at most high units of an ingredient.
+	 */
+	private void cross(long[] index, int low, int high, int delta) {
+		int from = Arrays.binarySearch(index, ((long) low << 32) | 0xffffffffL);
+		for (int k = from < 0 ? -from - 1 : from + 1; k < index.length && (int) (index[k] >>> 32) <= high; k++) {
+			int id = (int) index[k];
+			int before = shortfall[id];
+			shortfall[id] = before + delta;
+			if (before == 0 || before + delta == 0) {
+				words[id >>> 6] ^= 1L << id;
+			}
+		}
+	}
+
+	/**
+	 * Evaluates every recipe that was added, edited or deleted
+	 * against the counts the index holds, and rebuilds the
+	 * threshold lists if any was.
+	 */
+	private void updateRecipes(Recipe[] next) {
+		int length = Math.max(next.length, recipes.length);
+		if (shortfall.length < length) {
+			shortfall = Arrays.copyOf(shortfall, length);
+			words = Arrays.copyOf(words, (length + 63) >>> 6);
+		}
+		boolean changed = false;
+		for (int id = 0; id < length; id++) {
+			Recipe before = id < recipes.length ? recipes[id] : null;
+			Recipe after = id < next.length ? next[id] : null;
+			if (before == after) {
+				continue;
+			}
+			changed = true;
+			shortfall[id] = after == null ? 0 : shortfall(after);
+			if (after != null && shortfall[id] == 0) {
+				words[id >>> 6] |= 1L << id;
+			} else {
+				words[id >>> 6] &= ~(1L << id);
+			}
+		}
+		recipes = next;
+		if (changed) {
+			buildThresholds();
+		}
+	}
+
+	/**
+	 * Returns the number of ingredients the held counts are short of
+	 * for the recipe.
+	 */
+	private int shortfall(Recipe r) {
+		int[] need = r.amounts();
+		int n = Math.min(need.length, counts.length);
+		int missing = 0;
+		for (int i = 0; i < n; i++) {
+			if (need[i] > counts[i]) {
+				missing++;
+			}
+		}
+		return missing;
+	}
+
+	private void buildThresholds() {
+		for (int i = 0; i < thresholds.length; i++) {
+			long[] index = new long[recipes.length];
+			int n = 0;
+			for (int id = 0; id < recipes.length; id++) {
+				Recipe r = recipes[id];
+				if (r != null && i < r.amounts().length && r.amounts()[i] > 0) {
+					index[n++] = ((long) r.amounts()[i] << 32) | id;
+				}
+			}
+			index = Arrays.copyOf(index, n);
+			Arrays.sort(index);
+			thresholds[i] = index;
+		}
+	}
+}
@@ -13,52 +13,155 @@
  */
 package edu.ncsu.csc326.coffeemaker;
 
+import java.util.Arrays;
+
+/**
+ * Recipes known to the coffee maker.
+ *
+ * Every recipe gets an integer id when it is added: its position in
+ * the recipe array.  Ids are never reused, so an id keeps naming the
+ * same recipe until that recipe is deleted.  The array doubles when
+ * it fills up, and a hash index on the name finds a recipe in
+ * constant time however large the menu grows.
+ *
+ * The recipes are held in an immutable {@link RecipeSnapshot}.  Add,
+ * edit and delete build a new snapshot under the book's lock and
+ * publish it through a volatile field, so reads never lock and always
+ * see one consistent version of the book.  Recipes are copied on the
+ * way in, so later changes to a caller's recipe object do not leak
+ * into a published snapshot, and the copies are frozen, so nobody can
+ * change a published recipe behind the book's back.
+ *
+ * Recovered and replicated changes applied one at a time are reported
+ * to the listeners like local ones, so a replicated book can itself be
+ * journaled or replicated further.  Installing a whole snapshot is not
+ * reported: there is no single change to report, and listeners that
+ * need to follow it must start again from the new snapshot.
+ */
 public class RecipeBook {
 	
-	/** Array of recipes in coffee maker*/
-	private Recipe [] recipeArray;
-	/** Number of recipes in coffee maker */
-	private final int NUM_RECIPES = 4; 
+	/** Current version of the recipes */
+	private volatile RecipeSnapshot snapshot = RecipeSnapshot.EMPTY;
+	/** Listeners told about every change */
+	private RecipeBookListener[] listeners = new RecipeBookListener[0];
+	/** Log every change is written to before it is published, if any */
+	private WriteAheadLog log;
+	/** Snapshot the change being reported to the listeners replaced */
+	private RecipeSnapshot replaced = RecipeSnapshot.EMPTY;
+	/** Time writers waited for the book's lock */
+	private final LatencyHistogram lockWait = new LatencyHistogram();
 	
 	/**
 	 * Default constructor for a RecipeBook.
 	 */
 	public RecipeBook() {
-		recipeArray = new Recipe[NUM_RECIPES];
 	}
 	
 	/**
-	 * Returns the recipe array.
-	 * @param r
+	 * Registers a listener that is told about every later
+	 * change to the recipe book.
+	 * @param listener
+	 */
+	public synchronized void addListener(RecipeBookListener listener) {
+		listeners = Arrays.copyOf(listeners, listeners.length + 1);
+		listeners[listeners.length - 1] = listener;
+	}
+	
+	/**
+	 * Sets the log every later change is written to before it is
+	 * published, replacing any earlier one.
+	 * @param log
+	 */
+	synchronized void setLog(WriteAheadLog log) {
+		this.log = log;
+	}
+	
+	/**
+	 * Returns how long add, edit and delete waited for the
+	 * book's lock.
+	 * @return LatencyHistogram
+	 */
+	public LatencyHistogram getLockWait() {
+		return lockWait;
+	}
+	
+	/**
+	 * Returns the current snapshot of the recipe book.
+	 * @return RecipeSnapshot
+	 */
+	public RecipeSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * Returns a copy of the recipe array.  The array may be longer
+	 * than the number of recipes; unused and deleted ids hold null.
 	 * @return Recipe[]
 	 */
-	public synchronized Recipe[] getRecipes() {
-		return recipeArray;
+	public Recipe[] getRecipes() {
+		return snapshot.getRecipes();
 	}
 	
-	public synchronized boolean addRecipe(Recipe r) {
-		//Assume recipe doesn't exist in the array until 
-		//find out otherwise
-		boolean exists = false;
-		//Check that recipe doesn't already exist in array
-		for (int i = 0; i < recipeArray.length; i++ ) {
-			if (r.equals(recipeArray[i])) {
-				exists = true;
-			}
-		}
-		//Assume recipe cannot be added until find an empty
-		//spot
-		boolean added = false;
-		//Check for first empty spot in array
-		if (!exists) {
-			for (int i = 0; i < recipeArray.length && !added; i++) {
-				if (recipeArray[i] == null) {
-					recipeArray[i] = r;
-					added = true;
-				}
+	/**
+	 * Returns the recipe with the given id, or null if there
+	 * is no such recipe.
+	 * @param recipeId
+	 * @return Recipe
+	 */
+	public Recipe getRecipe(int recipeId) {
+		return snapshot.getRecipe(recipeId);
+	}
+	
+	/**
+	 * Returns the recipe with the given name, or null if
+	 * there is no such recipe.
+	 * @param name
+	 * @return Recipe
+	 */
+	public Recipe getRecipe(String name) {
+		return snapshot.getRecipe(name);
+	}
+	
+	/**
+	 * Returns the id of the recipe with the given name, or -1
+	 * if there is no such recipe.
+	 * @param name
+	 * @return int
+	 */
+	public int getRecipeId(String name) {
+		return snapshot.getRecipeId(name);
+	}
+	
+	/**
+	 * Returns the number of recipes in the book.
+	 * @return int
+	 */
+	public int size() {
+		return snapshot.size();
+	}
+	
+	/**
+	 * Returns true if the recipe is added and false if a recipe
+	 * with the same name already exists.
+	 * @param r
+	 * @return boolean
+	 */
+	public boolean addRecipe(Recipe r) {
+		long start = System.nanoTime();
+		synchronized (this) {
+			lockWait.record(System.nanoTime() - start);
+			RecipeSnapshot current = snapshot;
+			if (current.getRecipeId(r.getName()) >= 0) {
+				return false;
 			}
+			int recipeId = current.getNextId();
+			RecipeIndex index = current.copyIndex();
+			index.put(r.getName(), recipeId);
+			publish(new RecipeSnapshot(current.getVersion() + 1,
+					current.copyWith(recipeId, Recipe.frozen(new Recipe(r))), recipeId + 1, index),
+					RecipeBookListener.Change.ADD, recipeId);
+			return true;
 		}
-		return added;
 	}
 
 	/**
@@ -67,31 +170,123 @@ public class RecipeBook {
 	 * @param recipeToDelete
 	 * @return String
 	 */
-	public synchronized String deleteRecipe(int recipeToDelete) {
-		if (recipeArray[recipeToDelete] != null) {
-			String recipeName = recipeArray[recipeToDelete].getName();
-			recipeArray[recipeToDelete] = new Recipe();
-			return recipeName;
-		} else {
-			return null;
+	public String deleteRecipe(int recipeToDelete) {
+		long start = System.nanoTime();
+		synchronized (this) {
+			lockWait.record(System.nanoTime() - start);
+			RecipeSnapshot current = snapshot;
+			Recipe r = current.getRecipe(recipeToDelete);
+			if (r != null) {
+				RecipeIndex index = current.copyIndex();
+				index.remove(r.getName());
+				publish(new RecipeSnapshot(current.getVersion() + 1,
+						current.copyWith(recipeToDelete, null), current.getNextId(), index),
+						RecipeBookListener.Change.DELETE, recipeToDelete);
+				return r.getName();
+			} else {
+				return null;
+			}
 		}
 	}
 	
 	/**
 	 * Returns the name of the recipe edited at the position specified
-	 * and null if the recipe does not exist.
+	 * and null if the recipe does not exist.  The edited recipe keeps
+	 * its original name.
 	 * @param recipeToEdit
 	 * @param newRecipe
 	 * @return String
 	 */
-	public synchronized String editRecipe(int recipeToEdit, Recipe newRecipe) {
-		if (recipeArray[recipeToEdit] != null) {
-			String recipeName = recipeArray[recipeToEdit].getName();
-			newRecipe.setName("");
-			recipeArray[recipeToEdit] = newRecipe;
-			return recipeName;
-		} else {
-			return null;
+	public String editRecipe(int recipeToEdit, Recipe newRecipe) {
+		long start = System.nanoTime();
+		synchronized (this) {
+			lockWait.record(System.nanoTime() - start);
+			RecipeSnapshot current = snapshot;
+			Recipe r = current.getRecipe(recipeToEdit);
+			if (r != null) {
+				String recipeName = r.getName();
+				Recipe edited = new Recipe(newRecipe);
+				edited.setName(recipeName);
+				publish(new RecipeSnapshot(current.getVersion() + 1,
+						current.copyWith(recipeToEdit, Recipe.frozen(edited)), current.getNextId(), current.getIndex()),
+						RecipeBookListener.Change.EDIT, recipeToEdit);
+				return recipeName;
+			} else {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Applies a recovered change at the given version, unless the
+	 * book is already at that version or later.  An added recipe
+	 * gets exactly the given id.  Listeners are told about the change.
+	 * @return true if the change was applied
+	 */
+	synchronized boolean restore(RecipeBookListener.Change change, long version, int recipeId, Recipe r) {
+		RecipeSnapshot current = snapshot;
+		if (current.getVersion() >= version) {
+			return false;
+		}
+		RecipeIndex index = current.copyIndex();
+		Recipe old = current.getRecipe(recipeId);
+		if (old != null) {
+			index.remove(old.getName());
+		}
+		Recipe restored = null;
+		if (change != RecipeBookListener.Change.DELETE) {
+			restored = Recipe.frozen(new Recipe(r));
+			index.put(restored.getName(), recipeId);
+		}
+		publish(new RecipeSnapshot(version, current.copyWith(recipeId, restored),
+				Math.max(current.getNextId(), recipeId + 1), index), change, recipeId);
+		return true;
+	}
+	
+	/**
+	 * Replaces the whole book with a copy of a recovered or replicated
+	 * snapshot, unless the book is already at that version or later.
+	 * The book gets its own frozen recipes, so it shares none with the
+	 * book the snapshot came from.  Listeners are not told.
+	 * @return true if the snapshot was installed
+	 */
+	synchronized boolean restore(RecipeSnapshot recovered) {
+		if (snapshot.getVersion() >= recovered.getVersion()) {
+			return false;
+		}
+		Recipe[] recipes = recovered.getRecipes();
+		for (int i = 0; i < recipes.length; i++) {
+			if (recipes[i] != null) {
+				recipes[i] = Recipe.frozen(new Recipe(recipes[i]));
+			}
+		}
+		snapshot = new RecipeSnapshot(recovered.getVersion(), recipes, recovered.getNextId(), recovered.copyIndex());
+		return true;
+	}
+	
+	/**
+	 * Returns the snapshot that the change being reported replaced, so
+	 * a listener can find a deleted recipe.  Only meaningful inside a
+	 * listener, which runs with the book's lock held.
+	 * @return RecipeSnapshot
+	 */
+	RecipeSnapshot getReplaced() {
+		return replaced;
+	}
+	
+	/**
+	 * Writes the change to the log, publishes a new snapshot and tells
+	 * the listeners about the change.  Called with the book's lock held.
+	 */
+	private void publish(RecipeSnapshot next, RecipeBookListener.Change change, int recipeId) {
+		long record = log == null ? 0 : log.recipeChanging(change, recipeId, next);
+		replaced = snapshot;
+		snapshot = next;
+		if (log != null) {
+			log.commit(record);
+		}
+		for (RecipeBookListener listener : listeners) {
+			listener.recipeChanged(change, recipeId, next);
 		}
 	}
 
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * Receives every change made to a {@link RecipeBook}.
+ *
+ * The listener is called while the recipe book still holds its write
+ * lock, so changes are reported one at a time in version order.
+ * Listeners must be quick and must not throw.
+ */
+public interface RecipeBookListener {
+
+	/** Kinds of recipe book changes */
+	enum Change {
+		/** A recipe was added */
+		ADD,
+		/** A recipe was replaced by an edited version */
+		EDIT,
+		/** A recipe was deleted */
+		DELETE
+	}
+
+	/**
+	 * Called after the recipe book changed.
+	 * @param change what kind of change was made
+	 * @param recipeId id of the recipe that changed
+	 * @param snapshot the recipe book after the change; for
+	 * 		a delete it no longer holds the recipe
+	 */
+	void recipeChanged(Change change, int recipeId, RecipeSnapshot snapshot);
+}
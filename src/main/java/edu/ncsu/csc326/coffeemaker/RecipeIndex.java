@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash index from recipe name to recipe id.
+ *
+ * Names are kept in one array and ids in a parallel int array; a
+ * collision moves on to the next slot.  Removed entries leave a
+ * tombstone so lookups keep probing past them, and the table is
+ * rebuilt once live entries plus tombstones fill half of it.
+ */
+final class RecipeIndex {
+	/** Id stored in a slot that has never been used */
+	private static final int FREE = -1;
+	/** Id stored in a slot whose entry was removed */
+	private static final int REMOVED = -2;
+
+	private String[] names;
+	private int[] ids;
+	/** Number of live entries */
+	private int size;
+	/** Number of live entries plus tombstones */
+	private int used;
+
+	/**
+	 * Creates an empty index.
+	 */
+	RecipeIndex() {
+		allocate(16);
+	}
+
+	/**
+	 * Returns the id stored for the name, or -1 if there is none.
+	 * @param name
+	 * @return int
+	 */
+	int get(String name) {
+		int mask = ids.length - 1;
+		for (int i = slot(name, mask); ; i = (i + 1) & mask) {
+			int id = ids[i];
+			if (id == FREE) {
+				return -1;
+			}
+			if (id != REMOVED && name.equals(names[i])) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the name was added and false if it
+	 * is already in the index.
+	 * @param name
+	 * @param id
+	 * @return boolean
+	 */
+	boolean put(String name, int id) {
+		if (get(name) >= 0) {
+			return false;
+		}
+		if ((used + 1) * 2 > ids.length) {
+			rehash(size + 1);
+		}
+		int mask = ids.length - 1;
+		int i = slot(name, mask);
+		while (ids[i] >= 0) {
+			i = (i + 1) & mask;
+		}
+		if (ids[i] == FREE) {
+			used++;
+		}
+		names[i] = name;
+		ids[i] = id;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Returns the id that was stored for the name, or -1 if
+	 * the name was not in the index.
+	 * @param name
+	 * @return int
+	 */
+	int remove(String name) {
+		int mask = ids.length - 1;
+		for (int i = slot(name, mask); ; i = (i + 1) & mask) {
+			int id = ids[i];
+			if (id == FREE) {
+				return -1;
+			}
+			if (id != REMOVED && name.equals(names[i])) {
+				names[i] = null;
+				ids[i] = REMOVED;
+				size--;
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Returns an independent copy of the index.
+	 * @return RecipeIndex
+	 */
+	RecipeIndex copy() {
+		RecipeIndex copy = new RecipeIndex();
+		copy.names = names.clone();
+		copy.ids = ids.clone();
+		copy.size = size;
+		copy.used = used;
+		return copy;
+	}
+
+	/**
+	 * Returns the number of names in the index.
+	 * @return int
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Rebuilds the table, dropping tombstones, with room for at
+	 * least the given number of entries.
+	 */
+	private void rehash(int entries) {
+		String[] oldNames = names;
+		int[] oldIds = ids;
+		int capacity = 16;
+		while (capacity < entries * 4) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldIds.length; j++) {
+			if (oldIds[j] >= 0) {
+				int i = slot(oldNames[j], mask);
+				while (ids[i] != FREE) {
+					i = (i + 1) & mask;
+				}
+				names[i] = oldNames[j];
+				ids[i] = oldIds[j];
+				size++;
+				used++;
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		names = new String[capacity];
+		ids = new int[capacity];
+		Arrays.fill(ids, FREE);
+		size = 0;
+		used = 0;
+	}
+
+	/**
+	 * Returns the first slot to probe for the name.  The high bits
+	 * of the hash are folded in because only the low bits are used.
+	 */
+	private static int slot(String name, int mask) {
+		int h = name.hashCode();
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * One change to a primary's {@link RecipeBook}, as shipped to replicas.
+ *
+ * The version is the recipe book's version right after the change, so
+ * entries are numbered 1, 2, 3 ... with no gaps, and a replica at
+ * version v needs exactly the entries after v.
+ */
+public final class RecipeLogEntry {
+
+	private final long version;
+	private final RecipeBookListener.Change change;
+	private final int recipeId;
+	private final Recipe recipe;
+
+	RecipeLogEntry(long version, RecipeBookListener.Change change, int recipeId, Recipe recipe) {
+		this.version = version;
+		this.change = change;
+		this.recipeId = recipeId;
+		this.recipe = recipe;
+	}
+
+	/**
+	 * @return   Returns the recipe book version the change produced.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return   Returns what kind of change this was.
+	 */
+	public RecipeBookListener.Change getChange() {
+		return change;
+	}
+
+	/**
+	 * @return   Returns the id of the recipe that changed.
+	 */
+	public int getRecipeId() {
+		return recipeId;
+	}
+
+	/**
+	 * Returns the recipe as added or edited, or null for a delete.
+	 * The recipe is shared and frozen.
+	 * @return Recipe
+	 */
+	public Recipe getRecipe() {
+		return recipe;
+	}
+
+	public String toString() {
+		return version + " " + change + " " + recipeId;
+	}
+}
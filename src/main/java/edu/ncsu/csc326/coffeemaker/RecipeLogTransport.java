@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * Carries a {@link RecipePrimary}'s log to its {@link RecipeReplica}s.
+ *
+ * Shipping runs on the primary's write path and must not block;
+ * entries must reach each replica in the order they were shipped.
+ * Replicas tolerate duplicates and fill gaps themselves by fetching
+ * what they missed, so a transport may drop entries as long as it
+ * delivers later ones.
+ */
+public interface RecipeLogTransport {
+
+	/**
+	 * Called once by the primary that ships over this transport.
+	 * @param primary
+	 */
+	void connect(RecipePrimary primary);
+
+	/**
+	 * Starts delivering entries to the replica.
+	 * @param replica
+	 */
+	void attach(RecipeReplica replica);
+
+	/**
+	 * Delivers an entry to every attached replica.
+	 * @param entry
+	 */
+	void ship(RecipeLogEntry entry);
+
+	/**
+	 * Returns the primary's entries after the given version, oldest
+	 * first, or null if the primary no longer has all of them.
+	 * @param version
+	 * @return RecipeLogEntry[]
+	 */
+	RecipeLogEntry[] fetch(long version);
+
+	/**
+	 * Returns the primary's current recipes.
+	 * @return RecipeSnapshot
+	 */
+	RecipeSnapshot fetchSnapshot();
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * Ships every change to a {@link RecipeBook} to replicas.
+ *
+ * The primary listens to the book, so changes made through any path
+ * (the console, the order server, a journal-backed machine) are
+ * shipped.  It keeps the most recent entries so that a replica that
+ * missed a few can catch up from the log; a replica that is further
+ * behind, or that started after the entries it needs, installs a
+ * snapshot instead.
+ */
+public final class RecipePrimary implements RecipeBookListener {
+
+	private final RecipeBook book;
+	private final RecipeLogTransport transport;
+	/** Recent entries, indexed by version modulo the capacity */
+	private final RecipeLogEntry[] log;
+	/** First version this primary shipped */
+	private final long first;
+	/** Last version this primary shipped */
+	private long last;
+
+	/**
+	 * Makes the coffee maker's recipe book the primary.
+	 * @param machine
+	 * @param transport
+	 * @param logCapacity number of recent entries kept for catch-up
+	 */
+	public RecipePrimary(CoffeeMaker machine, RecipeLogTransport transport, int logCapacity) {
+		this(machine.getRecipeBook(), transport, logCapacity);
+	}
+
+	/**
+	 * Makes the recipe book the primary.
+	 * @param book
+	 * @param transport
+	 * @param logCapacity number of recent entries kept for catch-up
+	 */
+	public RecipePrimary(RecipeBook book, RecipeLogTransport transport, int logCapacity) {
+		if (logCapacity < 1) {
+			throw new IllegalArgumentException("Log capacity must be positive");
+		}
+		this.book = book;
+		this.transport = transport;
+		this.log = new RecipeLogEntry[logCapacity];
+		synchronized (book) {
+			book.addListener(this);
+			last = book.getSnapshot().getVersion();
+			first = last + 1;
+		}
+		transport.connect(this);
+	}
+
+	/**
+	 * Logs and ships a change.  Called with the book's lock held, so
+	 * entries are shipped in version order.
+	 */
+	public void recipeChanged(RecipeBookListener.Change change, int recipeId, RecipeSnapshot snapshot) {
+		RecipeLogEntry entry = new RecipeLogEntry(snapshot.getVersion(), change, recipeId,
+				change == RecipeBookListener.Change.DELETE ? null : snapshot.getRecipe(recipeId));
+		synchronized (log) {
+			log[(int) (entry.getVersion() % log.length)] = entry;
+			last = entry.getVersion();
+		}
+		transport.ship(entry);
+	}
+
+	/**
+	 * Returns the entries after the given version, oldest first, or
+	 * null if some of them are no longer kept.
+	 * @param version
+	 * @return RecipeLogEntry[]
+	 */
+	public RecipeLogEntry[] entriesAfter(long version) {
+		synchronized (log) {
+			if (version >= last) {
+				return new RecipeLogEntry[0];
+			}
+			if (version + 1 < Math.max(first, last - log.length + 1)) {
+				return null;
+			}
+			RecipeLogEntry[] entries = new RecipeLogEntry[(int) (last - version)];
+			for (int i = 0; i < entries.length; i++) {
+				entries[i] = log[(int) ((version + 1 + i) % log.length)];
+			}
+			return entries;
+		}
+	}
+
+	/**
+	 * Returns the primary's current recipes.
+	 * @return RecipeSnapshot
+	 */
+	public RecipeSnapshot getSnapshot() {
+		return book.getSnapshot();
+	}
+
+	/**
+	 * Returns the version of the last change shipped.
+	 * @return long
+	 */
+	public long getVersion() {
+		synchronized (log) {
+			return last;
+		}
+	}
+}
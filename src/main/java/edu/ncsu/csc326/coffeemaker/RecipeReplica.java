@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link RecipeBook} in step with a {@link RecipePrimary}.
+ *
+ * Entries are applied through the book's restore path, which ignores
+ * any version the book already has, so duplicates are harmless.  An
+ * entry that skips versions makes the replica fetch what it missed,
+ * or the primary's whole snapshot if the log no longer has it.  Reads
+ * go to the local book and never leave the machine.  Applied entries
+ * reach the book's listeners, so when replicating into a coffee maker
+ * they are published on its event bus.  A replicated book
+ * must not be changed locally: its versions would no longer match the
+ * primary's.
+ */
+public final class RecipeReplica {
+
+	private final RecipeBook book;
+	private final RecipeLogTransport transport;
+	private long applied;
+	private long snapshots;
+
+	/**
+	 * Replicates into the coffee maker's recipe book.
+	 * @param machine
+	 * @param transport
+	 */
+	public RecipeReplica(CoffeeMaker machine, RecipeLogTransport transport) {
+		this(machine.getRecipeBook(), transport);
+	}
+
+	/**
+	 * Replicates into the recipe book and catches it up with the
+	 * primary.
+	 * @param book
+	 * @param transport
+	 */
+	public RecipeReplica(RecipeBook book, RecipeLogTransport transport) {
+		this.book = book;
+		this.transport = transport;
+		transport.attach(this);
+	}
+
+	/**
+	 * Applies an entry shipped by the primary.
+	 * @param entry
+	 */
+	public synchronized void receive(RecipeLogEntry entry) {
+		long version = getVersion();
+		if (entry.getVersion() <= version) {
+			return;
+		}
+		if (entry.getVersion() > version + 1) {
+			catchUp();
+		}
+		apply(entry);
+		notifyAll();
+	}
+
+	/**
+	 * Fetches and applies everything the replica is missing.
+	 */
+	public synchronized void catchUp() {
+		RecipeLogEntry[] missed = transport.fetch(getVersion());
+		if (missed == null) {
+			if (book.restore(transport.fetchSnapshot())) {
+				snapshots++;
+			}
+		} else {
+			for (RecipeLogEntry entry : missed) {
+				apply(entry);
+			}
+		}
+		notifyAll();
+	}
+
+	private void apply(RecipeLogEntry entry) {
+		if (book.restore(entry.getChange(), entry.getVersion(), entry.getRecipeId(), entry.getRecipe())) {
+			applied++;
+		}
+	}
+
+	/**
+	 * Waits until the replica has reached the given version and
+	 * returns false if it did not in time.
+	 * @param version
+	 * @param timeout
+	 * @param unit
+	 * @return boolean
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean awaitVersion(long version, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (getVersion() < version) {
+			long left = deadline - System.nanoTime();
+			if (left <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the version of the replicated recipe book.
+	 * @return long
+	 */
+	public long getVersion() {
+		return book.getSnapshot().getVersion();
+	}
+
+	/**
+	 * @return   Returns the replicated recipe book.
+	 */
+	public RecipeBook getRecipeBook() {
+		return book;
+	}
+
+	/**
+	 * Returns the number of log entries applied.
+	 * @return long
+	 */
+	public synchronized long getEntriesApplied() {
+		return applied;
+	}
+
+	/**
+	 * Returns the number of times the replica installed the
+	 * primary's whole snapshot to catch up.
+	 * @return long
+	 */
+	public synchronized long getSnapshotsInstalled() {
+		return snapshots;
+	}
+}
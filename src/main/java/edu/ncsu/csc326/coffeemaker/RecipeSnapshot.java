@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Arrays;
+
+/**
+ * Immutable view of a {@link RecipeBook} at one point in time.
+ *
+ * The recipe book publishes a new snapshot on every add, edit and
+ * delete, and never changes a snapshot once it is published.  Readers
+ * can therefore hold on to one snapshot for as long as they like, for
+ * example for the length of an order, without taking any lock.  The
+ * recipes in a snapshot are shared by all readers and are frozen, so
+ * they cannot be modified.
+ */
+public final class RecipeSnapshot {
+	/** Snapshot of a recipe book that has never been changed */
+	static final RecipeSnapshot EMPTY = new RecipeSnapshot(0, new Recipe[4], 0, new RecipeIndex());
+
+	private final long version;
+	/** Recipes indexed by recipe id */
+	private final Recipe[] recipes;
+	/** Id the next added recipe will get */
+	private final int nextId;
+	/** Recipe ids by recipe name */
+	private final RecipeIndex index;
+
+	/**
+	 * Creates a snapshot.  The arrays and index become owned by the
+	 * snapshot and must not be changed afterwards.
+	 */
+	RecipeSnapshot(long version, Recipe[] recipes, int nextId, RecipeIndex index) {
+		this.version = version;
+		this.recipes = recipes;
+		this.nextId = nextId;
+		this.index = index;
+	}
+
+	/**
+	 * Returns the version of the recipe book this snapshot was taken
+	 * at.  The version increases by one on every change to the book.
+	 * @return long
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the recipe with the given id, or null if there
+	 * is no such recipe.
+	 * @param recipeId
+	 * @return Recipe
+	 */
+	public Recipe getRecipe(int recipeId) {
+		if (recipeId < 0 || recipeId >= nextId) {
+			return null;
+		}
+		return recipes[recipeId];
+	}
+
+	/**
+	 * Returns the recipe with the given name, or null if
+	 * there is no such recipe.
+	 * @param name
+	 * @return Recipe
+	 */
+	public Recipe getRecipe(String name) {
+		return getRecipe(getRecipeId(name));
+	}
+
+	/**
+	 * Returns the id of the recipe with the given name, or -1
+	 * if there is no such recipe.
+	 * @param name
+	 * @return int
+	 */
+	public int getRecipeId(String name) {
+		return name == null ? -1 : index.get(name);
+	}
+
+	/**
+	 * Returns the number of recipes in the snapshot.
+	 * @return int
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Returns the id the next added recipe will get.  Every
+	 * recipe in the snapshot has a smaller id.
+	 * @return int
+	 */
+	public int getNextId() {
+		return nextId;
+	}
+
+	/**
+	 * Returns a copy of the recipe array.  The array may be longer
+	 * than the number of recipes; unused and deleted ids hold null.
+	 * @return Recipe[]
+	 */
+	public Recipe[] getRecipes() {
+		return recipes.clone();
+	}
+
+	/**
+	 * Returns a copy of the recipe array with the recipe at the given
+	 * id replaced, growing the array if needed.
+	 */
+	Recipe[] copyWith(int recipeId, Recipe r) {
+		int length = recipes.length;
+		while (length <= recipeId) {
+			length *= 2;
+		}
+		Recipe[] copy = Arrays.copyOf(recipes, length);
+		copy[recipeId] = r;
+		return copy;
+	}
+
+	/**
+	 * Returns the name index.  It is shared with the snapshot and
+	 * must not be changed.
+	 */
+	RecipeIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns a copy of the name index.
+	 */
+	RecipeIndex copyIndex() {
+		return index.copy();
+	}
+}
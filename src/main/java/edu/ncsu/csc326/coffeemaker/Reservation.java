@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Ingredients held for one beverage while its payment is authorised.
+ *
+ * The units are taken from the inventory when the reservation is made,
+ * so no other order can use them.  Exactly one of commit, cancel and
+ * expiry takes effect: commit keeps the units taken, cancel and expiry
+ * give them back.
+ */
+public final class Reservation {
+
+	/** Where a reservation is in its life */
+	public enum State {
+		/** Units are held, waiting for commit or cancel */
+		PENDING,
+		/** Units were used to make the beverage */
+		COMMITTED,
+		/** Units were given back by cancel */
+		CANCELLED,
+		/** Units were given back because the reservation timed out */
+		EXPIRED
+	}
+
+	private static final AtomicReferenceFieldUpdater<Reservation, State> STATE =
+			AtomicReferenceFieldUpdater.newUpdater(Reservation.class, State.class, "state");
+
+	private final Inventory inventory;
+	private final int[] units;
+	/** Time the reservation expires, in System.nanoTime units */
+	final long deadline;
+	private volatile State state = State.PENDING;
+	/** Next reservation in the same timing wheel bucket */
+	Reservation next;
+	/** Turns of the timing wheel left before the reservation expires */
+	long rounds;
+
+	Reservation(Inventory inventory, int[] units, long deadline) {
+		this.inventory = inventory;
+		this.units = units;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Uses the held units to make the beverage.
+	 * @return false if the reservation was already cancelled or expired
+	 */
+	public boolean commit() {
+		if (!STATE.compareAndSet(this, State.PENDING, State.COMMITTED)) {
+			return state == State.COMMITTED;
+		}
+		inventory.committed(units);
+		return true;
+	}
+
+	/**
+	 * Gives the held units back to the inventory.
+	 * @return false if the reservation was already committed or expired
+	 */
+	public boolean cancel() {
+		return release(State.CANCELLED);
+	}
+
+	/**
+	 * Gives the held units back if the reservation is still pending.
+	 */
+	boolean expire() {
+		return release(State.EXPIRED);
+	}
+
+	private boolean release(State to) {
+		if (!STATE.compareAndSet(this, State.PENDING, to)) {
+			return false;
+		}
+		inventory.release(units);
+		return true;
+	}
+
+	/**
+	 * Returns where the reservation is in its life.
+	 * @return State
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns a copy of the units held, in catalog order.
+	 * @return int []
+	 */
+	public int[] getUnits() {
+		return units.clone();
+	}
+}
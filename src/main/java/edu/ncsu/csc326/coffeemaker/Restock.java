@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * One entry of a restock schedule: how much of an ingredient to
+ * order and when, counted from the time the schedule was made.
+ */
+public final class Restock {
+
+	private final int ingredient;
+	private final String name;
+	private final double secondsUntil;
+	private final int units;
+
+	/**
+	 * Creates a schedule entry.
+	 * @param ingredient   position of the ingredient in the catalog
+	 * @param name
+	 * @param secondsUntil
+	 * @param units
+	 */
+	public Restock(int ingredient, String name, double secondsUntil, int units) {
+		this.ingredient = ingredient;
+		this.name = name;
+		this.secondsUntil = secondsUntil;
+		this.units = units;
+	}
+
+	/**
+	 * @return   Returns the position of the ingredient in the catalog.
+	 */
+	public int getIngredient() {
+		return ingredient;
+	}
+
+	/**
+	 * @return   Returns the name of the ingredient.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return   Returns the number of seconds until the restock
+	 * 		has to be ordered; 0 if it is already late.
+	 */
+	public double getSecondsUntil() {
+		return secondsUntil;
+	}
+
+	/**
+	 * @return   Returns the number of units to order.
+	 */
+	public int getUnits() {
+		return units;
+	}
+
+	public String toString() {
+		return String.format("%s: %d units in %.0f s", name, units, secondsUntil);
+	}
+}
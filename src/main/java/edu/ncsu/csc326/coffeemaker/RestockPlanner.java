@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Plans what to restock to earn the most from a forecast demand.
+ *
+ * The planner is greedy.  Recipes are taken in order of price per
+ * cost of their ingredients, best first, and each gets as many of its
+ * forecast servings as the stock on hand plus what the remaining
+ * budget and storage allow.  The number of servings is found by binary
+ * search, since the cost of k servings only grows with k, so a plan
+ * takes O(R log R + R * I * log D) for R recipes, I ingredients and
+ * at most D servings of demand per recipe.
+ */
+public final class RestockPlanner {
+
+	/**
+	 * Ingredients to order and the servings and revenue they are
+	 * expected to bring.
+	 */
+	public static final class Plan {
+		private final int[] units;
+		private final int[] servings;
+		private final long cost;
+		private final long revenue;
+
+		Plan(int[] units, int[] servings, long cost, long revenue) {
+			this.units = units;
+			this.servings = servings;
+			this.cost = cost;
+			this.revenue = revenue;
+		}
+
+		/**
+		 * @return   Returns the units of each ingredient to order, in catalog order.
+		 */
+		public int[] getUnits() {
+			return units.clone();
+		}
+
+		/**
+		 * @return   Returns the servings planned for each recipe, by recipe id.
+		 */
+		public int[] getServings() {
+			return servings.clone();
+		}
+
+		/**
+		 * @return   Returns the cost of the units to order.
+		 */
+		public long getCost() {
+			return cost;
+		}
+
+		/**
+		 * @return   Returns the revenue of the planned servings.
+		 */
+		public long getRevenue() {
+			return revenue;
+		}
+	}
+
+	private final int[] unitCosts;
+	private final long budget;
+	private final int[] capacity;
+
+	/**
+	 * Creates a planner.
+	 * @param unitCosts cost of one unit of each ingredient, in catalog order
+	 * @param budget most that may be spent on a restock
+	 * @param capacity most units of each ingredient the machine can
+	 * 		hold, in catalog order, or null if storage is limited only
+	 * 		by the largest count an inventory can hold
+	 */
+	public RestockPlanner(int[] unitCosts, long budget, int[] capacity) {
+		this.unitCosts = unitCosts.clone();
+		this.budget = budget;
+		this.capacity = capacity == null ? null : capacity.clone();
+	}
+
+	/**
+	 * Returns the number of servings of every recipe the given counts
+	 * can make on their own, by recipe id.  Deleted ids get 0 and a
+	 * recipe that needs nothing gets Integer.MAX_VALUE.
+	 * @param counts units of each ingredient, in catalog order
+	 * @param recipes recipes by id
+	 * @return int []
+	 */
+	public static int[] maxServings(int[] counts, Recipe[] recipes) {
+		int[] servings = new int[recipes.length];
+		for (int id = 0; id < recipes.length; id++) {
+			if (recipes[id] != null) {
+				servings[id] = maxServings(counts, recipes[id].amounts());
+			}
+		}
+		return servings;
+	}
+
+	private static int maxServings(int[] counts, int[] need) {
+		int most = Integer.MAX_VALUE;
+		int n = Math.min(counts.length, need.length);
+		for (int i = 0; i < n; i++) {
+			if (need[i] > 0) {
+				most = Math.min(most, counts[i] / need[i]);
+			}
+		}
+		return most;
+	}
+
+	/**
+	 * Plans a restock for a coffee maker's current stock and recipes.
+	 * @param coffeeMaker
+	 * @param demand forecast servings of each recipe, by recipe id
+	 * @return Plan
+	 */
+	public Plan plan(CoffeeMaker coffeeMaker, double[] demand) {
+		return plan(coffeeMaker.getInventory().getAmounts(), coffeeMaker.getRecipes(), demand);
+	}
+
+	/**
+	 * Plans a restock for the given stock, recipes and demand.
+	 * @param counts units of each ingredient on hand, in catalog order
+	 * @param recipes recipes by id
+	 * @param demand forecast servings of each recipe, by recipe id
+	 * @return Plan
+	 */
+	public Plan plan(int[] counts, Recipe[] recipes, double[] demand) {
+		int ingredients = counts.length;
+		final long[] costs = new long[recipes.length];
+		Integer[] order = new Integer[recipes.length];
+		int n = 0;
+		for (int id = 0; id < recipes.length && id < demand.length; id++) {
+			Recipe r = recipes[id];
+			if (r != null && demand[id] >= 1) {
+				int[] need = r.amounts();
+				for (int i = 0; i < Math.min(ingredients, need.length); i++) {
+					costs[id] += (long) unitCosts[i] * need[i];
+				}
+				order[n++] = id;
+			}
+		}
+		final Recipe[] menu = recipes;
+		Arrays.sort(order, 0, n, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int pa = menu[a].getPrice();
+				int pb = menu[b].getPrice();
+				int c = Double.compare((double) pb * costs[a], (double) pa * costs[b]);
+				return c != 0 ? c : Integer.compare(pb, pa);
+			}
+		});
+
+		long[] free = new long[ingredients];
+		for (int i = 0; i < ingredients; i++) {
+			free[i] = counts[i];
+		}
+		long[] bought = new long[ingredients];
+		int[] servings = new int[recipes.length];
+		long left = budget;
+		long revenue = 0;
+		for (int k = 0; k < n; k++) {
+			int id = order[k];
+			int[] need = recipes[id].amounts();
+			int low = 0;
+			int high = (int) Math.min(Integer.MAX_VALUE, (long) demand[id]);
+			while (low < high) {
+				int mid = (int) (((long) low + high + 1) >>> 1);
+				if (cost(need, mid, counts, free, bought, left) >= 0) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			if (low == 0) {
+				continue;
+			}
+			left -= cost(need, low, counts, free, bought, left);
+			for (int i = 0; i < Math.min(ingredients, need.length); i++) {
+				long want = (long) low * need[i];
+				long buy = Math.max(0, want - free[i]);
+				bought[i] += buy;
+				free[i] += buy - want;
+			}
+			servings[id] = low;
+			revenue += (long) low * recipes[id].getPrice();
+		}
+		int[] units = new int[ingredients];
+		for (int i = 0; i < ingredients; i++) {
+			units[i] = (int) bought[i];
+		}
+		return new Plan(units, servings, budget - left, revenue);
+	}
+
+	/**
+	 * Returns the cost of the units to buy for the given servings, or
+	 * -1 if they would exceed the budget left or the storage.  Without
+	 * a capacity the storage is Integer.MAX_VALUE units, so the units
+	 * of a plan always fit in an int.
+	 */
+	private long cost(int[] need, int servings, int[] counts, long[] free, long[] bought, long left) {
+		long cost = 0;
+		for (int i = 0; i < Math.min(free.length, need.length); i++) {
+			long buy = (long) servings * need[i] - free[i];
+			if (buy <= 0) {
+				continue;
+			}
+			long room = capacity != null ? capacity[i] : Integer.MAX_VALUE;
+			if (counts[i] + bought[i] + buy > room) {
+				return -1;
+			}
+			cost += buy * unitCosts[i];
+			if (cost > left) {
+				return -1;
+			}
+		}
+		return cost;
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Units sold and revenue of every recipe a coffee maker has sold.
+ *
+ * Recording a sale only adds to two striped LongAdders of its recipe,
+ * so sales made at the same time on different threads do not wait for
+ * each other and never pay for anything else.  Once a second a shared
+ * background thread samples the totals of every recipe into a ring of
+ * the last minute's seconds, and once a minute into a ring of the last
+ * hour's minutes.  Reading a window also takes the sample if it is
+ * due.  A rolling window is the current total minus the oldest sample
+ * inside it, or the whole total while the ledger is younger than the
+ * window.
+ *
+ * Closing the day remembers the totals at that moment and reports the
+ * difference from the previous close.  The totals themselves are never
+ * reset, so a sale that races with the close is counted in one day or
+ * the next but never lost.
+ */
+public final class SalesLedger {
+
+	/** Totals of one recipe */
+	private static final class Tally {
+		final LongAdder units = new LongAdder();
+		final LongAdder revenue = new LongAdder();
+		/** Totals at the last close, changed only by closeDay */
+		long closedUnits;
+		long closedRevenue;
+	}
+
+	/** Totals of all recipes at the start of a second or minute */
+	private static final class Sample {
+		final long epoch;
+		final long units;
+		final long revenue;
+
+		Sample(long epoch, long units, long revenue) {
+			this.epoch = epoch;
+			this.units = units;
+			this.revenue = revenue;
+		}
+	}
+
+	/** Length of a window in seconds or minutes */
+	private static final int WINDOW = 60;
+
+	/** Thread that samples every ledger once a second, started on first use */
+	private static final class Sampler {
+		static final ConcurrentLinkedQueue<WeakReference<SalesLedger>> LEDGERS =
+				new ConcurrentLinkedQueue<WeakReference<SalesLedger>>();
+
+		static {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					for (;;) {
+						try {
+							Thread.sleep(1000 - CoarseClock.MILLIS.getAsLong() % 1000);
+						} catch (InterruptedException e) {
+							return;
+						}
+						for (Iterator<WeakReference<SalesLedger>> it = LEDGERS.iterator(); it.hasNext();) {
+							SalesLedger ledger = it.next().get();
+							if (ledger == null) {
+								it.remove();
+							} else {
+								ledger.sampleIfDue(ledger.clock.getAsLong());
+							}
+						}
+					}
+				}
+			}, "sales-sampler");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		static void register(SalesLedger ledger) {
+			LEDGERS.add(new WeakReference<SalesLedger>(ledger));
+		}
+	}
+
+	private static final AtomicLongFieldUpdater<SalesLedger> NEXT_SAMPLE =
+			AtomicLongFieldUpdater.newUpdater(SalesLedger.class, "nextSample");
+	private static final AtomicLongFieldUpdater<SalesLedger> SAMPLED_MINUTE =
+			AtomicLongFieldUpdater.newUpdater(SalesLedger.class, "sampledMinute");
+
+	private final ConcurrentHashMap<String, Tally> tallies = new ConcurrentHashMap<String, Tally>();
+	/** Samples by second; the slot is the second modulo WINDOW + 1 */
+	private final AtomicReferenceArray<Sample> seconds = new AtomicReferenceArray<Sample>(WINDOW + 1);
+	/** Samples by minute; the slot is the minute modulo WINDOW + 1 */
+	private final AtomicReferenceArray<Sample> minutes = new AtomicReferenceArray<Sample>(WINDOW + 1);
+	/** Wall clock time in milliseconds */
+	private final LongSupplier clock;
+	/** Time at which the next sample is due */
+	private volatile long nextSample;
+	/** Minute of the last minute sample; only ever moves forward */
+	private volatile long sampledMinute = Long.MIN_VALUE;
+	/** Time the current day was opened */
+	private long openedAt;
+	/** Time the ledger was created */
+	private final long createdAt;
+
+	/**
+	 * Creates an empty ledger, sampled by the shared background thread.
+	 */
+	public SalesLedger() {
+		this(CoarseClock.MILLIS);
+		Sampler.register(this);
+	}
+
+	/**
+	 * Creates an empty ledger that reads the time from the given
+	 * clock, in milliseconds.
+	 */
+	SalesLedger(LongSupplier clock) {
+		this.clock = clock;
+		this.openedAt = clock.getAsLong();
+		this.createdAt = openedAt;
+	}
+
+	/**
+	 * Records the sale of one beverage at the recipe's price.
+	 */
+	void record(Recipe r) {
+		Tally tally = tallies.get(r.getName());
+		if (tally == null) {
+			Tally created = new Tally();
+			tally = tallies.putIfAbsent(r.getName(), created);
+			if (tally == null) {
+				tally = created;
+			}
+		}
+		tally.units.increment();
+		tally.revenue.add(r.getPrice());
+	}
+
+	/**
+	 * Samples the totals if a new second has started since the last
+	 * sample.  Only the thread that moves the due time on samples.
+	 * Never called on the order path.
+	 */
+	private void sampleIfDue(long now) {
+		long due = nextSample;
+		if (now < due) {
+			return;
+		}
+		long second = now / 1000;
+		if (!NEXT_SAMPLE.compareAndSet(this, due, (second + 1) * 1000)) {
+			return;
+		}
+		long units = 0;
+		long revenue = 0;
+		for (Tally tally : tallies.values()) {
+			units += tally.units.sum();
+			revenue += tally.revenue.sum();
+		}
+		seconds.set((int) (second % (WINDOW + 1)), new Sample(second, units, revenue));
+		// Samplers of different seconds can overlap, so a minute is
+		// claimed by CAS and a late sampler cannot overwrite a newer one.
+		long minute = now / 60000;
+		long last = sampledMinute;
+		if (minute > last && SAMPLED_MINUTE.compareAndSet(this, last, minute)) {
+			minutes.set((int) (minute % (WINDOW + 1)), new Sample(minute, units, revenue));
+		}
+	}
+
+	/**
+	 * Returns the total units or revenue minus the oldest sample no
+	 * older than WINDOW - 1 epochs before the given one, or the whole
+	 * total if the ledger was created inside the window.
+	 */
+	private long window(AtomicReferenceArray<Sample> ring, long epoch, long created, boolean revenue) {
+		Sample oldest = null;
+		if (created > epoch - WINDOW) {
+			oldest = new Sample(created, 0, 0);
+		} else {
+			for (int i = 0; i < ring.length(); i++) {
+				Sample s = ring.get(i);
+				if (s != null && s.epoch > epoch - WINDOW && s.epoch <= epoch
+						&& (oldest == null || s.epoch < oldest.epoch)) {
+					oldest = s;
+				}
+			}
+		}
+		if (oldest == null) {
+			return 0;
+		}
+		long total = 0;
+		for (Tally tally : tallies.values()) {
+			total += revenue ? tally.revenue.sum() : tally.units.sum();
+		}
+		return total - (revenue ? oldest.revenue : oldest.units);
+	}
+
+	/**
+	 * Returns the number of beverages sold in the last minute, to
+	 * the second.
+	 * @return long
+	 */
+	public long getUnitsLastMinute() {
+		long now = clock.getAsLong();
+		sampleIfDue(now);
+		return window(seconds, now / 1000, createdAt / 1000, false);
+	}
+
+	/**
+	 * Returns the revenue of the last minute, to the second.
+	 * @return long
+	 */
+	public long getRevenueLastMinute() {
+		long now = clock.getAsLong();
+		sampleIfDue(now);
+		return window(seconds, now / 1000, createdAt / 1000, true);
+	}
+
+	/**
+	 * Returns the number of beverages sold in the last hour, to
+	 * the minute.
+	 * @return long
+	 */
+	public long getUnitsLastHour() {
+		long now = clock.getAsLong();
+		sampleIfDue(now);
+		return window(minutes, now / 60000, createdAt / 60000, false);
+	}
+
+	/**
+	 * Returns the revenue of the last hour, to the minute.
+	 * @return long
+	 */
+	public long getRevenueLastHour() {
+		long now = clock.getAsLong();
+		sampleIfDue(now);
+		return window(minutes, now / 60000, createdAt / 60000, true);
+	}
+
+	/**
+	 * Returns the number of beverages of a recipe sold since the
+	 * day was opened.
+	 * @param recipeName
+	 * @return long
+	 */
+	public long getUnitsSold(String recipeName) {
+		Tally tally = tallies.get(recipeName);
+		if (tally == null) {
+			return 0;
+		}
+		synchronized (this) {
+			return tally.units.sum() - tally.closedUnits;
+		}
+	}
+
+	/**
+	 * Returns the revenue of a recipe since the day was opened.
+	 * @param recipeName
+	 * @return long
+	 */
+	public long getRevenue(String recipeName) {
+		Tally tally = tallies.get(recipeName);
+		if (tally == null) {
+			return 0;
+		}
+		synchronized (this) {
+			return tally.revenue.sum() - tally.closedRevenue;
+		}
+	}
+
+	/**
+	 * Ends the day and returns what every recipe sold during it.
+	 * The next day starts right away.
+	 * @return SalesSummary
+	 */
+	public synchronized SalesSummary closeDay() {
+		long closedAt = clock.getAsLong();
+		Map<String, long[]> sold = new TreeMap<String, long[]>();
+		for (Map.Entry<String, Tally> e : tallies.entrySet()) {
+			Tally tally = e.getValue();
+			long units = tally.units.sum();
+			long revenue = tally.revenue.sum();
+			if (units != tally.closedUnits || revenue != tally.closedRevenue) {
+				sold.put(e.getKey(), new long[] {units - tally.closedUnits, revenue - tally.closedRevenue});
+			}
+			tally.closedUnits = units;
+			tally.closedRevenue = revenue;
+		}
+		SalesSummary summary = new SalesSummary(openedAt, closedAt, sold);
+		openedAt = closedAt;
+		return summary;
+	}
+}
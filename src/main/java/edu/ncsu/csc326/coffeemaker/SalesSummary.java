@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * What a coffee maker sold during one day, as closed by
+ * {@link SalesLedger#closeDay()}.  Recipes are in name order and
+ * only recipes that sold are listed.
+ */
+public final class SalesSummary {
+
+	private final long openedAt;
+	private final long closedAt;
+	private final String[] names;
+	private final long[] units;
+	private final long[] revenue;
+
+	SalesSummary(long openedAt, long closedAt, Map<String, long[]> sold) {
+		this.openedAt = openedAt;
+		this.closedAt = closedAt;
+		this.names = new String[sold.size()];
+		this.units = new long[sold.size()];
+		this.revenue = new long[sold.size()];
+		int i = 0;
+		for (Map.Entry<String, long[]> e : sold.entrySet()) {
+			names[i] = e.getKey();
+			units[i] = e.getValue()[0];
+			revenue[i] = e.getValue()[1];
+			i++;
+		}
+	}
+
+	/**
+	 * @return   Returns the time the day was opened, in milliseconds.
+	 */
+	public long getOpenedAt() {
+		return openedAt;
+	}
+
+	/**
+	 * @return   Returns the time the day was closed, in milliseconds.
+	 */
+	public long getClosedAt() {
+		return closedAt;
+	}
+
+	/**
+	 * @return   Returns the names of the recipes sold, in name order.
+	 */
+	public String[] getRecipeNames() {
+		return names.clone();
+	}
+
+	/**
+	 * Returns the number of beverages of a recipe sold, or 0 if
+	 * it sold none.
+	 * @param recipeName
+	 * @return long
+	 */
+	public long getUnits(String recipeName) {
+		int i = Arrays.binarySearch(names, recipeName);
+		return i < 0 ? 0 : units[i];
+	}
+
+	/**
+	 * Returns the revenue of a recipe, or 0 if it sold none.
+	 * @param recipeName
+	 * @return long
+	 */
+	public long getRevenue(String recipeName) {
+		int i = Arrays.binarySearch(names, recipeName);
+		return i < 0 ? 0 : revenue[i];
+	}
+
+	/**
+	 * @return   Returns the number of beverages sold.
+	 */
+	public long getTotalUnits() {
+		long total = 0;
+		for (long u : units) {
+			total += u;
+		}
+		return total;
+	}
+
+	/**
+	 * @return   Returns the revenue of every recipe together.
+	 */
+	public long getTotalRevenue() {
+		long total = 0;
+		for (long r : revenue) {
+			total += r;
+		}
+		return total;
+	}
+
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		buf.append("Sales from ").append(new Date(openedAt)).append(" to ").append(new Date(closedAt)).append("\n");
+		for (int i = 0; i < names.length; i++) {
+			buf.append(names[i]).append(": ").append(units[i]).append(" sold, ").append(revenue[i]).append("\n");
+		}
+		buf.append("Total: ").append(getTotalUnits()).append(" sold, ").append(getTotalRevenue()).append("\n");
+		return buf.toString();
+	}
+}
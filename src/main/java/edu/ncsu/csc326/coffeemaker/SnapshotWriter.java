@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a {@link CoffeeMakerSnapshot} of a coffee maker from a
+ * background thread at a fixed interval.
+ *
+ * A snapshot is only written when the recipes or inventory changed
+ * since the last one.  The state is read without locks, so orders
+ * are never paused while a snapshot is taken.
+ *
+ * With a journal, each snapshot starts a new journal segment and,
+ * once it is on disk, checkpoints the journal so the segments it
+ * covers are deleted.  A restart then only reads the journal written
+ * since the last snapshot.
+ */
+public class SnapshotWriter implements Closeable {
+
+	private final CoffeeMaker coffeeMaker;
+	private final Journal journal;
+	private final File file;
+	private final ScheduledExecutorService scheduler;
+	/** Versions captured by the last snapshot written */
+	private long inventoryVersion = -1;
+	private long recipeVersion = -1;
+	/** First error hit by the background thread, reported by write and close */
+	private volatile IOException failure;
+
+	/**
+	 * Starts writing snapshots of the coffee maker to the file every
+	 * intervalMillis.
+	 * @param coffeeMaker
+	 * @param journal journal the coffee maker's changes are recorded
+	 * 		in, or null if there is none
+	 * @param file
+	 * @param intervalMillis
+	 */
+	public SnapshotWriter(CoffeeMaker coffeeMaker, Journal journal, File file, long intervalMillis) {
+		this.coffeeMaker = coffeeMaker;
+		this.journal = journal;
+		this.file = file;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "snapshot-" + SnapshotWriter.this.file.getName());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					write();
+				} catch (IOException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes a snapshot now if anything changed since the last one.
+	 * @return true if a snapshot was written
+	 * @throws IOException if this or an earlier background write failed
+	 */
+	public synchronized boolean write() throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			throw new IOException("Snapshot " + file + " failed", e);
+		}
+		if (coffeeMaker.getInventory().getVersion() == inventoryVersion
+				&& coffeeMaker.getRecipeSnapshot().getVersion() == recipeVersion) {
+			return false;
+		}
+		// Read the journal position before the state, so every record
+		// before it is covered by the snapshot.
+		long journalOffset = 0;
+		if (journal != null) {
+			journal.rotate();
+			journalOffset = journal.getStablePosition();
+		}
+		long inventory = coffeeMaker.getInventory().getVersion();
+		long recipes = coffeeMaker.getRecipeSnapshot().getVersion();
+		CoffeeMakerSnapshot.write(coffeeMaker, journalOffset, file);
+		if (journal != null) {
+			journal.checkpoint(journalOffset);
+		}
+		inventoryVersion = inventory;
+		recipeVersion = recipes;
+		return true;
+	}
+
+	/**
+	 * Stops the background thread and writes a final snapshot.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		write();
+	}
+}
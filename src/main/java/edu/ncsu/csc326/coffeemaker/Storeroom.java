@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Central storeroom that several coffee makers draw from.
+ *
+ * Rather than asking the storeroom for every order, each attached
+ * machine holds a slice of every ingredient in escrow in its own
+ * {@link Inventory} and makes orders from it with no coordination.
+ * When an order takes some of an ingredient and leaves the machine's
+ * count below the low-water mark, the machine asks to be topped up
+ * unless a request is already queued.  A machine that stays low after
+ * a top-up the storeroom could not fill, or after lending units, asks
+ * again on its next order that uses the ingredient.  The request is
+ * handled on the storeroom's rebalancer, off the order path, and
+ * refills every ingredient of that machine up to its quota.  If the
+ * storeroom itself is short, it borrows from the machine holding the
+ * most of that ingredient, evening the two out.
+ *
+ * Units only ever move between the storeroom and a machine: the
+ * storeroom never grants more than it holds, a machine never gives
+ * more than it holds, and no machine can sell more than its slice, so
+ * no count anywhere goes negative and the units in the storeroom and
+ * in all machines only fall by what was sold.  Every request, grant
+ * and loan is counted as one coordination message.
+ */
+public final class Storeroom {
+
+	private final IngredientCatalog catalog;
+	/** Units held centrally, guarded by this */
+	private final int[] stock;
+	/** Units a machine is topped up to */
+	private final int[] quota;
+	/** Count below which a machine asks to be topped up */
+	private final int[] lowWater;
+	private final Executor rebalancer;
+	/** The rebalancer, if the storeroom started it */
+	private final ExecutorService owned;
+	private final CopyOnWriteArrayList<Slice> slices = new CopyOnWriteArrayList<Slice>();
+	private final LongAdder messages = new LongAdder();
+
+	/**
+	 * Creates a storeroom that rebalances on its own daemon thread.
+	 * @param catalog
+	 * @param stock units held centrally, in catalog order
+	 * @param quota units each machine is topped up to
+	 * @param lowWater count below which a machine asks for more
+	 */
+	public Storeroom(IngredientCatalog catalog, int[] stock, int[] quota, int[] lowWater) {
+		this(catalog, stock, quota, lowWater, null);
+	}
+
+	/**
+	 * Creates a storeroom that rebalances on the given executor, or on
+	 * its own daemon thread if it is null.
+	 */
+	Storeroom(IngredientCatalog catalog, int[] stock, int[] quota, int[] lowWater, Executor rebalancer) {
+		int n = catalog.size();
+		if (stock.length != n || quota.length != n || lowWater.length != n) {
+			throw new IllegalArgumentException("Expected one amount per ingredient");
+		}
+		for (int i = 0; i < n; i++) {
+			if (stock[i] < 0 || lowWater[i] < 0 || lowWater[i] > quota[i]) {
+				throw new IllegalArgumentException("Invalid amounts for " + catalog.getName(i));
+			}
+		}
+		this.catalog = catalog;
+		this.stock = stock.clone();
+		this.quota = quota.clone();
+		this.lowWater = lowWater.clone();
+		if (rebalancer == null) {
+			owned = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "storeroom-rebalancer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			this.rebalancer = owned;
+		} else {
+			owned = null;
+			this.rebalancer = rebalancer;
+		}
+	}
+
+	/**
+	 * Attaches a machine and tops its inventory up to the quota.  The
+	 * machine must stock the storeroom's catalog.
+	 * @param machine
+	 */
+	public void attach(CoffeeMaker machine) {
+		Inventory inventory = machine.getInventory();
+		if (inventory.getCatalog().size() != catalog.size()) {
+			throw new IllegalArgumentException("The machine stocks a different catalog");
+		}
+		Slice slice = new Slice(inventory);
+		synchronized (this) {
+			slices.add(slice);
+			rebalance(slice);
+		}
+		inventory.addListener(slice);
+	}
+
+	/**
+	 * Adds units to the central stock and tops up every machine that
+	 * is below its low-water mark.
+	 * @param units one amount per ingredient
+	 */
+	public void restock(int[] units) {
+		synchronized (this) {
+			for (int i = 0; i < stock.length; i++) {
+				if (units[i] < 0) {
+					throw new IllegalArgumentException("Units must be non-negative");
+				}
+			}
+			for (int i = 0; i < stock.length; i++) {
+				stock[i] += units[i];
+			}
+		}
+		for (Slice slice : slices) {
+			if (slice.isLow()) {
+				slice.request();
+			}
+		}
+	}
+
+	/**
+	 * Returns the units of an ingredient held centrally.
+	 * @param ingredient
+	 * @return int
+	 */
+	public synchronized int getStock(int ingredient) {
+		return stock[ingredient];
+	}
+
+	/**
+	 * Returns the units of an ingredient held centrally and by every
+	 * attached machine.  The machines keep selling while they are
+	 * counted, so under load this is only approximate.
+	 * @param ingredient
+	 * @return long
+	 */
+	public synchronized long getTotal(int ingredient) {
+		long total = stock[ingredient];
+		for (Slice slice : slices) {
+			total += slice.inventory.getAmount(ingredient);
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the number of machines attached.
+	 * @return int
+	 */
+	public int getMachines() {
+		return slices.size();
+	}
+
+	/**
+	 * Returns the number of coordination messages exchanged with the
+	 * machines: top-up requests, grants and loans.
+	 * @return long
+	 */
+	public long getMessages() {
+		return messages.sum();
+	}
+
+	/**
+	 * Stops the storeroom's own rebalancer thread, if it has one.
+	 */
+	public void close() {
+		if (owned != null) {
+			owned.shutdown();
+		}
+	}
+
+	/**
+	 * Tops every ingredient of the machine up to its quota, as far as
+	 * the storeroom and the other machines allow.
+	 */
+	private synchronized void rebalance(Slice slice) {
+		int[] counts = slice.inventory.getAmounts();
+		int[] grant = new int[stock.length];
+		boolean granted = false;
+		for (int i = 0; i < stock.length; i++) {
+			int want = quota[i] - counts[i];
+			if (want <= 0) {
+				continue;
+			}
+			if (stock[i] < want) {
+				borrow(slice, i, want - stock[i], counts[i]);
+			}
+			grant[i] = Math.min(want, stock[i]);
+			stock[i] -= grant[i];
+			granted |= grant[i] > 0;
+		}
+		if (granted) {
+			slice.inventory.deposit(grant);
+			messages.increment();
+		}
+	}
+
+	/**
+	 * Moves up to the missing units of one ingredient into the central
+	 * stock from the machine that has the most of it, leaving that
+	 * machine with no less than the one being topped up.
+	 */
+	private void borrow(Slice slice, int ingredient, int missing, int have) {
+		Slice donor = null;
+		int most = have;
+		for (Slice other : slices) {
+			int count = other.inventory.getAmount(ingredient);
+			if (other != slice && count > most) {
+				donor = other;
+				most = count;
+			}
+		}
+		int units = Math.min(missing, (most - have) / 2);
+		if (donor == null || units <= 0) {
+			return;
+		}
+		int[] wanted = new int[stock.length];
+		wanted[ingredient] = units;
+		stock[ingredient] += donor.inventory.withdraw(wanted)[ingredient];
+		messages.increment();
+	}
+
+	/**
+	 * One machine's escrow: watches the machine's inventory and asks
+	 * for a top-up whenever an order takes an ingredient below the
+	 * low-water mark and no request is queued.
+	 */
+	private final class Slice implements InventoryListener {
+		final Inventory inventory;
+		/** Set while a top-up request is queued */
+		private final AtomicBoolean pending = new AtomicBoolean();
+
+		Slice(Inventory inventory) {
+			this.inventory = inventory;
+		}
+
+		public void inventoryChanged(InventoryListener.Change change, long version, int[] before, int[] after) {
+			if (change != InventoryListener.Change.USE && change != InventoryListener.Change.RESERVE) {
+				return;
+			}
+			for (int i = 0; i < after.length; i++) {
+				if (after[i] < lowWater[i] && after[i] < before[i]) {
+					request();
+					return;
+				}
+			}
+		}
+
+		boolean isLow() {
+			for (int i = 0; i < lowWater.length; i++) {
+				if (inventory.getAmount(i) < lowWater[i]) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void request() {
+			if (pending.compareAndSet(false, true)) {
+				messages.increment();
+				rebalancer.execute(new Runnable() {
+					public void run() {
+						pending.set(false);
+						rebalance(Slice.this);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Simulates a day of orders spread over growing numbers of machines
+	 * and prints how many coordination messages the storeroom needed,
+	 * against one per order for a single shared inventory.
+	 *
+	 * Usage: Storeroom [orders per machine] [max machines]
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int perMachine = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int maxMachines = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		Recipe coffee = new Recipe();
+		coffee.setName("Coffee");
+		coffee.setPrice(50);
+		coffee.setAmount(IngredientCatalog.COFFEE, 3);
+		coffee.setAmount(IngredientCatalog.MILK, 1);
+		coffee.setAmount(IngredientCatalog.SUGAR, 1);
+		System.out.printf("%8s %10s %10s %12s %10s%n", "machines", "orders", "messages", "msgs/order", "stockouts");
+		for (int machines = 1; machines <= maxMachines; machines *= 2) {
+			int orders = perMachine * machines;
+			long[] result = simulate(machines, orders, coffee, new Random(machines));
+			System.out.printf("%8d %10d %10d %12.4f %10d%n", machines, orders, result[0],
+					(double) result[0] / orders, result[1]);
+		}
+		System.out.println("A single shared inventory needs at least one message per order.");
+	}
+
+	/**
+	 * Places orders on randomly chosen machines, with just enough
+	 * central stock for all of them, and returns the messages and
+	 * stockouts.
+	 */
+	static long[] simulate(int machines, int orders, Recipe recipe, Random random) {
+		IngredientCatalog catalog = IngredientCatalog.DEFAULT;
+		int[] stock = new int[catalog.size()];
+		for (int i = 0; i < stock.length; i++) {
+			stock[i] = recipe.getAmount(i) * orders;
+		}
+		int[] quota = {60, 20, 20, 20};
+		int[] lowWater = {15, 5, 5, 5};
+		Storeroom storeroom = new Storeroom(catalog, stock, quota, lowWater, new Executor() {
+			public void execute(Runnable task) {
+				task.run();
+			}
+		});
+		CoffeeMaker[] fleet = new CoffeeMaker[machines];
+		for (int m = 0; m < machines; m++) {
+			fleet[m] = new CoffeeMaker(catalog);
+			for (int i = 0; i < catalog.size(); i++) {
+				fleet[m].getInventory().setAmount(i, 0);
+			}
+			fleet[m].addRecipe(recipe);
+			storeroom.attach(fleet[m]);
+		}
+		long stockouts = 0;
+		for (int i = 0; i < orders; i++) {
+			if (fleet[random.nextInt(machines)].makeCoffee(0, recipe.getPrice()) != 0) {
+				stockouts++;
+			}
+		}
+		return new long[] {storeroom.getMessages(), stockouts};
+	}
+}
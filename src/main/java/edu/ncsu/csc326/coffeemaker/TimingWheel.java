@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel that expires {@link Reservation}s.
+ *
+ * Time is cut into ticks and the wheel has one bucket per tick for a
+ * single turn; a reservation due several turns ahead waits in its
+ * bucket with a count of turns left.  Scheduling only appends to a
+ * lock-free queue, and commit and cancel only change the reservation's
+ * state, so each costs O(1) no matter how many reservations are in
+ * flight.  The wheel thread moves new reservations into their buckets
+ * and on each tick walks one bucket, dropping reservations that are
+ * no longer pending and expiring the ones that are due.  Expiry is
+ * late by at most one tick.
+ *
+ * One wheel and one daemon thread serve every inventory.
+ */
+final class TimingWheel {
+
+	/** Wheel shared by all inventories, started on first use */
+	static final class Shared {
+		static final TimingWheel WHEEL = new TimingWheel(TimeUnit.MILLISECONDS.toNanos(10), 512);
+	}
+
+	private final long tick;
+	private final Reservation[] buckets;
+	private final int mask;
+	private final ConcurrentLinkedQueue<Reservation> scheduled = new ConcurrentLinkedQueue<Reservation>();
+	private final long start;
+	/** Ticks processed so far; only used by the wheel thread */
+	private long ticks;
+	/** Expiries that threw; the units were given back regardless */
+	private volatile long failures;
+
+	/**
+	 * Starts a wheel thread.
+	 * @param tickNanos length of one tick
+	 * @param size number of buckets; a power of two
+	 */
+	TimingWheel(long tickNanos, int size) {
+		this.tick = tickNanos;
+		this.buckets = new Reservation[size];
+		this.mask = size - 1;
+		this.start = System.nanoTime();
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				turn();
+			}
+		}, "reservation-expiry");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Expires the reservation at its deadline unless it is committed
+	 * or cancelled first.
+	 */
+	void schedule(Reservation r) {
+		scheduled.add(r);
+	}
+
+	/**
+	 * Body of the wheel thread.
+	 */
+	private void turn() {
+		for (;;) {
+			long wait;
+			while ((wait = start + (ticks + 1) * tick - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(this, wait);
+			}
+			transfer();
+			expire((int) ticks & mask);
+			ticks++;
+		}
+	}
+
+	/**
+	 * Moves newly scheduled reservations into their buckets.
+	 */
+	private void transfer() {
+		Reservation r;
+		while ((r = scheduled.poll()) != null) {
+			if (r.getState() != Reservation.State.PENDING) {
+				continue;
+			}
+			long due = Math.max((r.deadline - start) / tick, ticks);
+			r.rounds = (due - ticks) / buckets.length;
+			int bucket = (int) due & mask;
+			r.next = buckets[bucket];
+			buckets[bucket] = r;
+		}
+	}
+
+	/**
+	 * Expires one reservation.  The units are back in the inventory
+	 * before its listeners run, so a listener that throws is reported
+	 * and the wheel keeps turning.
+	 */
+	private void expire(Reservation r) {
+		try {
+			r.expire();
+		} catch (RuntimeException e) {
+			failures++;
+			System.err.println("Reservation expiry failed: " + e);
+		}
+	}
+
+	/**
+	 * Returns the number of expiries that threw.
+	 */
+	long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Walks one bucket, expiring what is due and unlinking whatever
+	 * is no longer pending.
+	 */
+	private void expire(int bucket) {
+		Reservation prev = null;
+		Reservation r = buckets[bucket];
+		while (r != null) {
+			Reservation next = r.next;
+			boolean done = r.getState() != Reservation.State.PENDING;
+			if (!done && r.rounds <= 0) {
+				expire(r);
+				done = true;
+			}
+			if (done) {
+				r.next = null;
+				if (prev == null) {
+					buckets[bucket] = next;
+				} else {
+					prev.next = next;
+				}
+			} else {
+				r.rounds--;
+				prev = r;
+			}
+			r = next;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * How the {@link OrderDispatcher} thread waits for orders, and how
+ * a submitting thread waits for room when the ring is full.
+ */
+public enum WaitStrategy {
+	/** Spin without giving up the CPU: lowest latency, one core always busy */
+	BUSY_SPIN,
+	/** Spin, but let other threads run between checks */
+	YIELD,
+	/** Sleep until woken by the next order: no CPU used while idle */
+	PARK
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker;
+
+/**
+ * Records changes to an {@link Inventory} or {@link RecipeBook} before
+ * they are published.
+ *
+ * The inventory or recipe book hands the log each change before other
+ * threads can see it, then commits the record once the change is
+ * published, or aborts it if the change lost a race and was not made.
+ * Only committed records may be recovered, so a change is recoverable
+ * from the moment the thread that made it moves on, and a change that
+ * was never made is never recovered.  Commit or abort follows on the
+ * same thread before it logs anything else.  Logs run on the order
+ * path and must be quick and must not throw.
+ */
+public interface WriteAheadLog {
+
+	/**
+	 * Records an inventory change that is about to be published.
+	 * @param change what kind of change is being made
+	 * @param version inventory version after the change
+	 * @param after counts after the change, in catalog order; shared
+	 * 		with the inventory and must not be modified
+	 * @return a handle for {@link #commit(long)} or {@link #abort(long)}
+	 */
+	long inventoryChanging(InventoryListener.Change change, long version, int[] after);
+
+	/**
+	 * Records a recipe book change that is about to be published.
+	 * @param change what kind of change is being made
+	 * @param recipeId id of the recipe that changes
+	 * @param after the recipe book after the change
+	 * @return a handle for {@link #commit(long)} or {@link #abort(long)}
+	 */
+	long recipeChanging(RecipeBookListener.Change change, int recipeId, RecipeSnapshot after);
+
+	/**
+	 * Makes a record recoverable once its change is published.
+	 * @param record
+	 */
+	void commit(long record);
+
+	/**
+	 * Discards a record whose change was not made.
+	 * @param record
+	 */
+	void abort(long record);
+}
@@ -17,8 +17,14 @@ public class InventoryException extends Exception {
 
 	private static final long serialVersionUID = 1L;
 	
+	/**
+	 * Creates an exception without a stack trace.  These exceptions
+	 * report bad input, so where they were thrown tells nothing new
+	 * and filling in the trace would cost more than the check itself.
+	 * @param msg
+	 */
 	public InventoryException(String msg) {
-		super(msg);
+		super(msg, null, false, false);
 	}
 
 }
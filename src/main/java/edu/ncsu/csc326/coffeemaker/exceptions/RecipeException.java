@@ -17,8 +17,13 @@ public class RecipeException extends Exception {
 	
 private static final long serialVersionUID = 1L;
 
+	/**
+	 * Creates an exception without a stack trace; the message alone
+	 * says which recipe value was rejected.
+	 * @param msg
+	 */
 	public RecipeException(String msg) {
-		super(msg);
+		super(msg, null, false, false);
 	}
 
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import edu.ncsu.csc326.coffeemaker.IngredientCatalog;
+import edu.ncsu.csc326.coffeemaker.OrderStatus;
+import edu.ncsu.csc326.coffeemaker.Recipe;
+import edu.ncsu.csc326.coffeemaker.exceptions.InventoryException;
+
+/**
+ * Load generator for an {@link OrderServer}.
+ *
+ * Opens many connections from a single thread and keeps a fixed number
+ * of pipelined orders in flight on each for a fixed time, then prints
+ * the throughput and order latency.  Before starting, it adds a cheap
+ * one-coffee recipe and plenty of coffee so that orders don't run the
+ * machine dry.
+ *
+ * Usage: LoadClient [host] [port] [connections] [depth] [seconds]
+ */
+public class LoadClient {
+
+	private static final String RECIPE = "Load Test";
+	private static final int PRICE = 1;
+	/** Latencies are counted per microsecond up to this many */
+	private static final int MAX_MICROS = 1000000;
+
+	private final long[] histogram = new long[MAX_MICROS + 1];
+	private long completed;
+	private long refused;
+
+	/**
+	 * Runs the load test.
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String host = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		int connections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int depth = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+		int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+		InetSocketAddress address = new InetSocketAddress(host, port);
+
+		setUp(address);
+		LoadClient client = new LoadClient();
+		long elapsed = client.run(address, connections, depth, seconds * 1000000000L);
+		client.report(connections, depth, elapsed);
+	}
+
+	/**
+	 * Adds the load test recipe and stocks up on coffee.
+	 */
+	private static void setUp(InetSocketAddress address) throws Exception {
+		OrderClient setup = new OrderClient(address);
+		try {
+			Recipe r = new Recipe();
+			r.setName(RECIPE);
+			r.setPrice(PRICE);
+			r.setAmount(IngredientCatalog.COFFEE, 1);
+			setup.addRecipe(r);
+			try {
+				setup.addInventory(1000000000, 0, 0, 0);
+			} catch (InventoryException e) {
+				// Earlier runs already stocked the server up to the limit.
+				System.out.println(e.getMessage());
+			}
+		} finally {
+			setup.close();
+		}
+	}
+
+	/**
+	 * Keeps depth orders in flight on every connection for the given
+	 * time and returns how long it took until every order was answered.
+	 */
+	private long run(InetSocketAddress address, int connections, int depth, long duration) throws IOException {
+		ByteBuffer order = ByteBuffer.allocate(4 + 1 + Protocol.stringSize(RECIPE) + 4);
+		order.putInt(0).put(Protocol.MAKE_COFFEE_NAME);
+		Protocol.putString(order, RECIPE);
+		order.putInt(PRICE);
+		order.putInt(0, order.position() - 4);
+		order.flip();
+
+		Selector selector = Selector.open();
+		for (int i = 0; i < connections; i++) {
+			SocketChannel channel = SocketChannel.open(address);
+			channel.socket().setTcpNoDelay(true);
+			channel.configureBlocking(false);
+			Connection c = new Connection(channel, order, depth);
+			c.key = channel.register(selector, SelectionKey.OP_READ, c);
+		}
+
+		long start = System.nanoTime();
+		long stop = start + duration;
+		for (SelectionKey key : selector.keys()) {
+			Connection c = (Connection) key.attachment();
+			for (int i = 0; i < depth; i++) {
+				c.send(start);
+			}
+			c.flush();
+		}
+		int open = connections;
+		while (open > 0) {
+			selector.select(100);
+			long now = System.nanoTime();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				Connection c = (Connection) key.attachment();
+				if (key.isWritable()) {
+					c.flush();
+				}
+				if (key.isReadable() && c.read(now, now < stop)) {
+					c.channel.close();
+					open--;
+				}
+			}
+		}
+		selector.close();
+		return System.nanoTime() - start;
+	}
+
+	private void report(int connections, int depth, long elapsed) {
+		double seconds = elapsed / 1e9;
+		System.out.printf("%d connections, %d orders in flight each%n", connections, depth);
+		System.out.printf("%d orders in %.1f s: %.0f orders/s, %d refused%n",
+				completed, seconds, completed / seconds, refused);
+		System.out.printf("latency p50 %s, p99 %s, p99.9 %s, max %s%n",
+				percentile(0.5), percentile(0.99), percentile(0.999), percentile(1.0));
+	}
+
+	private String percentile(double p) {
+		long rank = (long) Math.ceil(p * completed);
+		long seen = 0;
+		for (int micros = 0; micros < histogram.length; micros++) {
+			seen += histogram[micros];
+			if (seen >= rank && seen > 0) {
+				return micros == MAX_MICROS ? ">" + MAX_MICROS + " us" : micros + " us";
+			}
+		}
+		return "-";
+	}
+
+	/**
+	 * One connection and the send times of its orders in flight.
+	 */
+	private final class Connection {
+		final SocketChannel channel;
+		SelectionKey key;
+		private final ByteBuffer order;
+		private final ByteBuffer out;
+		private final ByteBuffer in = ByteBuffer.allocate(4096);
+		/** Send times of the orders in flight, oldest first */
+		private final long[] sent;
+		private int oldest;
+		private int inFlight;
+
+		Connection(SocketChannel channel, ByteBuffer order, int depth) {
+			this.channel = channel;
+			this.order = order;
+			this.out = ByteBuffer.allocate(order.remaining() * depth);
+			this.sent = new long[depth];
+		}
+
+		void send(long now) {
+			out.put(order.duplicate());
+			sent[(oldest + inFlight) % sent.length] = now;
+			inFlight++;
+		}
+
+		void flush() throws IOException {
+			out.flip();
+			channel.write(out);
+			out.compact();
+			key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+
+		/**
+		 * Reads responses, sending a new order for each one while
+		 * the test runs, and returns true once nothing is in flight
+		 * after the test ended.
+		 */
+		boolean read(long now, boolean running) throws IOException {
+			if (channel.read(in) < 0) {
+				throw new IOException("Server closed the connection");
+			}
+			in.flip();
+			while (in.remaining() >= 4 && in.remaining() >= 4 + in.getInt(in.position())) {
+				int length = in.getInt();
+				int end = in.position() + length;
+				if (in.get() != Protocol.OK || in.get() != OrderStatus.SUCCESS.ordinal()) {
+					refused++;
+				}
+				in.position(end);
+				record(now - sent[oldest]);
+				oldest = (oldest + 1) % sent.length;
+				inFlight--;
+				if (running) {
+					send(now);
+				}
+			}
+			in.compact();
+			flush();
+			return !running && inFlight == 0;
+		}
+	}
+
+	private void record(long nanos) {
+		completed++;
+		histogram[(int) Math.min(nanos / 1000, MAX_MICROS)]++;
+	}
+}
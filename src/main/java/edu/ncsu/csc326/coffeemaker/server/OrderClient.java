@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import edu.ncsu.csc326.coffeemaker.OrderResult;
+import edu.ncsu.csc326.coffeemaker.OrderStatus;
+import edu.ncsu.csc326.coffeemaker.Recipe;
+import edu.ncsu.csc326.coffeemaker.exceptions.InventoryException;
+import edu.ncsu.csc326.coffeemaker.exceptions.RecipeException;
+
+/**
+ * Blocking client for an {@link OrderServer}.  Its methods mirror
+ * those of the coffee maker.  A client is meant for one thread at a
+ * time.
+ */
+public class OrderClient implements Closeable {
+
+	/**
+	 * Most orders a batch keeps in flight.  Their responses stay far
+	 * below what the server buffers before it stops reading, so the
+	 * server never waits on a client that is still writing.
+	 */
+	static final int MAX_IN_FLIGHT = 1024;
+
+	private final SocketChannel channel;
+	private ByteBuffer out = ByteBuffer.allocate(4096);
+	private ByteBuffer in = ByteBuffer.allocate(4096);
+
+	/**
+	 * Connects to an order server.
+	 * @param address
+	 * @throws IOException
+	 */
+	public OrderClient(InetSocketAddress address) throws IOException {
+		channel = SocketChannel.open(address);
+		channel.socket().setTcpNoDelay(true);
+		in.flip();
+	}
+
+	/**
+	 * Returns true if the recipe was added to the server's coffee maker.
+	 * @param r
+	 * @return boolean
+	 * @throws IOException
+	 */
+	public boolean addRecipe(Recipe r) throws IOException {
+		begin(Protocol.ADD_RECIPE);
+		putRecipe(r);
+		end();
+		send();
+		return receiveOk().get() == 1;
+	}
+
+	/**
+	 * Returns the name of the edited recipe, or null if it does not exist.
+	 * @param recipeToEdit
+	 * @param r
+	 * @return String
+	 * @throws IOException
+	 */
+	public String editRecipe(int recipeToEdit, Recipe r) throws IOException {
+		begin(Protocol.EDIT_RECIPE);
+		out.putInt(recipeToEdit);
+		putRecipe(r);
+		end();
+		send();
+		return getName(receiveOk());
+	}
+
+	/**
+	 * Returns the name of the deleted recipe, or null if it does not exist.
+	 * @param recipeToDelete
+	 * @return String
+	 * @throws IOException
+	 */
+	public String deleteRecipe(int recipeToDelete) throws IOException {
+		begin(Protocol.DELETE_RECIPE);
+		out.putInt(recipeToDelete);
+		end();
+		send();
+		return getName(receiveOk());
+	}
+
+	/**
+	 * Adds units of every ingredient, in catalog order.
+	 * @param amounts
+	 * @throws InventoryException if the server refused the amounts
+	 * @throws IOException
+	 */
+	public void addInventory(int... amounts) throws InventoryException, IOException {
+		begin(Protocol.ADD_INVENTORY);
+		ensure(4 + 4 * amounts.length);
+		out.putInt(amounts.length);
+		for (int amount : amounts) {
+			out.putInt(amount);
+		}
+		end();
+		send();
+		ByteBuffer response = receive();
+		byte status = response.get();
+		if (status == Protocol.INVENTORY_ERROR) {
+			throw new InventoryException(Protocol.getString(response));
+		}
+		checkOk(status, response);
+	}
+
+	/**
+	 * Returns the inventory of the server's coffee maker.
+	 * @return String
+	 * @throws IOException
+	 */
+	public String checkInventory() throws IOException {
+		begin(Protocol.CHECK_INVENTORY);
+		end();
+		send();
+		return Protocol.getString(receiveOk());
+	}
+
+	/**
+	 * Returns the change given back for the order.
+	 * @param recipeToPurchase
+	 * @param amtPaid
+	 * @return int
+	 * @throws IOException
+	 */
+	public int makeCoffee(int recipeToPurchase, int amtPaid) throws IOException {
+		return order(recipeToPurchase, amtPaid).getChange();
+	}
+
+	/**
+	 * Returns the change given back for the order.
+	 * @param recipeName
+	 * @param amtPaid
+	 * @return int
+	 * @throws IOException
+	 */
+	public int makeCoffee(String recipeName, int amtPaid) throws IOException {
+		return order(recipeName, amtPaid).getChange();
+	}
+
+	/**
+	 * Returns the change given back for each order.
+	 * @param recipeIds
+	 * @param amtPaid
+	 * @return int []
+	 * @throws IOException
+	 */
+	public int[] makeCoffee(int[] recipeIds, int[] amtPaid) throws IOException {
+		OrderResult[] results = order(recipeIds, amtPaid);
+		int[] change = new int[results.length];
+		for (int i = 0; i < change.length; i++) {
+			change[i] = results[i].getChange();
+		}
+		return change;
+	}
+
+	/**
+	 * Places an order and returns its outcome and change.
+	 * @param recipeToPurchase
+	 * @param amtPaid
+	 * @return OrderResult
+	 * @throws IOException
+	 */
+	public OrderResult order(int recipeToPurchase, int amtPaid) throws IOException {
+		putMakeCoffee(recipeToPurchase, amtPaid);
+		send();
+		return receiveOrder();
+	}
+
+	/**
+	 * Places an order by recipe name and returns its outcome and change.
+	 * @param recipeName
+	 * @param amtPaid
+	 * @return OrderResult
+	 * @throws IOException
+	 */
+	public OrderResult order(String recipeName, int amtPaid) throws IOException {
+		begin(Protocol.MAKE_COFFEE_NAME);
+		ensure(Protocol.stringSize(recipeName) + 4);
+		Protocol.putString(out, recipeName);
+		out.putInt(amtPaid);
+		end();
+		send();
+		return receiveOrder();
+	}
+
+	/**
+	 * Pipelines the orders and returns the outcome of each.  At most
+	 * {@link #MAX_IN_FLIGHT} orders are sent ahead of their responses;
+	 * once that many are waiting, half of them are read before more
+	 * are sent.
+	 * @param recipeIds
+	 * @param amtPaid
+	 * @return OrderResult []
+	 * @throws IOException
+	 */
+	public OrderResult[] order(int[] recipeIds, int[] amtPaid) throws IOException {
+		OrderResult[] results = new OrderResult[recipeIds.length];
+		int sent = 0;
+		int received = 0;
+		while (received < results.length) {
+			while (sent < results.length && sent - received < MAX_IN_FLIGHT) {
+				putMakeCoffee(recipeIds[sent], amtPaid[sent]);
+				sent++;
+			}
+			send();
+			int target = sent == results.length ? sent : sent - MAX_IN_FLIGHT / 2;
+			while (received < target) {
+				results[received++] = receiveOrder();
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Closes the connection.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void putMakeCoffee(int recipeToPurchase, int amtPaid) {
+		begin(Protocol.MAKE_COFFEE);
+		out.putInt(recipeToPurchase);
+		out.putInt(amtPaid);
+		end();
+	}
+
+	private void putRecipe(Recipe r) {
+		int n = r.getCatalog().size();
+		ensure(Protocol.stringSize(r.getName()) + 4 + 4 + 4 * n);
+		Protocol.putString(out, r.getName());
+		out.putInt(r.getPrice());
+		out.putInt(n);
+		for (int i = 0; i < n; i++) {
+			out.putInt(r.getAmount(i));
+		}
+	}
+
+	private static String getName(ByteBuffer response) {
+		return response.get() == 1 ? Protocol.getString(response) : null;
+	}
+
+	/** Position of the length of the request being written */
+	private int frameStart;
+
+	private void begin(byte op) {
+		ensure(4 + 1 + 8);
+		frameStart = out.position();
+		out.putInt(0);
+		out.put(op);
+	}
+
+	private void end() {
+		out.putInt(frameStart, out.position() - frameStart - 4);
+	}
+
+	private void ensure(int n) {
+		if (out.remaining() < n) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + n));
+			out.flip();
+			bigger.put(out);
+			out = bigger;
+		}
+	}
+
+	private void send() throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	/**
+	 * Reads the next response and returns its body after a successful
+	 * status.
+	 */
+	private ByteBuffer receiveOk() throws IOException {
+		ByteBuffer response = receive();
+		checkOk(response.get(), response);
+		return response;
+	}
+
+	/**
+	 * Reads the response to an order.
+	 */
+	private OrderResult receiveOrder() throws IOException {
+		ByteBuffer response = receiveOk();
+		int status = response.get();
+		if (status < 0 || status >= OrderStatus.values().length) {
+			throw new IOException("Unknown order status " + status);
+		}
+		return new OrderResult(OrderStatus.values()[status], response.getInt());
+	}
+
+	private static void checkOk(byte status, ByteBuffer response) throws IOException {
+		if (status != Protocol.OK) {
+			throw new IOException(Protocol.getString(response));
+		}
+	}
+
+	/**
+	 * Reads the next response frame and returns its body.
+	 */
+	private ByteBuffer receive() throws IOException {
+		fill(4);
+		int length = in.getInt(in.position());
+		if (length < 1 || length > Protocol.MAX_FRAME) {
+			throw new IOException("Bad frame length " + length);
+		}
+		fill(4 + length);
+		ByteBuffer response = in.duplicate();
+		response.position(in.position() + 4).limit(in.position() + 4 + length);
+		in.position(in.position() + 4 + length);
+		return response.slice();
+	}
+
+	/**
+	 * Reads until at least n bytes are waiting in the input buffer,
+	 * which is left in read mode.
+	 */
+	private void fill(int n) throws IOException {
+		while (in.remaining() < n) {
+			in.compact();
+			if (in.capacity() < n) {
+				ByteBuffer bigger = ByteBuffer.allocate(n);
+				in.flip();
+				bigger.put(in);
+				in = bigger;
+			}
+			if (channel.read(in) < 0) {
+				throw new IOException("Server closed the connection");
+			}
+			in.flip();
+		}
+	}
+}
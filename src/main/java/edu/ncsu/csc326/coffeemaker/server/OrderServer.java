@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import edu.ncsu.csc326.coffeemaker.CoffeeMaker;
+import edu.ncsu.csc326.coffeemaker.IngredientCatalog;
+import edu.ncsu.csc326.coffeemaker.InputCheck;
+import edu.ncsu.csc326.coffeemaker.OrderResult;
+import edu.ncsu.csc326.coffeemaker.Recipe;
+
+/**
+ * Serves a coffee maker to remote clients over TCP using the
+ * {@link Protocol} wire format.
+ *
+ * One thread accepts connections and hands them round-robin to a
+ * fixed number of event loops.  Each event loop multiplexes its
+ * connections on one selector, so thousands of idle or slow clients
+ * cost a buffer each rather than a thread each.  Every complete
+ * request in a read is handled before anything is written back, and
+ * all of their responses go out in one write, so a client that
+ * pipelines requests gets them answered in batches.  A connection
+ * whose client does not read its responses stops being read until
+ * they drain.
+ *
+ * Requests run directly on the event loop.  The coffee maker's
+ * operations are short and do not block, so there is nothing to gain
+ * from handing them to another thread.
+ */
+public class OrderServer implements Closeable {
+
+	/** Stop reading from a connection with this many response bytes unsent */
+	private static final int HIGH_WATER = 256 * 1024;
+
+	private final CoffeeMaker coffeeMaker;
+	private final ServerSocketChannel server;
+	private final Selector acceptSelector;
+	private final EventLoop[] loops;
+	private final Thread acceptor;
+	private volatile boolean running = true;
+
+	/**
+	 * Starts serving the coffee maker on the given address with one
+	 * event loop per available processor.
+	 * @param coffeeMaker
+	 * @param address port 0 picks a free port
+	 * @throws IOException
+	 */
+	public OrderServer(CoffeeMaker coffeeMaker, InetSocketAddress address) throws IOException {
+		this(coffeeMaker, address, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Starts serving the coffee maker on the given address.
+	 * @param coffeeMaker
+	 * @param address port 0 picks a free port
+	 * @param eventLoops number of threads serving connections
+	 * @throws IOException
+	 */
+	public OrderServer(CoffeeMaker coffeeMaker, InetSocketAddress address, int eventLoops) throws IOException {
+		this.coffeeMaker = coffeeMaker;
+		this.server = ServerSocketChannel.open();
+		server.bind(address, 1024);
+		server.configureBlocking(false);
+		this.acceptSelector = Selector.open();
+		server.register(acceptSelector, SelectionKey.OP_ACCEPT);
+		this.loops = new EventLoop[eventLoops];
+		for (int i = 0; i < eventLoops; i++) {
+			loops[i] = new EventLoop();
+			Thread t = new Thread(loops[i], "order-server-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		this.acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "order-server-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 * @return int
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops accepting connections and closes all open ones.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		running = false;
+		acceptSelector.close();
+		server.close();
+		for (EventLoop loop : loops) {
+			loop.selector.wakeup();
+		}
+		try {
+			acceptor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void accept() {
+		int next = 0;
+		try {
+			while (running) {
+				acceptSelector.select();
+				acceptSelector.selectedKeys().clear();
+				SocketChannel channel;
+				while ((channel = server.accept()) != null) {
+					channel.socket().setTcpNoDelay(true);
+					loops[next].register(channel);
+					next = (next + 1) % loops.length;
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			// closed
+		} catch (IOException e) {
+			if (running) {
+				System.err.println("Order server stopped accepting: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Handles one request and appends its response to the connection's
+	 * output buffer.
+	 */
+	private void handle(ByteBuffer request, Connection c) {
+		int start = c.beginResponse();
+		try {
+			byte op = request.get();
+			switch (op) {
+			case Protocol.ADD_RECIPE:
+				Recipe added = readRecipe(request, c, start);
+				if (added != null) {
+					c.ensure(1 + 1).put(Protocol.OK).put((byte) (coffeeMaker.addRecipe(added) ? 1 : 0));
+				}
+				break;
+			case Protocol.EDIT_RECIPE:
+				int editId = request.getInt();
+				Recipe edited = readRecipe(request, c, start);
+				if (edited != null) {
+					putName(c, coffeeMaker.editRecipe(editId, edited));
+				}
+				break;
+			case Protocol.DELETE_RECIPE:
+				putName(c, coffeeMaker.deleteRecipe(request.getInt()));
+				break;
+			case Protocol.ADD_INVENTORY:
+				int[] amounts = readAmounts(request, request.getInt());
+				int bad = coffeeMaker.tryAddInventory(amounts);
+				if (bad == InputCheck.NONE) {
+					c.ensure(1).put(Protocol.OK);
+				} else {
+					error(c, start, Protocol.INVENTORY_ERROR, InputCheck.message(bad, coffeeMaker.getCatalog()));
+				}
+				break;
+			case Protocol.CHECK_INVENTORY:
+				String inventory = coffeeMaker.checkInventory();
+				Protocol.putString(c.ensure(1 + Protocol.stringSize(inventory)).put(Protocol.OK), inventory);
+				break;
+			case Protocol.MAKE_COFFEE:
+				int recipeId = request.getInt();
+				putOrder(c, coffeeMaker.order(recipeId, request.getInt()));
+				break;
+			case Protocol.MAKE_COFFEE_NAME:
+				String name = Protocol.getString(request);
+				putOrder(c, coffeeMaker.order(name, request.getInt()));
+				break;
+			default:
+				error(c, start, Protocol.BAD_REQUEST, "Unknown operation " + op);
+			}
+		} catch (BufferUnderflowException e) {
+			error(c, start, Protocol.BAD_REQUEST, "Malformed request");
+		} catch (IllegalArgumentException e) {
+			error(c, start, Protocol.BAD_REQUEST, "Malformed request");
+		} catch (RuntimeException e) {
+			// A failure inside the coffee maker fails this request only.
+			error(c, start, Protocol.SERVER_ERROR, "Server error: " + e);
+		}
+		c.endResponse(start);
+	}
+
+	/**
+	 * Reads a recipe from the request.  If it is not valid, writes a
+	 * recipe error as the response and returns null.
+	 */
+	private Recipe readRecipe(ByteBuffer request, Connection c, int start) {
+		IngredientCatalog catalog = coffeeMaker.getCatalog();
+		Recipe r = new Recipe(catalog);
+		r.setName(Protocol.getString(request));
+		int price = request.getInt();
+		int n = request.getInt();
+		if (n > catalog.size()) {
+			error(c, start, Protocol.RECIPE_ERROR, "The coffee maker stocks only " + catalog.size() + " ingredients");
+			return null;
+		}
+		// Ingredients the client did not send are not used by the recipe.
+		int[] amounts = readAmounts(request, n);
+		if (n < catalog.size()) {
+			amounts = Arrays.copyOf(amounts, catalog.size());
+		}
+		int bad = r.trySet(price, amounts);
+		if (bad != InputCheck.NONE) {
+			error(c, start, Protocol.RECIPE_ERROR, InputCheck.message(bad, catalog));
+			return null;
+		}
+		return r;
+	}
+
+	/**
+	 * Reads n amounts from the request.
+	 */
+	private static int[] readAmounts(ByteBuffer request, int n) {
+		if (n < 0 || n > request.remaining() / 4) {
+			throw new BufferUnderflowException();
+		}
+		int[] amounts = new int[n];
+		for (int i = 0; i < n; i++) {
+			amounts[i] = request.getInt();
+		}
+		return amounts;
+	}
+
+	private static void putName(Connection c, String name) {
+		if (name == null) {
+			c.ensure(2).put(Protocol.OK).put((byte) 0);
+		} else {
+			Protocol.putString(c.ensure(2 + Protocol.stringSize(name)).put(Protocol.OK).put((byte) 1), name);
+		}
+	}
+
+	private static void putOrder(Connection c, OrderResult result) {
+		c.ensure(2 + 4).put(Protocol.OK).put((byte) result.getStatus().ordinal()).putInt(result.getChange());
+	}
+
+	/**
+	 * Replaces whatever part of a response was written with an error.
+	 */
+	private static void error(Connection c, int start, byte status, String message) {
+		c.out.position(start + 4);
+		Protocol.putString(c.ensure(1 + Protocol.stringSize(message)).put(status), message);
+	}
+
+	/**
+	 * Serves the connections registered with one selector.
+	 */
+	private final class EventLoop implements Runnable {
+		final Selector selector;
+		/** Connections accepted but not yet registered with the selector */
+		private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+
+		EventLoop() throws IOException {
+			selector = Selector.open();
+		}
+
+		void register(SocketChannel channel) {
+			pending.add(channel);
+			selector.wakeup();
+		}
+
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					SocketChannel channel;
+					while ((channel = pending.poll()) != null) {
+						channel.configureBlocking(false);
+						SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+						key.attach(new Connection(channel, key));
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						Connection c = (Connection) key.attachment();
+						try {
+							if (key.isReadable()) {
+								c.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								c.flush();
+							}
+						} catch (IOException e) {
+							c.close();
+						} catch (RuntimeException e) {
+							System.err.println("Order server closed a connection: " + e);
+							c.close();
+						}
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("Order server event loop stopped: " + e.getMessage());
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					((Connection) key.attachment()).close();
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Buffers of one client connection.
+	 */
+	private final class Connection {
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		/** Received bytes not yet handled, in write mode */
+		private ByteBuffer in = ByteBuffer.allocate(4096);
+		/** Responses not yet sent, in write mode */
+		ByteBuffer out = ByteBuffer.allocate(4096);
+
+		Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+
+		/**
+		 * Reads what the client sent and handles every complete request.
+		 */
+		void read() throws IOException {
+			if (channel.read(in) < 0) {
+				close();
+				return;
+			}
+			process();
+			flush();
+		}
+
+		private void process() throws IOException {
+			in.flip();
+			while (in.remaining() >= 4 && out.position() < HIGH_WATER) {
+				int length = in.getInt(in.position());
+				if (length < 1 || length > Protocol.MAX_FRAME) {
+					throw new IOException("Bad frame length " + length);
+				}
+				if (in.remaining() < 4 + length) {
+					break;
+				}
+				int end = in.position() + 4 + length;
+				ByteBuffer request = in.duplicate();
+				request.position(in.position() + 4).limit(end);
+				handle(request, this);
+				in.position(end);
+			}
+			if (in.remaining() >= 4) {
+				// The loop may have stopped on a full output buffer before
+				// checking this frame, so check it before growing for it.
+				int length = in.getInt(in.position());
+				if (length < 1 || length > Protocol.MAX_FRAME) {
+					throw new IOException("Bad frame length " + length);
+				}
+				int needed = 4 + length;
+				if (needed > in.capacity()) {
+					ByteBuffer bigger = ByteBuffer.allocate(needed);
+					bigger.put(in);
+					in = bigger;
+					return;
+				}
+			}
+			in.compact();
+		}
+
+		/**
+		 * Writes as much of the pending responses as the socket takes,
+		 * handling requests held back while the output was full.
+		 */
+		void flush() throws IOException {
+			for (;;) {
+				out.flip();
+				channel.write(out);
+				out.compact();
+				if (out.position() >= HIGH_WATER || !hasRequest()) {
+					break;
+				}
+				process();
+			}
+			if (out.position() == 0) {
+				key.interestOps(SelectionKey.OP_READ);
+			} else if (out.position() >= HIGH_WATER) {
+				key.interestOps(SelectionKey.OP_WRITE);
+			} else {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Returns true if a complete request is waiting to be handled.
+		 */
+		private boolean hasRequest() {
+			return in.position() >= 4 && in.position() >= 4 + in.getInt(0);
+		}
+
+		int beginResponse() {
+			int start = out.position();
+			ensure(4).putInt(0);
+			return start;
+		}
+
+		void endResponse(int start) {
+			out.putInt(start, out.position() - start - 4);
+		}
+
+		/**
+		 * Returns the output buffer with room for at least n more bytes.
+		 */
+		ByteBuffer ensure(int n) {
+			if (out.remaining() < n) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + n));
+				out.flip();
+				bigger.put(out);
+				out = bigger;
+			}
+			return out;
+		}
+
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Serves a new coffee maker on the port given as the first argument,
+	 * 8080 by default, until the process is stopped.
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		OrderServer server = new OrderServer(new CoffeeMaker(), new InetSocketAddress(port));
+		System.out.println("Serving the CoffeeMaker on port " + server.getPort());
+		Thread.currentThread().join();
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2009,  Sarah Heckman, Laurie Williams, Dright Ho
+ * All Rights Reserved.
+ * 
+ * Permission has been explicitly granted to the University of Minnesota 
+ * Software Engineering Center to use and distribute this source for 
+ * educational purposes, including delivering online education through
+ * Coursera or other entities.  
+ * 
+ * No warranty is given regarding this software, including warranties as
+ * to the correctness or completeness of this software, including 
+ * fitness for purpose.
+ */
+package edu.ncsu.csc326.coffeemaker.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format spoken by {@link OrderServer} and its clients.
+ *
+ * Every request and response is a frame: an int length followed by
+ * that many bytes.  A request starts with an operation byte, a response
+ * with a status byte; the rest depends on the operation.  All numbers
+ * are big-endian ints and strings are an int length followed by UTF-8
+ * bytes.  A recipe is its name, its price and the count and amounts of
+ * its ingredients.
+ *
+ * <pre>
+ *   ADD_RECIPE       recipe               -&gt; byte 1 if added, 0 if not
+ *   EDIT_RECIPE      int id, recipe       -&gt; byte present, [string old name]
+ *   DELETE_RECIPE    int id               -&gt; byte present, [string name]
+ *   ADD_INVENTORY    int n, int[n] units  -&gt; nothing
+ *   CHECK_INVENTORY                       -&gt; string
+ *   MAKE_COFFEE      int id, int paid     -&gt; byte order status, int change
+ *   MAKE_COFFEE_NAME string name, int paid -&gt; byte order status, int change
+ * </pre>
+ *
+ * The order status is the ordinal of the order's
+ * {@link edu.ncsu.csc326.coffeemaker.OrderStatus}.
+ *
+ * A client may send requests without waiting; responses come back on
+ * the same connection in the order of the requests.  The server stops
+ * reading a connection while too many responses are waiting to be
+ * sent, so a client must keep reading responses as it sends.
+ */
+public final class Protocol {
+
+	public static final byte ADD_RECIPE = 1;
+	public static final byte EDIT_RECIPE = 2;
+	public static final byte DELETE_RECIPE = 3;
+	public static final byte ADD_INVENTORY = 4;
+	public static final byte CHECK_INVENTORY = 5;
+	public static final byte MAKE_COFFEE = 6;
+	public static final byte MAKE_COFFEE_NAME = 7;
+
+	/** The request succeeded */
+	public static final byte OK = 0;
+	/** The request was refused with a recipe error; a message follows */
+	public static final byte RECIPE_ERROR = 1;
+	/** The request was refused with an inventory error; a message follows */
+	public static final byte INVENTORY_ERROR = 2;
+	/** The request could not be understood; a message follows */
+	public static final byte BAD_REQUEST = 3;
+	/** The request failed inside the server; a message follows */
+	public static final byte SERVER_ERROR = 4;
+
+	/** Largest frame either side accepts */
+	public static final int MAX_FRAME = 1 << 20;
+
+	private Protocol() {
+	}
+
+	/**
+	 * Writes a string as its length followed by its UTF-8 bytes.
+	 * @param buf
+	 * @param s
+	 */
+	public static void putString(ByteBuffer buf, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		buf.putInt(bytes.length);
+		buf.put(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #putString(ByteBuffer, String)}.
+	 * @param buf
+	 * @return String
+	 */
+	public static String getString(ByteBuffer buf) {
+		int length = buf.getInt();
+		if (length < 0 || length > buf.remaining()) {
+			throw new IllegalArgumentException("Malformed string");
+		}
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the number of bytes {@link #putString(ByteBuffer, String)}
+	 * writes for a string, at most.
+	 * @param s
+	 * @return int
+	 */
+	public static int stringSize(String s) {
+		return 4 + 3 * s.length();
+	}
+}
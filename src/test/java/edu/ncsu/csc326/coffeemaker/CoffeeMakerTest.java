@@ -18,13 +18,44 @@
  */
 package edu.ncsu.csc326.coffeemaker;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.management.ObjectName;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
 import edu.ncsu.csc326.coffeemaker.exceptions.InventoryException;
 import edu.ncsu.csc326.coffeemaker.exceptions.RecipeException;
+import edu.ncsu.csc326.coffeemaker.server.OrderClient;
+import edu.ncsu.csc326.coffeemaker.server.OrderServer;
+import edu.ncsu.csc326.coffeemaker.server.Protocol;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 import static org.junit.Assert.*;
 
@@ -102,6 +133,9 @@ public class CoffeeMakerTest {
 	@Rule
 	public ExpectedException expectedException = ExpectedException.none();
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	/**
 	 * Test Case ID: 1
 	 * Given a coffee maker with new recipes
@@ -130,14 +164,14 @@ public class CoffeeMakerTest {
 	 * Test Case ID: 3
 	 * Given a coffee maker with new recipes
 	 * When we add 4 recipes
-	 * Then the fourth recipe will not be added to the system
+	 * Then the fourth recipe will also be added, as the recipe book has no fixed size
 	 */
 	@Test
 	public void testAddTooMuchValidRecipe(){
 		coffeeMaker.addRecipe(recipe1);
 		coffeeMaker.addRecipe(recipe2);
 		coffeeMaker.addRecipe(recipe3);
-		assertFalse(coffeeMaker.addRecipe(recipe4));
+		assertTrue(coffeeMaker.addRecipe(recipe4));
 	}
 
 	/**
@@ -666,7 +700,7 @@ public class CoffeeMakerTest {
 	 * Test Case ID: 38
 	 * Given a coffee maker with new recipes
 	 * When we add 4 valid recipe
-	 * Then the fourth recipe will not be saved in recipe book
+	 * Then the fourth recipe will also be saved in recipe book
 	 */
 	@Test
 	public void testGetRecipeAfterAddTooMuchRecipe(){
@@ -674,7 +708,7 @@ public class CoffeeMakerTest {
 		coffeeMaker.addRecipe(recipe2);
 		coffeeMaker.addRecipe(recipe3);
 		coffeeMaker.addRecipe(recipe4);
-		assertEquals(3, coffeeMaker.getRecipes().length);
+		assertEquals("Hot Chocolate", coffeeMaker.getRecipes()[3].getName());
 	}
 
 	/**
@@ -755,4 +789,1621 @@ public class CoffeeMakerTest {
 				+ "Chocolate: " + "15" + "\n", coffeeMaker.checkInventory());
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Test Case ID: 58
+	 * Given a coffee maker with the default inventory
+	 * When many threads purchase the same beverage at once
+	 * Then exactly as many beverages are made as the inventory allows
+	 */
+	@Test
+	public void testConcurrentPurchaseNeverOversells() throws InterruptedException {
+		coffeeMaker.addRecipe(recipe1);
+		final AtomicInteger made = new AtomicInteger();
+		Thread[] customers = new Thread[8];
+		for (int i = 0; i < customers.length; i++) {
+			customers[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < 100; j++) {
+						if (coffeeMaker.makeCoffee(0, 50) == 0) {
+							made.incrementAndGet();
+						}
+					}
+				}
+			});
+			customers[i].start();
+		}
+		for (Thread customer : customers) {
+			customer.join();
+		}
+		// recipe1 takes 3 coffee, so the 15 default units make exactly 5
+		assertEquals(5, made.get());
+		assertEquals("Coffee: " + "0" + "\n" + "Milk: " + "10" + "\n" + "Sugar: " + "10" + "\n"
+				+ "Chocolate: " + "15" + "\n", coffeeMaker.checkInventory());
+	}
+
+	/**
+	 * Test Case ID: 59
+	 * Given two coffee makers in the same fleet
+	 * When we purchase a beverage and add inventory on the first one
+	 * Then the recipes and inventory of the second one stay the same
+	 */
+	@Test
+	public void testFleetMachinesAreIsolated() throws InventoryException {
+		MachineFleet fleet = new MachineFleet();
+		CoffeeMaker first = fleet.getOrCreateMachine("first");
+		CoffeeMaker second = fleet.getOrCreateMachine("second");
+		first.addRecipe(recipe1);
+		first.makeCoffee(0, 50);
+		first.addInventory("0","0","0","5");
+		assertSame(first, fleet.getOrCreateMachine("first"));
+		assertNull(second.getRecipes()[0]);
+		assertEquals("Coffee: " + "15" + "\n" + "Milk: " + "15" + "\n" + "Sugar: " + "15" + "\n"
+				+ "Chocolate: " + "15" + "\n", second.checkInventory());
+		assertEquals("Coffee: " + "12" + "\n" + "Milk: " + "14" + "\n" + "Sugar: " + "14" + "\n"
+				+ "Chocolate: " + "20" + "\n", first.checkInventory());
+	}
+
+	/**
+	 * Test Case ID: 60
+	 * Given a coffee maker with the default inventory
+	 * When we purchase a batch with one order too many for the coffee on hand,
+	 * 		one unknown recipe and one underpaid order
+	 * Then every order that can be made is made and the others get their money back
+	 */
+	@Test
+	public void testBatchPurchasePerOrder() {
+		coffeeMaker.addRecipe(recipe1);
+		int[] change = coffeeMaker.makeCoffeeBatch(new int[] {0, 0, 0, 0, 0, 0, 3, 0},
+				new int[] {50, 60, 50, 50, 50, 50, 50, 40});
+		assertArrayEquals(new int[] {0, 10, 0, 0, 0, 50, 50, 40}, change);
+		assertEquals("Coffee: " + "0" + "\n" + "Milk: " + "10" + "\n" + "Sugar: " + "10" + "\n"
+				+ "Chocolate: " + "15" + "\n", coffeeMaker.checkInventory());
+	}
+
+	/**
+	 * Test Case ID: 61
+	 * Given a coffee maker with the default inventory
+	 * When we purchase an all-or-nothing batch that needs more coffee than is on hand
+	 * Then no order is made, all money is returned and the inventory stays the same
+	 */
+	@Test
+	public void testBatchPurchaseAllOrNothing() {
+		coffeeMaker.addRecipe(recipe1);
+		int[] change = new int[6];
+		assertEquals(0, coffeeMaker.makeCoffeeBatch(new int[] {0, 0, 0, 0, 0, 0},
+				new int[] {50, 50, 50, 50, 50, 60}, change, BatchMode.ALL_OR_NOTHING));
+		assertArrayEquals(new int[] {50, 50, 50, 50, 50, 60}, change);
+		assertEquals("Coffee: " + "15" + "\n" + "Milk: " + "15" + "\n" + "Sugar: " + "15" + "\n"
+				+ "Chocolate: " + "15" + "\n", coffeeMaker.checkInventory());
+		assertEquals(5, coffeeMaker.makeCoffeeBatch(new int[] {0, 0, 0, 0, 0},
+				new int[] {50, 50, 50, 50, 60}, change, BatchMode.ALL_OR_NOTHING));
+		assertEquals(10, change[4]);
+	}
+
+	/**
+	 * Test Case ID: 62
+	 * Given a coffee maker with new recipes
+	 * When we add a thousand recipes with different names
+	 * Then all of them are added and each can be purchased by name
+	 */
+	@Test
+	public void testAddManyRecipesAndPurchaseByName() throws RecipeException {
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(coffeeMaker.addRecipe(createRecipe("Blend " + i, "0","0","0","0","" + i)));
+		}
+		assertFalse(coffeeMaker.addRecipe(createRecipe("Blend 500", "0","0","0","0","1")));
+		assertEquals("Blend 999", coffeeMaker.getRecipes()[999].getName());
+		assertEquals(1, coffeeMaker.makeCoffee("Blend 999", 1000));
+		assertEquals(5, coffeeMaker.makeCoffee("Blend 1000", 5));
+	}
+
+	/**
+	 * Test Case ID: 63
+	 * Given a coffee maker with three recipes
+	 * When we delete the second one and add a new recipe
+	 * Then the other recipes keep their numbers and the deleted number is not reused
+	 */
+	@Test
+	public void testRecipeIdsAreStable() {
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe2);
+		coffeeMaker.addRecipe(recipe3);
+		assertEquals("Mocha", coffeeMaker.deleteRecipe(1));
+		assertTrue(coffeeMaker.addRecipe(recipe4));
+		assertNull(coffeeMaker.getRecipes()[1]);
+		assertEquals("Coffee", coffeeMaker.getRecipes()[0].getName());
+		assertEquals("Latte", coffeeMaker.getRecipes()[2].getName());
+		assertEquals("Hot Chocolate", coffeeMaker.getRecipes()[3].getName());
+		assertEquals(35, coffeeMaker.makeCoffee(3, 100));
+	}
+
+	/**
+	 * Test Case ID: 64
+	 * Given a coffee maker with 1 recipe and a snapshot of its recipes
+	 * When we edit the recipe and change the original recipe object
+	 * Then the snapshot still shows the old recipe and a new snapshot shows only the edit
+	 */
+	@Test
+	public void testRecipeSnapshotIsImmutable() throws RecipeException {
+		coffeeMaker.addRecipe(recipe1);
+		RecipeSnapshot before = coffeeMaker.getRecipeSnapshot();
+		coffeeMaker.editRecipe(0, recipe3);
+		recipe1.setPrice("5");
+		RecipeSnapshot after = coffeeMaker.getRecipeSnapshot();
+		assertEquals(50, before.getRecipe(0).getPrice());
+		assertEquals(100, after.getRecipe("Coffee").getPrice());
+		assertEquals(before.getVersion() + 1, after.getVersion());
+		assertEquals("Latte", recipe3.getName());
+	}
+
+	/**
+	 * Test Case ID: 65
+	 * Given a coffee maker that also stocks vanilla syrup and cups
+	 * When we purchase a beverage that uses them
+	 * Then they are taken from the inventory along with the standard ingredients
+	 */
+	@Test
+	public void testPurchaseWithExtraIngredients() throws RecipeException, InventoryException {
+		IngredientCatalog catalog = new IngredientCatalog("Vanilla Syrup", "Cups");
+		CoffeeMaker vanillaMaker = new CoffeeMaker(catalog);
+		Recipe vanillaLatte = new Recipe(catalog);
+		vanillaLatte.setName("Vanilla Latte");
+		vanillaLatte.setAmtCoffee("3");
+		vanillaLatte.setAmtMilk("3");
+		vanillaLatte.setAmount(catalog.indexOf("Vanilla Syrup"), "2");
+		vanillaLatte.setAmount(catalog.indexOf("Cups"), "1");
+		vanillaLatte.setPrice("120");
+		vanillaMaker.addRecipe(vanillaLatte);
+		vanillaMaker.addRecipe(recipe1);
+		vanillaMaker.addInventory(new String[] {"0", "0", "0", "0", "5", "0"});
+		assertEquals(30, vanillaMaker.makeCoffee("Vanilla Latte", 150));
+		assertEquals(0, vanillaMaker.makeCoffee("Coffee", 50));
+		assertEquals("Coffee: 9\nMilk: 11\nSugar: 14\nChocolate: 15\nVanilla Syrup: 18\nCups: 14\n",
+				vanillaMaker.checkInventory());
+		expectedException.expect(InventoryException.class);
+		expectedException.expectMessage("Units of cups must be a positive integer");
+		vanillaMaker.addInventory(new String[] {"0", "0", "0", "0", "0", "-1"});
+	}
+
+	/**
+	 * Test Case ID: 66
+	 * Given a coffee maker with a journal that recorded recipe changes, a restock and a purchase
+	 * When we replay the journal into a new coffee maker, twice
+	 * Then the new coffee maker has the same recipes and inventory, and the second replay changes nothing
+	 */
+	@Test
+	public void testJournalReplayRestoresState() throws RecipeException, InventoryException, IOException {
+		File file = folder.newFile("coffeemaker.journal");
+		Journal journal = new Journal(file, 4096, Journal.FsyncPolicy.ON_DEMAND, 0);
+		journal.attach(coffeeMaker);
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe2);
+		coffeeMaker.addRecipe(recipe3);
+		coffeeMaker.deleteRecipe(1);
+		coffeeMaker.editRecipe(2, recipe4);
+		coffeeMaker.addInventory("5", "0", "3", "0");
+		for (int i = 0; i < 40; i++) {
+			coffeeMaker.makeCoffee(0, 50);
+		}
+		journal.close();
+
+		CoffeeMaker restored = new CoffeeMaker();
+		journal = new Journal(file, 4096, Journal.FsyncPolicy.ON_DEMAND, 0);
+		assertTrue(journal.replay(restored) > 0);
+		assertEquals(0, journal.replay(restored));
+		journal.close();
+		assertEquals(coffeeMaker.checkInventory(), restored.checkInventory());
+		assertEquals("Coffee", restored.getRecipes()[0].getName());
+		assertNull(restored.getRecipes()[1]);
+		assertEquals("Latte", restored.getRecipes()[2].getName());
+		assertEquals(65, restored.getRecipes()[2].getPrice());
+		assertTrue(restored.addRecipe(recipe2));
+		assertEquals("Mocha", restored.getRecipes()[3].getName());
+	}
+
+	/**
+	 * Test Case ID: 67
+	 * Given a coffee maker with a journal and a snapshot taken part way through its changes
+	 * When we load the snapshot into a new coffee maker and replay the journal from the snapshot's offset
+	 * Then only the changes after the snapshot are replayed and the new coffee maker matches the old one
+	 */
+	@Test
+	public void testSnapshotRestoresStateWithJournalTail() throws RecipeException, InventoryException, IOException {
+		File journalFile = folder.newFile("coffeemaker.journal");
+		File snapshotFile = new File(folder.getRoot(), "coffeemaker.snapshot");
+		Journal journal = new Journal(journalFile, 4096, Journal.FsyncPolicy.ON_DEMAND, 0);
+		journal.attach(coffeeMaker);
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe2);
+		coffeeMaker.makeCoffee(0, 50);
+		SnapshotWriter snapshots = new SnapshotWriter(coffeeMaker, journal, snapshotFile, 60000);
+		assertTrue(snapshots.write());
+		assertFalse(snapshots.write());
+		snapshots.close();
+		coffeeMaker.addRecipe(recipe3);
+		coffeeMaker.makeCoffee(2, 100);
+		journal.close();
+
+		CoffeeMakerSnapshot snapshot = CoffeeMakerSnapshot.open(snapshotFile);
+		assertEquals(2, snapshot.getRecipeVersion());
+		assertEquals(1, snapshot.getInventoryVersion());
+		CoffeeMaker restored = new CoffeeMaker();
+		snapshot.restore(restored);
+		journal = new Journal(journalFile, 4096, Journal.FsyncPolicy.ON_DEMAND, 0);
+		assertEquals(2, journal.replay(restored, snapshot.getJournalOffset()));
+		journal.close();
+		assertEquals(coffeeMaker.checkInventory(), restored.checkInventory());
+		assertEquals("Latte", restored.getRecipes()[2].getName());
+		assertEquals(1, restored.getRecipeSnapshot().getRecipeId("Mocha"));
+	}
+
+	/**
+	 * Test Case ID: 68
+	 * Given a coffee maker served over loopback
+	 * When a client adds recipes and inventory and sends pipelined orders
+	 * Then the responses come back in order and match the coffee maker's own results
+	 */
+	@Test
+	public void testOrderServer() throws IOException, InventoryException {
+		OrderServer server = new OrderServer(coffeeMaker, new InetSocketAddress("localhost", 0), 2);
+		OrderClient client = new OrderClient(new InetSocketAddress("localhost", server.getPort()));
+		try {
+			assertTrue(client.addRecipe(recipe1));
+			assertTrue(client.addRecipe(recipe2));
+			assertFalse(client.addRecipe(recipe1));
+			client.addInventory(0, 0, 0, 5);
+			assertArrayEquals(new int[] {25, 25, 100, 75},
+					client.makeCoffee(new int[] {0, 1, 1, 7}, new int[] {75, 100, 100, 75}));
+			assertEquals(50, client.makeCoffee("Latte", 50));
+			assertEquals("Mocha", client.editRecipe(1, recipe3));
+			assertEquals("Coffee", client.deleteRecipe(0));
+			assertNull(client.deleteRecipe(0));
+			assertEquals(coffeeMaker.checkInventory(), client.checkInventory());
+			expectedException.expect(InventoryException.class);
+			expectedException.expectMessage("Units of sugar must be a positive integer");
+			client.addInventory(0, 0, -1, 0);
+		} finally {
+			client.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * Test Case ID: 69
+	 * Given a command file that adds a recipe and inventory, makes coffee many times and ends without exiting
+	 * When we run it through a batch command engine
+	 * Then every command runs in order and only the results are written
+	 */
+	@Test
+	public void testBatchCommands() throws IOException {
+		StringBuilder commands = new StringBuilder("1\nCoffee\n50\n3\n0\n0\n0\n4\n300\n0\n0\n0\n");
+		for (int i = 0; i < 10000; i++) {
+			commands.append("6\n1\n50\n");
+		}
+		commands.append("2\n7\n5\n");
+		StringWriter out = new StringWriter();
+		CommandEngine engine = new CommandEngine(coffeeMaker,
+				new BufferedReader(new StringReader(commands.toString())), out, false);
+		assertEquals(10004, engine.run());
+		assertTrue(out.toString().startsWith("Coffee successfully added.\n\nInventory successfully added\n"
+				+ "Thank you for purchasing Coffee\nYour change is: 0\n\n"));
+		assertTrue(out.toString().endsWith("Insufficient inventory to purchase.\nYour change is: 50\n\n"
+				+ "Please select the number of a listed recipe.\n"
+				+ "Coffee: 0\nMilk: 15\nSugar: 15\nChocolate: 15\n\n"));
+	}
+
+	/**
+	 * Test Case ID: 70
+	 * Given a recipe and a coffee maker
+	 * When we set the recipe and restock through the non-throwing checks with good and malformed values
+	 * Then good values are applied, and malformed ones return the code of the first bad value and change nothing
+	 */
+	@Test
+	public void testNonThrowingInputChecks() {
+		assertEquals(42, InputCheck.parseUnits("42"));
+		assertEquals(0, InputCheck.parseUnits("-0"));
+		assertEquals(-1, InputCheck.parseUnits("-3"));
+		assertEquals(-1, InputCheck.parseUnits("4 2"));
+		assertEquals(-1, InputCheck.parseUnits("2147483648"));
+		assertEquals(-1, InputCheck.parseUnits(""));
+
+		Recipe r = new Recipe();
+		assertEquals(InputCheck.NONE, r.trySet("60", new String[] {"2", "1", "0", "3"}));
+		assertEquals(60, r.getPrice());
+		assertEquals(3, r.getAmtChocolate());
+		assertEquals(InputCheck.PRICE, r.trySet("free", new String[] {"1", "1", "1", "1"}));
+		assertEquals(IngredientCatalog.SUGAR, r.trySet(70, new int[] {1, 1, -1, -1}));
+		assertEquals(InputCheck.COUNT, r.trySet(70, new int[] {1, 1}));
+		assertEquals(60, r.getPrice());
+		assertEquals(2, r.getAmtCoffee());
+
+		assertEquals(IngredientCatalog.MILK, coffeeMaker.tryAddInventory(new String[] {"5", "lots", "5", "5"}));
+		assertEquals("Units of milk must be a positive integer",
+				InputCheck.message(IngredientCatalog.MILK, coffeeMaker.getCatalog()));
+		assertEquals(InputCheck.NONE, coffeeMaker.tryAddInventory(new int[] {5, 0, 0, 1}));
+		assertEquals("Coffee: 20\nMilk: 15\nSugar: 15\nChocolate: 16\n", coffeeMaker.checkInventory());
+	}
+
+	/**
+	 * Test Case ID: 71
+	 * Given a coffee maker that times every order
+	 * When orders succeed, name an unknown recipe, underpay and run out of stock
+	 * Then each outcome is counted, every order is timed and the scrape and MBean report them
+	 */
+	@Test
+	public void testOrderMetrics() throws Exception {
+		CoffeeMakerMetrics metrics = coffeeMaker.getMetrics();
+		metrics.setLatencySampleRate(1);
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe2);
+		assertEquals(OrderStatus.SUCCESS, coffeeMaker.order(0, 50).getStatus());
+		assertEquals(OrderStatus.UNKNOWN_RECIPE, coffeeMaker.order("Tea", 50).getStatus());
+		OrderResult underpaid = coffeeMaker.order(1, 10);
+		assertEquals(OrderStatus.INSUFFICIENT_FUNDS, underpaid.getStatus());
+		assertEquals(10, underpaid.getChange());
+		assertEquals(OrderStatus.OUT_OF_STOCK, coffeeMaker.order("Mocha", 75).getStatus());
+		assertEquals(0, coffeeMaker.makeCoffee(0, 50));
+		coffeeMaker.makeCoffeeBatch(new int[] {0, 9}, new int[] {50, 50}, new int[2], BatchMode.ALL_OR_NOTHING);
+
+		assertEquals(2, metrics.getOrdersSucceeded());
+		assertEquals(2, metrics.getOrdersUnknownRecipe());
+		assertEquals(1, metrics.getOrdersInsufficientFunds());
+		assertEquals(1, metrics.getOrdersOutOfStock());
+		assertEquals(1, metrics.getOrdersBatchFailed());
+		assertEquals(5, metrics.getLatency(CoffeeMakerMetrics.Operation.MAKE_COFFEE).getCount());
+		assertEquals(2, metrics.getLatency(CoffeeMakerMetrics.Operation.ADD_RECIPE).getCount());
+		String scrape = metrics.scrape();
+		assertTrue(scrape.contains("coffeemaker_orders_total{status=\"out_of_stock\"} 1\n"));
+		assertTrue(scrape.contains("coffeemaker_latency_nanos_count{operation=\"make_coffee\"} 5\n"));
+
+		ObjectName name = metrics.register("test-" + System.nanoTime());
+		try {
+			assertEquals(2L, ManagementFactory.getPlatformMBeanServer()
+					.getAttribute(name, "OrdersSucceeded"));
+		} finally {
+			metrics.unregister();
+		}
+	}
+
+	/**
+	 * Test Case ID: 72
+	 * Given an inventory measured against a clock the test controls
+	 * When coffee is made and a second passes
+	 * Then the rate of use, the time each ingredient lasts and the restocks needed are reported
+	 */
+	@Test
+	public void testConsumptionForecast() {
+		AtomicLong time = new AtomicLong();
+		Inventory inventory = new Inventory(IngredientCatalog.DEFAULT, time::get);
+		assertTrue(inventory.useIngredients(recipe1));
+		assertEquals(0, inventory.getConsumptionRate(IngredientCatalog.COFFEE), 0);
+		assertEquals(Double.POSITIVE_INFINITY, inventory.getTimeToDepletion(IngredientCatalog.COFFEE), 0);
+
+		time.addAndGet(1000000000L);
+		assertEquals(3, inventory.getConsumptionRate(IngredientCatalog.COFFEE), 1e-9);
+		assertEquals(1, inventory.getConsumptionRate(IngredientCatalog.MILK), 1e-9);
+		assertEquals(4, inventory.getTimeToDepletion(IngredientCatalog.COFFEE), 1e-9);
+		assertEquals(14, inventory.getTimeToDepletion(IngredientCatalog.SUGAR), 1e-9);
+		assertEquals(Double.POSITIVE_INFINITY, inventory.getTimeToDepletion(IngredientCatalog.CHOCOLATE), 0);
+
+		Restock[] plan = inventory.getRestockSchedule(20, 1);
+		assertEquals(3, plan.length);
+		assertEquals(IngredientCatalog.COFFEE, plan[0].getIngredient());
+		assertEquals(3, plan[0].getSecondsUntil(), 1e-9);
+		assertEquals(48, plan[0].getUnits());
+		assertEquals(6, plan[1].getUnits());
+		assertEquals(0, inventory.getRestockSchedule(3, 1).length);
+
+		time.addAndGet(1000000000L);
+		double rate = inventory.getConsumptionRate(IngredientCatalog.COFFEE);
+		assertTrue(rate > 0 && rate < 3);
+	}
+
+	/**
+	 * Test Case ID: 73
+	 * Given a coffee maker with a four-slot order dispatcher
+	 * When more orders are submitted from two threads than the ring holds or the inventory covers
+	 * Then every order is made once, five succeed, and orders after closing are rejected
+	 */
+	@Test
+	public void testOrderDispatcher() throws Exception {
+		coffeeMaker.addRecipe(recipe1);
+		final OrderDispatcher dispatcher = coffeeMaker.startDispatcher(3, WaitStrategy.YIELD);
+		assertEquals(4, dispatcher.getCapacity());
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		final CompletableFuture<OrderResult>[] results = new CompletableFuture[16];
+		Thread other = new Thread() {
+			public void run() {
+				for (int i = 0; i < 8; i++) {
+					results[i] = coffeeMaker.submitOrder(0, 60);
+				}
+			}
+		};
+		other.start();
+		for (int i = 8; i < 16; i++) {
+			results[i] = coffeeMaker.submitOrder(i == 15 ? 3 : 0, 60);
+		}
+		other.join();
+
+		int made = 0;
+		for (CompletableFuture<OrderResult> result : results) {
+			if (result.get().isSuccess()) {
+				assertEquals(10, result.get().getChange());
+				made++;
+			}
+		}
+		assertEquals(5, made);
+		assertEquals(OrderStatus.UNKNOWN_RECIPE, results[15].get().getStatus());
+		assertEquals(0, dispatcher.getQueueDepth());
+		assertEquals("Coffee: 0\nMilk: 10\nSugar: 10\nChocolate: 15\n", coffeeMaker.checkInventory());
+
+		dispatcher.close();
+		expectedException.expect(ExecutionException.class);
+		coffeeMaker.submitOrder(0, 60).get();
+	}
+
+	/**
+	 * Test Case ID: 74
+	 * Given reservations holding all of the coffee
+	 * When one is committed, one cancelled and one left to time out
+	 * Then held units cannot be ordered, and only cancelled and expired units come back
+	 */
+	@Test
+	public void testReserveCommitCancel() throws Exception {
+		coffeeMaker.addRecipe(recipe1);
+		Inventory inventory = coffeeMaker.getInventory();
+		Reservation committed = inventory.reserve(recipe1);
+		Reservation expiring = inventory.reserve(recipe1, 20, TimeUnit.MILLISECONDS);
+		Reservation cancelled = inventory.reserve(recipe1);
+		assertNotNull(inventory.reserve(recipe1));
+		assertNotNull(inventory.reserve(recipe1));
+		assertNull(inventory.reserve(recipe1));
+		assertEquals(50, coffeeMaker.makeCoffee(0, 50));
+
+		assertTrue(committed.commit());
+		assertFalse(committed.cancel());
+		assertTrue(committed.commit());
+		assertTrue(cancelled.cancel());
+		assertEquals(Reservation.State.CANCELLED, cancelled.getState());
+		assertEquals(3, inventory.getCoffee());
+
+		// The state changes just before the units are given back.
+		for (int i = 0; i < 500 && (expiring.getState() == Reservation.State.PENDING
+				|| inventory.getCoffee() != 6); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(Reservation.State.EXPIRED, expiring.getState());
+		assertFalse(expiring.commit());
+		assertEquals("Coffee: 6\nMilk: 12\nSugar: 12\nChocolate: 15\n", coffeeMaker.checkInventory());
+	}
+
+	/**
+	 * Test Case ID: 75
+	 * Given many customers ordering three recipes and two restockers on one coffee maker
+	 * When the load generator runs for a short time
+	 * Then every order is counted and timed, and the inventory is conserved
+	 */
+	@Test
+	public void testLoadGeneratorConservesInventory() throws Exception {
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe2);
+		coffeeMaker.addRecipe(recipe3);
+		LoadGenerator load = new LoadGenerator(coffeeMaker);
+		load.setCustomers(500, 4);
+		load.setThinkTime(2, TimeUnit.MILLISECONDS);
+		load.setRecipeMix(new double[] {3, 1, 2});
+		load.setPayment(-10, 20);
+		load.setRestockers(2, 5, TimeUnit.MILLISECONDS, new int[] {6, 3, 2, 4});
+		LoadGenerator.Report report = load.run(300, TimeUnit.MILLISECONDS);
+
+		assertTrue(report.toString(), report.isConserved());
+		assertTrue(report.getOrders(OrderStatus.SUCCESS) > 0);
+		assertTrue(report.getOrders(OrderStatus.INSUFFICIENT_FUNDS) > 0);
+		assertTrue(report.getRestocks() > 0);
+		assertEquals(report.getOrders(), report.getLatency().getCount());
+		assertEquals(report.getOrders(), coffeeMaker.getMetrics().getOrdersSucceeded()
+				+ coffeeMaker.getMetrics().getOrdersInsufficientFunds()
+				+ coffeeMaker.getMetrics().getOrdersOutOfStock());
+	}
+
+	/**
+	 * Test Case ID: 76
+	 * Given a coffee maker that records its sales
+	 * When beverages are sold one by one and in a batch, and the day is closed
+	 * Then units and revenue per recipe, the rolling windows and the day's summary agree
+	 */
+	@Test
+	public void testSalesLedger() {
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe2);
+		coffeeMaker.addRecipe(recipe3);
+		coffeeMaker.makeCoffee(0, 60);
+		coffeeMaker.makeCoffee("Latte", 100);
+		coffeeMaker.makeCoffee(1, 10);
+		coffeeMaker.makeCoffeeBatch(new int[] {0, 0}, new int[] {50, 50});
+		SalesLedger sales = coffeeMaker.getSalesLedger();
+		assertEquals(3, sales.getUnitsSold("Coffee"));
+		assertEquals(150, sales.getRevenue("Coffee"));
+		assertEquals(100, sales.getRevenue("Latte"));
+		assertEquals(4, sales.getUnitsLastMinute());
+		assertEquals(250, sales.getRevenueLastHour());
+
+		SalesSummary day = sales.closeDay();
+		assertArrayEquals(new String[] {"Coffee", "Latte"}, day.getRecipeNames());
+		assertEquals(4, day.getTotalUnits());
+		assertEquals(250, day.getTotalRevenue());
+		assertEquals(1, day.getUnits("Latte"));
+		assertEquals(0, day.getUnits("Mocha"));
+		assertEquals(0, sales.getRevenue("Coffee"));
+		coffeeMaker.makeCoffee(0, 50);
+		assertEquals(50, sales.closeDay().getTotalRevenue());
+
+		AtomicLong time = new AtomicLong(1000000);
+		SalesLedger ledger = new SalesLedger(time::get);
+		ledger.record(recipe3);
+		time.addAndGet(59999);
+		assertEquals(100, ledger.getRevenueLastMinute());
+		time.addAndGet(1);
+		assertEquals(0, ledger.getRevenueLastMinute());
+		assertEquals(1, ledger.getUnitsLastHour());
+		time.addAndGet(3600000);
+		assertEquals(0, ledger.getUnitsLastHour());
+	}
+
+	/**
+	 * Test Case ID: 77
+	 * Given four recipes, one of which needs more chocolate than is stocked
+	 * When beverages are made, ingredients added and recipes edited and deleted
+	 * Then exactly the recipes the inventory can make are marked available
+	 */
+	@Test
+	public void testRecipeAvailability() throws Exception {
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe2);
+		coffeeMaker.addRecipe(recipe3);
+		coffeeMaker.addRecipe(recipe4);
+		RecipeAvailability availability = coffeeMaker.getAvailability();
+		assertEquals(bits(0, 2, 3), availability.getAvailable());
+		assertFalse(coffeeMaker.isAvailable(1));
+		assertFalse(coffeeMaker.isAvailable(9));
+
+		for (int i = 0; i < 4; i++) {
+			coffeeMaker.makeCoffee(2, 100);
+		}
+		assertEquals(bits(0, 2, 3), availability.getAvailable());
+		coffeeMaker.makeCoffee(0, 50);
+		assertEquals(bits(3), availability.getAvailable());
+		coffeeMaker.addInventory(new int[] {0, 0, 0, 10});
+		assertEquals(bits(3), availability.getAvailable());
+		coffeeMaker.addInventory(new int[] {3, 0, 0, 0});
+		assertEquals(bits(0, 1, 3), availability.getAvailable());
+
+		coffeeMaker.editRecipe(0, recipe3);
+		assertEquals(bits(1, 3), availability.getAvailable());
+		coffeeMaker.deleteRecipe(3);
+		assertEquals(bits(1), availability.getAvailable());
+		coffeeMaker.addRecipe(recipe5);
+		assertFalse(coffeeMaker.isAvailable(4));
+		coffeeMaker.addInventory(new int[] {16, 16, 16, 0});
+		assertTrue(coffeeMaker.isAvailable(4));
+	}
+
+	private static BitSet bits(int... ids) {
+		BitSet set = new BitSet();
+		for (int id : ids) {
+			set.set(id);
+		}
+		return set;
+	}
+
+	/**
+	 * Test Case ID: 78
+	 * Given four recipes, a full inventory and a forecast demand
+	 * When the maximum servings and a restock plan under a budget are computed
+	 * Then the best-earning recipes per ingredient cost are served first within budget and storage
+	 */
+	@Test
+	public void testRestockPlanner() {
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe2);
+		coffeeMaker.addRecipe(recipe3);
+		coffeeMaker.addRecipe(recipe4);
+		assertArrayEquals(new int[] {5, 0, 5, 3}, Arrays.copyOf(coffeeMaker.getMaxServings(), 4));
+
+		double[] demand = {10, 2, 4, 3};
+		RestockPlanner.Plan plan = new RestockPlanner(new int[] {2, 1, 1, 3}, 100, null).plan(coffeeMaker, demand);
+		assertArrayEquals(new int[] {27, 10, 2, 0}, plan.getUnits());
+		assertArrayEquals(new int[] {10, 0, 4, 3}, Arrays.copyOf(plan.getServings(), 4));
+		assertEquals(66, plan.getCost());
+		assertEquals(1095, plan.getRevenue());
+
+		plan = new RestockPlanner(new int[] {2, 1, 1, 3}, 100, new int[] {20, 100, 100, 100}).plan(coffeeMaker, demand);
+		assertEquals(2, plan.getServings()[0]);
+		assertEquals(3, plan.getUnits()[IngredientCatalog.COFFEE]);
+	}
+
+	/**
+	 * Test Case ID: 79
+	 * Given a poller holding an inventory snapshot
+	 * When orders fail, a beverage is made and inventory is added
+	 * Then the snapshot keeps its counts, changedSince reports only real changes and versions increase
+	 */
+	@Test
+	public void testInventorySnapshot() throws Exception {
+		coffeeMaker.addRecipe(recipe1);
+		InventorySnapshot first = coffeeMaker.getInventorySnapshot();
+		assertSame(first, coffeeMaker.getInventorySnapshot());
+		assertEquals(15, first.getCount(IngredientCatalog.COFFEE));
+		assertEquals(4, first.size());
+
+		coffeeMaker.makeCoffee(0, 10);
+		coffeeMaker.makeCoffee(5, 100);
+		assertFalse(coffeeMaker.inventoryChangedSince(first.getVersion()));
+		coffeeMaker.makeCoffee(0, 50);
+		coffeeMaker.addInventory(new int[] {0, 0, 0, 5});
+		assertTrue(coffeeMaker.inventoryChangedSince(first.getVersion()));
+
+		InventorySnapshot second = coffeeMaker.getInventorySnapshot();
+		assertEquals(first.getVersion() + 2, second.getVersion());
+		assertTrue(second.isNewerThan(first.getVersion()));
+		int[] counts = new int[second.size()];
+		second.getCounts(counts);
+		assertArrayEquals(new int[] {12, 14, 14, 20}, counts);
+		assertEquals("Coffee: 15\nMilk: 15\nSugar: 15\nChocolate: 15\n", first.toString());
+		assertEquals(coffeeMaker.checkInventory(), second.toString());
+	}
+
+	/**
+	 * Test Case ID: 80
+	 * Given a coffee maker with a DROP subscriber, and a small bus with
+	 * DROP, CONFLATE and BLOCK subscribers
+	 * When recipes and inventory change, and more events are published
+	 * than the small bus holds
+	 * Then the coffee maker's subscriber sees every successful change in
+	 * order, the DROP subscriber skips what was overwritten, the
+	 * CONFLATE subscriber only sees the newest event, and a publisher
+	 * waits for the BLOCK subscriber until it reads.
+	 */
+	@Test
+	public void testEventBus() throws Exception {
+		EventBus.Subscription all = coffeeMaker.getEventBus().subscribe(OverflowPolicy.DROP);
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addInventory(new int[] {5, 0, 0, 0});
+		assertEquals(50, coffeeMaker.makeCoffee(0, 100));
+		assertEquals(100, coffeeMaker.makeCoffee(0, 150));
+		coffeeMaker.editRecipe(0, recipe3);
+		coffeeMaker.deleteRecipe(0);
+		List<CoffeeMakerEvent> seen = new ArrayList<CoffeeMakerEvent>();
+		assertEquals(6, all.poll(seen::add, 100));
+		CoffeeMakerEvent.Type[] types = new CoffeeMakerEvent.Type[seen.size()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = seen.get(i).getType();
+		}
+		assertArrayEquals(new CoffeeMakerEvent.Type[] {CoffeeMakerEvent.Type.RECIPE_ADDED,
+				CoffeeMakerEvent.Type.INVENTORY_ADDED, CoffeeMakerEvent.Type.COFFEE_MADE,
+				CoffeeMakerEvent.Type.COFFEE_MADE, CoffeeMakerEvent.Type.RECIPE_EDITED,
+				CoffeeMakerEvent.Type.RECIPE_DELETED}, types);
+		assertEquals(20, seen.get(1).getInventory().getCount(IngredientCatalog.COFFEE));
+		assertEquals("Coffee", seen.get(2).getRecipe().getName());
+		assertEquals(0, seen.get(2).getRecipeId());
+		assertEquals(14, seen.get(3).getInventory().getCount(IngredientCatalog.COFFEE));
+		assertEquals(100, seen.get(4).getRecipe().getPrice());
+		assertEquals(0, seen.get(5).getRecipes().size());
+		assertEquals(0, all.getDropped());
+		all.close();
+		assertFalse(coffeeMaker.getEventBus().hasSubscribers());
+
+		EventBus bus = new EventBus(3);
+		assertEquals(4, bus.getCapacity());
+		EventBus.Subscription drop = bus.subscribe(OverflowPolicy.DROP);
+		EventBus.Subscription conflate = bus.subscribe(OverflowPolicy.CONFLATE);
+		for (int i = 0; i < 10; i++) {
+			bus.publish(CoffeeMakerEvent.Type.INVENTORY_ADDED, -1, null, null, null);
+		}
+		seen.clear();
+		assertEquals(10, drop.getLag());
+		assertEquals(3, drop.poll(seen::add, 100));
+		assertEquals(7, seen.get(0).getSequence());
+		assertEquals(7, drop.getDropped());
+		assertEquals(0, drop.getLag());
+		seen.clear();
+		assertEquals(1, conflate.poll(seen::add, 100));
+		assertEquals(9, seen.get(0).getSequence());
+		assertEquals(9, conflate.getConflated());
+		assertEquals(0, conflate.poll(seen::add, 100));
+
+		final EventBus blocking = new EventBus(2);
+		EventBus.Subscription block = blocking.subscribe(OverflowPolicy.BLOCK);
+		blocking.publish(CoffeeMakerEvent.Type.INVENTORY_ADDED, -1, null, null, null);
+		blocking.publish(CoffeeMakerEvent.Type.INVENTORY_ADDED, -1, null, null, null);
+		CompletableFuture<Void> third = CompletableFuture.runAsync(new Runnable() {
+			public void run() {
+				blocking.publish(CoffeeMakerEvent.Type.INVENTORY_ADDED, -1, null, null, null);
+			}
+		});
+		Thread.sleep(50);
+		assertFalse(third.isDone());
+		seen.clear();
+		assertEquals(1, block.poll(seen::add, 1));
+		third.get(5, TimeUnit.SECONDS);
+		assertEquals(2, block.poll(seen::add, 100));
+		assertEquals(2, seen.get(2).getSequence());
+		assertEquals(0, block.getDropped());
+	}
+
+	/**
+	 * Test Case ID: 81
+	 * Given a primary coffee maker that already has a recipe, shipping
+	 * its recipe log over a loopback transport and keeping two entries
+	 * When one replica attaches, recipes are added, edited and deleted,
+	 * a second replica attaches late, and entries arrive twice or with
+	 * a gap
+	 * Then both replicas converge on the primary's recipes, the late
+	 * replica catches up from a snapshot, duplicates are ignored and a
+	 * gap is filled from the primary's log.
+	 */
+	@Test
+	public void testRecipeReplication() throws Exception {
+		coffeeMaker.addRecipe(recipe1);
+		LoopbackTransport transport = new LoopbackTransport();
+		try {
+			RecipePrimary primary = new RecipePrimary(coffeeMaker, transport, 2);
+			CoffeeMaker first = new CoffeeMaker();
+			RecipeReplica replica = new RecipeReplica(first, transport);
+			assertEquals(1, replica.getVersion());
+			assertEquals(1, replica.getSnapshotsInstalled());
+
+			coffeeMaker.addRecipe(recipe2);
+			coffeeMaker.addRecipe(recipe3);
+			coffeeMaker.editRecipe(1, recipe4);
+			coffeeMaker.deleteRecipe(0);
+			assertEquals(5, primary.getVersion());
+			assertTrue(replica.awaitVersion(5, 5, TimeUnit.SECONDS));
+			assertArrayEquals(coffeeMaker.getRecipes(), first.getRecipes());
+			assertEquals(65, first.getRecipeBook().getRecipe(1).getPrice());
+			assertNull(first.getRecipeBook().getRecipe("Coffee"));
+			assertEquals(25, first.makeCoffee("Latte", 125));
+			assertEquals(4, replica.getEntriesApplied());
+
+			assertNull(primary.entriesAfter(2));
+			assertEquals(2, primary.entriesAfter(3).length);
+			RecipeReplica late = new RecipeReplica(new RecipeBook(), transport);
+			assertEquals(5, late.getVersion());
+			assertEquals(1, late.getSnapshotsInstalled());
+
+			replica.receive(primary.entriesAfter(3)[0]);
+			assertEquals(4, replica.getEntriesApplied());
+
+			RecipeBook stale = new RecipeBook();
+			stale.restore(primary.getSnapshot());
+			coffeeMaker.addRecipe(recipe5);
+			coffeeMaker.deleteRecipe(2);
+			RecipeReplica lagging = new RecipeReplica(stale, new RecipeLogTransport() {
+				public void connect(RecipePrimary p) {
+				}
+				public void attach(RecipeReplica r) {
+				}
+				public void ship(RecipeLogEntry entry) {
+				}
+				public RecipeLogEntry[] fetch(long version) {
+					return primary.entriesAfter(version);
+				}
+				public RecipeSnapshot fetchSnapshot() {
+					return primary.getSnapshot();
+				}
+			});
+			lagging.receive(primary.entriesAfter(6)[0]);
+			assertEquals(7, lagging.getVersion());
+			assertEquals(2, lagging.getEntriesApplied());
+			assertEquals(0, lagging.getSnapshotsInstalled());
+			assertArrayEquals(coffeeMaker.getRecipes(), stale.getRecipes());
+			assertTrue(late.awaitVersion(7, 5, TimeUnit.SECONDS));
+			assertArrayEquals(coffeeMaker.getRecipes(), late.getRecipeBook().getRecipes());
+		} finally {
+			transport.close();
+		}
+	}
+
+	/**
+	 * Test Case ID: 82
+	 * Given a storeroom with 30 units of each ingredient, a quota of 20
+	 * and a low-water mark of 8, and two machines with 15 of each
+	 * When both attach and one machine sells coffee until it runs low,
+	 * twice
+	 * Then attaching tops both machines up, the first shortfall is
+	 * refilled from the storeroom, the second borrows from the other
+	 * machine once the storeroom is short, no count goes negative, and
+	 * units are only lost to sales.
+	 */
+	@Test
+	public void testStoreroom() throws Exception {
+		int[] each = {30, 30, 30, 30};
+		Storeroom storeroom = new Storeroom(IngredientCatalog.DEFAULT, each, new int[] {20, 20, 20, 20},
+				new int[] {8, 8, 8, 8}, new Executor() {
+			public void execute(Runnable task) {
+				task.run();
+			}
+		});
+		CoffeeMaker other = new CoffeeMaker();
+		coffeeMaker.addRecipe(recipe1);
+		storeroom.attach(coffeeMaker);
+		storeroom.attach(other);
+		assertEquals(2, storeroom.getMachines());
+		assertEquals(20, storeroom.getStock(IngredientCatalog.COFFEE));
+		assertEquals(20, coffeeMaker.getInventory().getCoffee());
+		assertEquals(2, storeroom.getMessages());
+
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, coffeeMaker.makeCoffee(0, 50));
+		}
+		assertEquals(20, coffeeMaker.getInventory().getCoffee());
+		assertEquals(5, storeroom.getStock(IngredientCatalog.COFFEE));
+		assertEquals(15, storeroom.getStock(IngredientCatalog.MILK));
+		assertEquals(4, storeroom.getMessages());
+
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, coffeeMaker.makeCoffee(0, 50));
+		}
+		assertEquals(17, coffeeMaker.getInventory().getCoffee());
+		assertEquals(13, other.getInventory().getCoffee());
+		assertEquals(0, storeroom.getStock(IngredientCatalog.COFFEE));
+		assertEquals(7, storeroom.getMessages());
+		assertEquals(60 - 10 * 3, storeroom.getTotal(IngredientCatalog.COFFEE));
+		assertEquals(60 - 10, storeroom.getTotal(IngredientCatalog.MILK));
+		assertEquals(60, storeroom.getTotal(IngredientCatalog.CHOCOLATE));
+
+		storeroom.restock(new int[] {30, 0, 0, 0});
+		assertEquals(30, storeroom.getStock(IngredientCatalog.COFFEE));
+		assertEquals(7, storeroom.getMessages());
+
+		Storeroom async = new Storeroom(IngredientCatalog.DEFAULT, each, new int[] {20, 20, 20, 20},
+				new int[] {8, 8, 8, 8});
+		try {
+			CoffeeMaker third = new CoffeeMaker();
+			third.addRecipe(recipe1);
+			async.attach(third);
+			for (int i = 0; i < 5; i++) {
+				assertEquals(0, third.makeCoffee(0, 50));
+			}
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (third.getInventory().getCoffee() < 20 && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals(20, third.getInventory().getCoffee());
+			assertEquals(30 - 5 - 15, async.getStock(IngredientCatalog.COFFEE));
+		} finally {
+			async.close();
+		}
+	}
+
+	/**
+	 * Test Case ID: 83
+	 * Given a coffee maker recording into an order history that seals
+	 * a segment every four orders, on a clock advanced a second per order
+	 * When single and batch orders succeed and fail in every way, and a
+	 * hundred thousand orders from a busy machine are appended
+	 * Then every order is recorded with its recipe id, payment, change
+	 * and outcome, a time-range scan decodes only the segment it needs,
+	 * and the busy machine's orders take under five bytes each.
+	 */
+	@Test
+	public void testOrderHistory() throws Exception {
+		AtomicLong time = new AtomicLong(1000);
+		OrderHistory history = new OrderHistory(4, time::get);
+		coffeeMaker.setOrderHistory(history, "lobby");
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe2);
+		time.addAndGet(1000);
+		coffeeMaker.makeCoffee(0, 60);
+		time.addAndGet(1000);
+		coffeeMaker.makeCoffee("Coffee", 50);
+		time.addAndGet(1000);
+		coffeeMaker.makeCoffee(5, 100);
+		time.addAndGet(1000);
+		coffeeMaker.makeCoffee(0, 20);
+		time.addAndGet(1000);
+		coffeeMaker.makeCoffee(1, 100);
+		time.addAndGet(1000);
+		coffeeMaker.makeCoffee("Nothing", 10);
+		time.addAndGet(1000);
+		int[] change = new int[2];
+		coffeeMaker.makeCoffeeBatch(new int[] {0, 1}, new int[] {50, 80}, change, BatchMode.ALL_OR_NOTHING);
+		time.addAndGet(1000);
+		coffeeMaker.makeCoffeeBatch(new int[] {0, 9}, new int[] {50, 50}, change, BatchMode.ALL_OR_NOTHING);
+		assertEquals(10, history.size());
+		assertEquals(2, history.getSegments());
+
+		final StringBuilder rows = new StringBuilder();
+		OrderHistory.Visitor collect = new OrderHistory.Visitor() {
+			public void order(long t, String machine, int recipeId, int paid, int given, OrderStatus status) {
+				rows.append(t).append(' ').append(machine).append(' ').append(recipeId).append(' ')
+						.append(paid).append(' ').append(given).append(' ').append(status).append('\n');
+			}
+		};
+		assertEquals(10, history.scan(0, Long.MAX_VALUE, collect));
+		assertEquals("2000 lobby 0 60 10 SUCCESS\n"
+				+ "3000 lobby 0 50 0 SUCCESS\n"
+				+ "4000 lobby 5 100 100 UNKNOWN_RECIPE\n"
+				+ "5000 lobby 0 20 20 INSUFFICIENT_FUNDS\n"
+				+ "6000 lobby 1 100 100 OUT_OF_STOCK\n"
+				+ "7000 lobby -1 10 10 UNKNOWN_RECIPE\n"
+				+ "8000 lobby 0 50 50 OUT_OF_STOCK\n"
+				+ "8000 lobby 1 80 80 OUT_OF_STOCK\n"
+				+ "9000 lobby 0 50 50 BATCH_FAILED\n"
+				+ "9000 lobby 9 50 50 UNKNOWN_RECIPE\n", rows.toString());
+		assertEquals(2, history.getSegmentsRead());
+
+		rows.setLength(0);
+		assertEquals(2, history.scan(6000, 7001, collect));
+		assertEquals(3, history.getSegmentsRead());
+		assertTrue(rows.toString().startsWith("6000 lobby 1 100 100 OUT_OF_STOCK\n"));
+		coffeeMaker.setOrderHistory(null, null);
+		coffeeMaker.makeCoffee(0, 50);
+		assertEquals(10, history.size());
+
+		OrderHistory busy = new OrderHistory(4096, time::get);
+		Random random = new Random(42);
+		int[] coins = {50, 75, 100, 200};
+		long paidTotal = 0;
+		for (int i = 0; i < 100000; i++) {
+			time.addAndGet(5000 + random.nextInt(10000));
+			int paid = coins[random.nextInt(coins.length)];
+			paidTotal += paid;
+			busy.append("busy", random.nextInt(3), paid, random.nextInt(4) * 25,
+					random.nextInt(50) == 0 ? OrderStatus.OUT_OF_STOCK : OrderStatus.SUCCESS);
+		}
+		busy.flush();
+		assertTrue(busy.getCompressedBytes() < 5 * 100000);
+		final AtomicLong paidSeen = new AtomicLong();
+		assertEquals(100000, busy.scan(0, Long.MAX_VALUE, new OrderHistory.Visitor() {
+			public void order(long t, String machine, int recipeId, int paid, int given, OrderStatus status) {
+				paidSeen.addAndGet(paid);
+			}
+		}));
+		assertEquals(paidTotal, paidSeen.get());
+	}
+
+	/**
+	 * Test Case ID: 84
+	 * Given an inventory whose listener throws whenever reserved units
+	 * are given back
+	 * When two reservations expire one after the other, and a third is
+	 * made with a timeout too large to add to the clock
+	 * Then both expiries give the units back despite the listener, and
+	 * the third reservation stays pending.
+	 */
+	@Test
+	public void testReservationExpiryListenerFailure() throws Exception {
+		Inventory inventory = coffeeMaker.getInventory();
+		inventory.addListener(new InventoryListener() {
+			public void inventoryChanged(InventoryListener.Change change, long version, int[] before, int[] after) {
+				if (change == InventoryListener.Change.RELEASE) {
+					throw new IllegalStateException("listener failed");
+				}
+			}
+		});
+		for (int i = 0; i < 2; i++) {
+			Reservation r = inventory.reserve(recipe1, 1, TimeUnit.MILLISECONDS);
+			assertEquals(12, inventory.getCoffee());
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while ((r.getState() == Reservation.State.PENDING || inventory.getCoffee() != 15)
+					&& System.nanoTime() < deadline) {
+				Thread.sleep(5);
+			}
+			assertEquals(Reservation.State.EXPIRED, r.getState());
+			assertEquals(15, inventory.getCoffee());
+		}
+		assertTrue(TimingWheel.Shared.WHEEL.getFailures() >= 2);
+
+		Reservation forever = inventory.reserve(recipe1, Long.MAX_VALUE, TimeUnit.DAYS);
+		Thread.sleep(50);
+		assertEquals(Reservation.State.PENDING, forever.getState());
+		assertTrue(forever.commit());
+	}
+
+	/**
+	 * Test Case ID: 85
+	 * Given an order server
+	 * When a client pipelines more requests than the server buffers
+	 * responses for, without reading, and then sends a frame claiming
+	 * to be nearly 2 GB long
+	 * Then the server closes that connection instead of allocating the
+	 * frame, and keeps serving other clients.
+	 */
+	@Test
+	public void testOrderServerRejectsHugeFrame() throws IOException {
+		OrderServer server = new OrderServer(coffeeMaker, new InetSocketAddress("localhost", 0), 1);
+		Socket raw = new Socket("localhost", server.getPort());
+		try {
+			raw.setSoTimeout(5000);
+			ByteBuffer frames = ByteBuffer.allocate(6000 * 5 + 8);
+			for (int i = 0; i < 6000; i++) {
+				frames.putInt(1).put(Protocol.CHECK_INVENTORY);
+			}
+			frames.putInt(Integer.MAX_VALUE - 8).putInt(0);
+			raw.getOutputStream().write(frames.array(), 0, frames.position());
+			InputStream in = raw.getInputStream();
+			byte[] buf = new byte[65536];
+			long received = 0;
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				received += n;
+			}
+			assertTrue(received > 0);
+
+			OrderClient client = new OrderClient(new InetSocketAddress("localhost", server.getPort()));
+			try {
+				assertEquals(coffeeMaker.checkInventory(), client.checkInventory());
+			} finally {
+				client.close();
+			}
+		} finally {
+			raw.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * Test Case ID: 86
+	 * Given an order server whose coffee maker has a recipe book listener
+	 * that throws
+	 * When a client adds a recipe and then keeps using the connection
+	 * Then the add fails with a server error and the connection and
+	 * event loop keep serving requests.
+	 */
+	@Test
+	public void testOrderServerSurvivesFailure() throws IOException {
+		coffeeMaker.getRecipeBook().addListener(new RecipeBookListener() {
+			public void recipeChanged(RecipeBookListener.Change change, int recipeId, RecipeSnapshot snapshot) {
+				throw new IllegalStateException("listener failed");
+			}
+		});
+		OrderServer server = new OrderServer(coffeeMaker, new InetSocketAddress("localhost", 0), 1);
+		OrderClient client = new OrderClient(new InetSocketAddress("localhost", server.getPort()));
+		try {
+			try {
+				client.addRecipe(recipe1);
+				fail("Expected a server error");
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("listener failed"));
+			}
+			assertEquals(coffeeMaker.checkInventory(), client.checkInventory());
+			assertEquals(0, client.makeCoffee("Coffee", 50));
+		} finally {
+			client.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * Test Case ID: 87
+	 * Given a recipe in the recipe book and a replica of the book
+	 * When a caller tries to change the published recipe, and changes
+	 * the recipe object it added and a copy of the published one
+	 * Then the published recipe cannot be changed, the caller's objects
+	 * can, the book only changes through editRecipe, and the replica
+	 * holds its own recipe objects.
+	 */
+	@Test
+	public void testPublishedRecipesAreFrozen() throws Exception {
+		coffeeMaker.addRecipe(recipe1);
+		Recipe published = coffeeMaker.getRecipeBook().getRecipe(0);
+		assertTrue(published.isFrozen());
+		assertNotSame(recipe1, published);
+		long version = coffeeMaker.getRecipeSnapshot().getVersion();
+		try {
+			published.setPrice(1);
+			fail("Published recipes must be frozen");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			coffeeMaker.getRecipes()[0].setAmount(IngredientCatalog.COFFEE, 1);
+			fail("Published recipes must be frozen");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		recipe1.setPrice(1);
+		Recipe copy = new Recipe(published);
+		assertFalse(copy.isFrozen());
+		copy.setPrice(60);
+		assertEquals(50, coffeeMaker.getRecipeBook().getRecipe(0).getPrice());
+		assertEquals(version, coffeeMaker.getRecipeSnapshot().getVersion());
+		assertEquals("Coffee", coffeeMaker.editRecipe(0, copy));
+		assertEquals(60, coffeeMaker.getRecipeBook().getRecipe(0).getPrice());
+
+		RecipeBook replica = new RecipeBook();
+		assertTrue(replica.restore(coffeeMaker.getRecipeSnapshot()));
+		Recipe replicated = replica.getRecipe(0);
+		assertNotSame(coffeeMaker.getRecipeBook().getRecipe(0), replicated);
+		assertTrue(replicated.isFrozen());
+		assertEquals(60, replicated.getPrice());
+	}
+
+	/**
+	 * Test Case ID: 88
+	 * Given two events whose inventory snapshots were read in the
+	 * opposite order to their sequence numbers, when a CONFLATE
+	 * subscriber polls, then it gets the newest event carrying the
+	 * newest inventory; and a BLOCK handler that publishes onto its own
+	 * full bus does not wait for itself.
+	 */
+	@Test
+	public void testEventBusOrdering() throws Exception {
+		EventBus bus = new EventBus(8);
+		EventBus.Subscription conflate = bus.subscribe(OverflowPolicy.CONFLATE);
+		InventorySnapshot older = coffeeMaker.getInventorySnapshot();
+		coffeeMaker.addInventory("5", "0", "0", "0");
+		InventorySnapshot newer = coffeeMaker.getInventorySnapshot();
+		bus.publish(CoffeeMakerEvent.Type.INVENTORY_ADDED, -1, null, newer, null);
+		bus.publish(CoffeeMakerEvent.Type.INVENTORY_ADDED, -1, null, older, null);
+		final List<CoffeeMakerEvent> seen = new ArrayList<CoffeeMakerEvent>();
+		assertEquals(1, conflate.poll(seen::add, 100));
+		assertEquals(1, seen.get(0).getSequence());
+		assertSame(newer, seen.get(0).getInventory());
+
+		final EventBus blocking = new EventBus(2);
+		final EventBus.Subscription block = blocking.subscribe(OverflowPolicy.BLOCK);
+		blocking.publish(CoffeeMakerEvent.Type.INVENTORY_ADDED, -1, null, null, null);
+		blocking.publish(CoffeeMakerEvent.Type.INVENTORY_ADDED, -1, null, null, null);
+		CompletableFuture<Integer> polled = CompletableFuture.supplyAsync(new Supplier<Integer>() {
+			public Integer get() {
+				return block.poll(new Consumer<CoffeeMakerEvent>() {
+					public void accept(CoffeeMakerEvent e) {
+						for (int i = 0; i < 3; i++) {
+							blocking.publish(CoffeeMakerEvent.Type.INVENTORY_ADDED, -1, null, null, null);
+						}
+					}
+				}, 1);
+			}
+		});
+		assertEquals(1, polled.get(5, TimeUnit.SECONDS).intValue());
+		seen.clear();
+		block.poll(seen::add, 100);
+		assertEquals(4, seen.get(seen.size() - 1).getSequence());
+		assertTrue(block.getDropped() > 0);
+	}
+
+	/**
+	 * Test Case ID: 89
+	 * Given a replica coffee maker with an event subscriber that is
+	 * itself the primary of a second replica
+	 * When recipes are added, edited and deleted on the first primary
+	 * Then the changes are published on the replica's event bus and
+	 * reach the second replica through the replica's listeners.
+	 */
+	@Test
+	public void testChainedRecipeReplication() throws Exception {
+		coffeeMaker.addRecipe(recipe1);
+		LoopbackTransport upstream = new LoopbackTransport();
+		LoopbackTransport downstream = new LoopbackTransport();
+		try {
+			new RecipePrimary(coffeeMaker, upstream, 16);
+			CoffeeMaker middle = new CoffeeMaker();
+			RecipeReplica replica = new RecipeReplica(middle, upstream);
+			EventBus.Subscription events = middle.getEventBus().subscribe(OverflowPolicy.DROP);
+			new RecipePrimary(middle, downstream, 16);
+			RecipeReplica last = new RecipeReplica(new RecipeBook(), downstream);
+			assertEquals(1, last.getVersion());
+
+			coffeeMaker.addRecipe(recipe2);
+			coffeeMaker.editRecipe(0, recipe3);
+			coffeeMaker.deleteRecipe(1);
+			assertTrue(replica.awaitVersion(4, 5, TimeUnit.SECONDS));
+			assertTrue(last.awaitVersion(4, 5, TimeUnit.SECONDS));
+			assertArrayEquals(coffeeMaker.getRecipes(), last.getRecipeBook().getRecipes());
+			assertEquals(3, last.getEntriesApplied());
+
+			List<CoffeeMakerEvent> seen = new ArrayList<CoffeeMakerEvent>();
+			assertEquals(3, events.poll(seen::add, 100));
+			assertEquals(CoffeeMakerEvent.Type.RECIPE_ADDED, seen.get(0).getType());
+			assertEquals("Mocha", seen.get(0).getRecipe().getName());
+			assertEquals(CoffeeMakerEvent.Type.RECIPE_EDITED, seen.get(1).getType());
+			assertEquals(100, seen.get(1).getRecipe().getPrice());
+			assertEquals(CoffeeMakerEvent.Type.RECIPE_DELETED, seen.get(2).getType());
+			assertEquals("Mocha", seen.get(2).getRecipe().getName());
+			assertEquals(1, seen.get(2).getRecipeId());
+		} finally {
+			upstream.close();
+			downstream.close();
+		}
+	}
+
+	/**
+	 * Test Case ID: 90
+	 * Given an inventory with 15 of each ingredient
+	 * When units are deposited for fewer ingredients than the catalog
+	 * has, or for more
+	 * Then the short deposit keeps every ingredient and the long one
+	 * is rejected without changing the counts.
+	 */
+	@Test
+	public void testDepositSizedFromCatalog() {
+		Inventory inventory = coffeeMaker.getInventory();
+		inventory.deposit(new int[] {2});
+		assertEquals(17, inventory.getSnapshot().getCount(IngredientCatalog.COFFEE));
+		assertEquals(15, inventory.getSnapshot().getCount(IngredientCatalog.CHOCOLATE));
+		try {
+			inventory.deposit(new int[] {1, 1, 1, 1, 1});
+			fail("More amounts than ingredients must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(17, inventory.getSnapshot().getCount(IngredientCatalog.COFFEE));
+		assertEquals(4, inventory.getSnapshot().size());
+	}
+
+	/**
+	 * Test Case ID: 91
+	 * Given an empty storeroom with a quota of 20 and a low-water mark
+	 * of 8, and two machines with 15 of each ingredient
+	 * When one machine sells coffee until its top-ups have borrowed the
+	 * other below the low-water mark, and the other then sells coffee
+	 * Then the lender's first order asks for a top-up even though it
+	 * was already low before the order.
+	 */
+	@Test
+	public void testStoreroomRetriesWhileLow() throws Exception {
+		Storeroom storeroom = new Storeroom(IngredientCatalog.DEFAULT, new int[4], new int[] {20, 20, 20, 20},
+				new int[] {8, 8, 8, 8}, new Executor() {
+			public void execute(Runnable task) {
+				task.run();
+			}
+		});
+		CoffeeMaker lender = new CoffeeMaker();
+		coffeeMaker.addRecipe(recipe1);
+		lender.addRecipe(recipe1);
+		storeroom.attach(coffeeMaker);
+		storeroom.attach(lender);
+		for (int i = 0; i < 10 && lender.getInventory().getCoffee() >= 8; i++) {
+			assertEquals(0, coffeeMaker.makeCoffee(0, 50));
+		}
+		assertTrue(lender.getInventory().getCoffee() < 8);
+		assertTrue(lender.getInventory().getCoffee() >= 3);
+
+		long messages = storeroom.getMessages();
+		assertEquals(0, lender.makeCoffee(0, 50));
+		assertTrue(storeroom.getMessages() > messages);
+	}
+
+	/**
+	 * Test Case ID: 92
+	 * Given a free recipe and a deleted recipe
+	 * When the command engine makes the free drink paying nothing and
+	 * orders the deleted recipe
+	 * Then the free drink is reported as purchased and the deleted
+	 * recipe as not listed, not as insufficient funds.
+	 */
+	@Test
+	public void testMakeCoffeeReportsOrderStatus() throws Exception {
+		recipe1.setPrice(0);
+		coffeeMaker.addRecipe(recipe1);
+		coffeeMaker.addRecipe(recipe2);
+		coffeeMaker.deleteRecipe(1);
+		StringWriter out = new StringWriter();
+		CommandEngine engine = new CommandEngine(coffeeMaker,
+				new BufferedReader(new StringReader("6\n1\n0\n6\n2\n75\n")), out, false);
+		assertEquals(2, engine.run());
+		assertEquals("Thank you for purchasing Coffee\nYour change is: 0\n\n"
+				+ "Please select the number of a listed recipe.\nYour change is: 75\n\n", out.toString());
+	}
+
+	/**
+	 * Test Case ID: 93
+	 * Given free ingredients, no storage limit and a forecast far
+	 * beyond what an inventory can hold
+	 * When a restock is planned
+	 * Then every planned count fits in the inventory and none wraps
+	 * around to a negative number.
+	 */
+	@Test
+	public void testRestockPlannerFitsInventory() {
+		RestockPlanner.Plan plan = new RestockPlanner(new int[4], Long.MAX_VALUE, null)
+				.plan(new int[] {15, 15, 15, 15}, new Recipe[] {recipe1}, new double[] {1e12});
+		int[] units = plan.getUnits();
+		assertEquals(Integer.MAX_VALUE / 3, plan.getServings()[0]);
+		assertEquals(3 * (Integer.MAX_VALUE / 3) - 15, units[IngredientCatalog.COFFEE]);
+		for (int i = 0; i < units.length; i++) {
+			assertTrue(units[i] >= 0);
+			assertTrue(15L + units[i] <= Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Test Case ID: 94
+	 * Given an inventory with 15 of each ingredient
+	 * When units are added that would take a count past
+	 * Integer.MAX_VALUE, through every add path
+	 * Then the add is refused, no count changes, and units coming back
+	 * to a full inventory stop at Integer.MAX_VALUE.
+	 */
+	@Test
+	public void testInventoryAddOverflow() throws Exception {
+		Inventory inventory = coffeeMaker.getInventory();
+		long version = inventory.getVersion();
+		try {
+			coffeeMaker.addInventory("2147483647", "0", "0", "0");
+			fail("Overflowing the coffee count must be refused");
+		} catch (InventoryException e) {
+			assertEquals(InputCheck.message(InputCheck.TOO_MANY, coffeeMaker.getCatalog()), e.getMessage());
+		}
+		try {
+			inventory.addAmount(IngredientCatalog.MILK, Integer.MAX_VALUE);
+			fail("Overflowing the milk count must be refused");
+		} catch (InventoryException e) {
+			// expected
+		}
+		assertEquals(InputCheck.TOO_MANY, coffeeMaker.tryAddInventory(new int[] {0, 0, Integer.MAX_VALUE, 0}));
+		assertEquals(InputCheck.TOO_MANY,
+				coffeeMaker.tryAddInventory(new CharSequence[] {"0", "0", "0", "2147483647"}));
+		assertEquals(version, inventory.getVersion());
+		assertEquals(15, inventory.getCoffee());
+		assertEquals(15, inventory.getChocolate());
+
+		assertEquals(InputCheck.NONE, coffeeMaker.tryAddInventory(new int[] {Integer.MAX_VALUE - 15, 0, 0, 0}));
+		assertEquals(Integer.MAX_VALUE, inventory.getCoffee());
+		inventory.deposit(new int[] {5});
+		assertEquals(Integer.MAX_VALUE, inventory.getCoffee());
+		coffeeMaker.addRecipe(recipe1);
+		assertEquals(0, coffeeMaker.makeCoffee(0, 50));
+		assertEquals(Integer.MAX_VALUE - 3, inventory.getCoffee());
+	}
+
+	/**
+	 * Test Case ID: 95
+	 * Given a coffee maker with a journal, one record aborted and one record never committed
+	 * When we checkpoint the journal, reopen it and replay it into a new coffee maker
+	 * Then neither record is replayed, the stable position stayed behind the pending record, and only kept segments remain
+	 */
+	@Test
+	public void testJournalIsWriteAhead() throws InventoryException, IOException {
+		File file = folder.newFile("coffeemaker.journal");
+		Journal journal = new Journal(file, 4096, Journal.FsyncPolicy.ON_DEMAND, 0);
+		journal.attach(coffeeMaker);
+		for (int i = 0; i < 250; i++) {
+			coffeeMaker.addInventory("1", "0", "0", "0");
+		}
+		long aborted = journal.inventoryChanging(InventoryListener.Change.SET, 1000, new int[] {1, 1, 1, 1});
+		journal.abort(aborted);
+		long pending = journal.inventoryChanging(InventoryListener.Change.SET, 1001, new int[] {2, 2, 2, 2});
+		assertEquals(pending, journal.getStablePosition());
+		assertTrue(journal.getPosition() > pending);
+		assertEquals(2, journal.checkpoint(journal.getPosition()));
+		assertFalse(new File(file.getPath() + ".0").exists());
+		assertFalse(new File(file.getPath() + ".1").exists());
+		assertTrue(new File(file.getPath() + ".2").exists());
+		journal.close();
+
+		CoffeeMaker restored = new CoffeeMaker();
+		journal = new Journal(file, 4096, Journal.FsyncPolicy.ON_DEMAND, 0);
+		assertEquals(8192, journal.getHead());
+		assertTrue(journal.replay(restored) > 0);
+		journal.close();
+		assertEquals(coffeeMaker.checkInventory(), restored.checkInventory());
+	}
+
+	/**
+	 * Test Case ID: 96
+	 * Given a coffee maker with a journal that filled several segments
+	 * When a snapshot is written, more changes follow and the journal is reopened
+	 * Then the snapshot deleted the segments it covers, the journal starts at the snapshot's offset and the later changes replay
+	 */
+	@Test
+	public void testSnapshotCheckpointsJournal() throws RecipeException, InventoryException, IOException {
+		File journalFile = folder.newFile("coffeemaker.journal");
+		File snapshotFile = new File(folder.getRoot(), "coffeemaker.snapshot");
+		Journal journal = new Journal(journalFile, 4096, Journal.FsyncPolicy.ON_DEMAND, 0);
+		journal.attach(coffeeMaker);
+		coffeeMaker.addRecipe(recipe1);
+		for (int i = 0; i < 250; i++) {
+			coffeeMaker.addInventory("1", "0", "0", "0");
+		}
+		SnapshotWriter snapshots = new SnapshotWriter(coffeeMaker, journal, snapshotFile, 60000);
+		snapshots.close();
+		assertFalse(new File(journalFile.getPath() + ".0").exists());
+		assertFalse(new File(journalFile.getPath() + ".2").exists());
+		coffeeMaker.addRecipe(recipe2);
+		coffeeMaker.makeCoffee(0, 50);
+		journal.close();
+
+		CoffeeMakerSnapshot snapshot = CoffeeMakerSnapshot.open(snapshotFile);
+		assertEquals(3 * 4096, snapshot.getJournalOffset());
+		CoffeeMaker restored = new CoffeeMaker();
+		snapshot.restore(restored);
+		journal = new Journal(journalFile, 4096, Journal.FsyncPolicy.ON_DEMAND, 0);
+		assertEquals(snapshot.getJournalOffset(), journal.getHead());
+		assertEquals(2, journal.replay(restored, snapshot.getJournalOffset()));
+		journal.close();
+		assertEquals(coffeeMaker.checkInventory(), restored.checkInventory());
+		assertEquals("Mocha", restored.getRecipes()[1].getName());
+	}
+
+	/**
+	 * Test Case ID: 97
+	 * Given a dispatcher whose coffee maker throws an error for one order
+	 * When that order and another are submitted
+	 * Then the first future fails with the error and the dispatcher still makes the second order
+	 */
+	@Test
+	public void testOrderDispatcherSurvivesErrors() throws Exception {
+		CoffeeMaker failing = new CoffeeMaker() {
+			@Override
+			public OrderResult order(int recipeToPurchase, int amtPaid) {
+				if (recipeToPurchase == 1) {
+					throw new AssertionError("broken");
+				}
+				return super.order(recipeToPurchase, amtPaid);
+			}
+		};
+		failing.addRecipe(recipe1);
+		OrderDispatcher dispatcher = failing.startDispatcher(4, WaitStrategy.YIELD);
+		CompletableFuture<OrderResult> broken = dispatcher.submit(1, 50);
+		CompletableFuture<OrderResult> made = dispatcher.submit(0, 60);
+		assertEquals(10, made.get(10, TimeUnit.SECONDS).getChange());
+		assertTrue(broken.isCompletedExceptionally());
+		dispatcher.close();
+	}
+
+	/**
+	 * Test Case ID: 98
+	 * Given a coffee maker served over loopback
+	 * When a client pipelines far more orders than the server buffers responses for, and places single orders
+	 * Then every response comes back with its order status and change
+	 */
+	@Test
+	public void testOrderServerLargeBatch() throws IOException {
+		coffeeMaker.addRecipe(recipe1);
+		OrderServer server = new OrderServer(coffeeMaker, new InetSocketAddress("localhost", 0), 1);
+		OrderClient client = new OrderClient(new InetSocketAddress("localhost", server.getPort()));
+		try {
+			int[] recipeIds = new int[100000];
+			int[] paid = new int[recipeIds.length];
+			Arrays.fill(recipeIds, 5);
+			Arrays.fill(paid, 40);
+			recipeIds[0] = 0;
+			paid[0] = 60;
+			OrderResult[] results = client.order(recipeIds, paid);
+			assertEquals(OrderStatus.SUCCESS, results[0].getStatus());
+			assertEquals(10, results[0].getChange());
+			assertEquals(OrderStatus.UNKNOWN_RECIPE, results[results.length - 1].getStatus());
+			assertEquals(40, results[results.length - 1].getChange());
+			assertEquals(OrderStatus.INSUFFICIENT_FUNDS, client.order(0, 40).getStatus());
+			assertEquals(OrderStatus.SUCCESS, client.order("Coffee", 50).getStatus());
+		} finally {
+			client.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * Test Case ID: 99
+	 * Given an order history saved to a directory whose sealing tasks are held back
+	 * When full segments are appended, the held task runs, the history is flushed and loaded again
+	 * Then appending never sealed a segment itself, and the loaded history has every order and machine
+	 */
+	@Test
+	public void testOrderHistorySealsOffOrderPathAndPersists() throws IOException {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		Executor held = new Executor() {
+			public void execute(Runnable task) {
+				tasks.add(task);
+			}
+		};
+		AtomicLong time = new AtomicLong(1000);
+		File dir = folder.newFolder("history");
+		OrderHistory history = new OrderHistory(4, time::get, dir, held);
+		for (int i = 0; i < 10; i++) {
+			time.addAndGet(1000);
+			history.append(i % 2 == 0 ? "lobby" : "hall", i, 50, 0, OrderStatus.SUCCESS);
+		}
+		assertEquals(2, history.getSegments());
+		assertEquals(0, history.getCompressedBytes());
+		assertEquals(1, tasks.size());
+		assertEquals(10, history.scan(0, Long.MAX_VALUE, new OrderHistory.Visitor() {
+			public void order(long t, String machine, int recipeId, int paid, int change, OrderStatus status) {
+			}
+		}));
+		tasks.get(0).run();
+		assertTrue(history.getCompressedBytes() > 0);
+		history.flush();
+
+		OrderHistory loaded = new OrderHistory(4, time::get, dir, held);
+		assertEquals(10, loaded.size());
+		assertEquals(3, loaded.getSegments());
+		final StringBuilder rows = new StringBuilder();
+		assertEquals(2, loaded.scan(9000, 11000, new OrderHistory.Visitor() {
+			public void order(long t, String machine, int recipeId, int paid, int change, OrderStatus status) {
+				rows.append(t).append(' ').append(machine).append(' ').append(recipeId).append('\n');
+			}
+		}));
+		assertEquals("9000 hall 7\n10000 lobby 8\n", rows.toString());
+		loaded.append("kiosk", 0, 50, 0, OrderStatus.SUCCESS);
+		loaded.flush();
+		assertEquals(11, new OrderHistory(4, time::get, dir, held).size());
+	}
+
+	/**
+	 * Test Case ID: 100
+	 * Given a coffee maker restored from a snapshot, with a subscriber
+	 * When two threads add recipes at once, and a recipe from the snapshot is edited and deleted
+	 * Then every added event carries the id its recipe got, and the edit and delete carry their recipes
+	 */
+	@Test
+	public void testRecipeEventsComeFromTheRecipeBook() throws Exception {
+		coffeeMaker.addRecipe(recipe1);
+		File file = new File(folder.getRoot(), "coffeemaker.snapshot");
+		CoffeeMakerSnapshot.write(coffeeMaker, 0, file);
+		final CoffeeMaker restored = new CoffeeMaker();
+		CoffeeMakerSnapshot.open(file).restore(restored);
+		EventBus.Subscription sub = restored.getEventBus().subscribe(OverflowPolicy.DROP);
+		Thread[] threads = new Thread[2];
+		for (int t = 0; t < threads.length; t++) {
+			final int first = t * 100;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = first; i < first + 100; i++) {
+						Recipe r = new Recipe();
+						r.setName("Recipe " + i);
+						restored.addRecipe(r);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		restored.editRecipe(0, recipe3);
+		restored.deleteRecipe(0);
+		final List<CoffeeMakerEvent> events = new ArrayList<CoffeeMakerEvent>();
+		sub.poll(new Consumer<CoffeeMakerEvent>() {
+			public void accept(CoffeeMakerEvent e) {
+				events.add(e);
+			}
+		}, 1000);
+		assertEquals(202, events.size());
+		for (CoffeeMakerEvent e : events.subList(0, 200)) {
+			assertEquals(CoffeeMakerEvent.Type.RECIPE_ADDED, e.getType());
+			assertEquals(e.getRecipe().getName(), e.getRecipes().getRecipe(e.getRecipeId()).getName());
+		}
+		assertEquals(CoffeeMakerEvent.Type.RECIPE_EDITED, events.get(200).getType());
+		assertEquals(100, events.get(200).getRecipe().getPrice());
+		assertEquals(CoffeeMakerEvent.Type.RECIPE_DELETED, events.get(201).getType());
+		assertEquals(100, events.get(201).getRecipe().getPrice());
+	}
+
+	/**
+	 * Test Case ID: 101
+	 * Given a ledger that has been running for over an hour
+	 * When sales are recorded across a second boundary without any reads
+	 * Then recording takes no sample, and a later read still finds the window from the samples it takes
+	 */
+	@Test
+	public void testSalesLedgerSamplesOffOrderPath() {
+		final AtomicLong time = new AtomicLong(1000000);
+		final AtomicLong reads = new AtomicLong();
+		SalesLedger ledger = new SalesLedger(new LongSupplier() {
+			public long getAsLong() {
+				reads.incrementAndGet();
+				return time.get();
+			}
+		});
+		time.addAndGet(4000000);
+		assertEquals(0, ledger.getUnitsLastMinute());
+		long before = reads.get();
+		ledger.record(recipe1);
+		time.addAndGet(1000);
+		ledger.record(recipe1);
+		ledger.record(recipe2);
+		assertEquals(before, reads.get());
+		time.addAndGet(1000);
+		assertEquals(3, ledger.getUnitsLastMinute());
+		assertEquals(175, ledger.getRevenueLastMinute());
+		time.addAndGet(1000);
+		ledger.record(recipe3);
+		assertEquals(4, ledger.getUnitsLastMinute());
+		time.addAndGet(60000);
+		assertEquals(0, ledger.getUnitsLastMinute());
+	}
+}